@@ -0,0 +1,91 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing plus XPath extraction of one fixture page, for a single host
+ * pattern ({@link PersonaExtractor#obtainPersonas(String)}) and for every
+ * pattern at once ({@link PersonaExtractor#obtainPersonasForAllHosts()}),
+ * with each engine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExtractorBenchmarks {
+
+  @Param({ "NEKO", "HTMLUNIT" })
+  private ExtractionEngine.Type engine;
+
+  @Param({ "www.hipointfirearmsforums.com", "www.slickguns.com",
+      "www.theoutdoorstrader.com", "www.firearmstalk.com",
+      "www.buyusedguns.net", "nucleuspf3izq7o6.onion",
+      "agorahooawayyfoe.onion" })
+  private String hostKey;
+
+  @Param({ "40" })
+  private int posts;
+
+  private PersonaExtractor extractor;
+
+  @Setup
+  public void setUp() throws IOException {
+    FixtureCorpus.quietLogging();
+    this.extractor = new PersonaExtractor();
+    this.extractor.setConfigFile(FixtureCorpus.getConfigFile());
+    this.extractor.setEngineType(this.engine);
+    this.extractor.setPage(FixtureCorpus.page(this.hostKey, this.posts),
+        FixtureCorpus.uri(this.hostKey));
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.extractor.close();
+  }
+
+  @Benchmark
+  public Persona obtainPersonas() throws IOException {
+    return this.extractor.obtainPersonas(this.hostKey);
+  }
+
+  @Benchmark
+  public Map<String, Persona> obtainPersonasForAllHosts() throws IOException {
+    return this.extractor.obtainPersonasForAllHosts();
+  }
+
+}
@@ -0,0 +1,209 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Synthetic pages for the benchmarks, one kind per host pattern in the bundled
+ * <code>patterns.properties</code>: forum threads whose poster links match the
+ * weapons forum selectors, and market listings whose titles carry the vendor
+ * for the onion selectors. Pages are generated deterministically, so every
+ * run (and every release being compared) sees the same bytes.
+ */
+final class FixtureCorpus {
+
+  /** Host pattern key to the path prefix of its member profile links. */
+  private static final Map<String, String> FORUMS = new LinkedHashMap<String, String>();
+
+  static {
+    FORUMS.put("www.hipointfirearmsforums.com", "/forums/members/");
+    FORUMS.put("www.slickguns.com", "/users/");
+    FORUMS.put("www.theoutdoorstrader.com", "/members/");
+    FORUMS.put("www.firearmstalk.com", "/forum/members/");
+    FORUMS.put("www.buyusedguns.net", "/viewmembers.php?member=");
+  }
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // held on to, so the levels set on them stick
+  private static final Logger[] QUIET = {
+      Logger.getLogger("edu.usc.ir"),
+      Logger.getLogger("com.gargoylesoftware.htmlunit") };
+
+  private static File configFile = null;
+
+  private FixtureCorpus() {
+  }
+
+  /**
+   * Turns the per-page INFO logging off, so the benchmarks measure the work
+   * rather than the console. Problems are still logged.
+   */
+  static void quietLogging() {
+    for (Logger logger : QUIET) {
+      logger.setLevel(Level.SEVERE);
+    }
+  }
+
+  /**
+   * @return the bundled <code>patterns.properties</code>, copied to a
+   *         temporary file for {@link PatternRegistry}
+   * @throws IOException
+   *           If the copy fails.
+   */
+  static synchronized File getConfigFile() throws IOException {
+    if (configFile == null) {
+      File file = File.createTempFile("patterns", ".properties");
+      file.deleteOnExit();
+      InputStream in = FixtureCorpus.class
+          .getResourceAsStream("/patterns.properties");
+      try {
+        FileUtils.copyInputStreamToFile(in, file);
+      } finally {
+        in.close();
+      }
+      configFile = file;
+    }
+    return configFile;
+  }
+
+  /**
+   * @return the forum host pattern keys whose pages link member profiles
+   */
+  static Set<String> forumHostKeys() {
+    return Collections.unmodifiableSet(FORUMS.keySet());
+  }
+
+  /**
+   * @param hostKey
+   *          A host pattern key.
+   * @param posts
+   *          The number of posts (or listings) on the page.
+   * @return a page for <code>hostKey</code>, with a different user for every
+   *         other post
+   */
+  static byte[] page(String hostKey, int posts) {
+    StringBuilder html = new StringBuilder(posts * 200 + 512);
+    String prefix = FORUMS.get(hostKey);
+    html.append("<html><head><meta charset=\"utf-8\"><title>");
+    if (prefix != null) {
+      html.append("Re: range report, week ").append(posts).append(" - ")
+          .append(hostKey);
+    } else if (hostKey.startsWith("nucleus")) {
+      html.append("Profile vendor").append(posts).append(" | Nucleus Market");
+    } else {
+      html.append("vendor").append(posts);
+    }
+    html.append("</title><link rel=\"stylesheet\" href=\"/css/style.css\">")
+        .append("</head><body><div id=\"nav\"><a href=\"/\">Home</a>")
+        .append("<a href=\"/search.php?q=\">Search</a></div><table>\n");
+    for (int i = 0; i < posts; i++) {
+      String user = "user" + (i % Math.max(1, posts / 2));
+      html.append("<tr><td class=\"poster\">");
+      if (prefix != null) {
+        html.append("<a href=\"").append(prefix).append(user).append("\">")
+            .append(user).append("</a>");
+      } else {
+        html.append("<a href=\"/listing/").append(i).append("\">")
+            .append("listing ").append(i).append("</a>");
+      }
+      html.append("</td><td class=\"post\">Post ").append(i)
+          .append(": café talk about optics, mounts and the range.")
+          .append(" <a href=\"/showthread.php?p=").append(i)
+          .append("\">Quote</a></td></tr>\n");
+    }
+    html.append("</table></body></html>");
+    return html.toString().getBytes(UTF_8);
+  }
+
+  /**
+   * @param members
+   *          The number of members listed.
+   * @return the profile and other member links of an anchor-heavy member list
+   *         page, in the forms forums write them: with numeric ids before or
+   *         after the name, trailing slashes, mixed case and percent escapes,
+   *         next to <code>php</code> and query string links to skip
+   */
+  static String[] memberLinks(int members) {
+    String[] links = new String[members * 2];
+    for (int i = 0; i < members; i++) {
+      switch (i % 4) {
+      case 0:
+        links[i * 2] = "/members/user" + i + "." + (1000 + i) + "/";
+        break;
+      case 1:
+        links[i * 2] = "/members/User" + i;
+        break;
+      case 2:
+        links[i * 2] = "/members/" + (1000 + i) + "-user" + i;
+        break;
+      default:
+        links[i * 2] = "/members/us%C3%A9r" + i + "/";
+        break;
+      }
+      links[i * 2 + 1] = i % 2 == 0 ? "/members.php?u=" + i
+          : "/members/user" + i + "/posts?page=2";
+    }
+    return links;
+  }
+
+  /**
+   * @param hostKey
+   *          A host pattern key whose selector matches <code>/members/</code>
+   *          links.
+   * @param members
+   *          The number of members listed.
+   * @return a member list page with a row of {@link #memberLinks(int)} per
+   *         member
+   */
+  static byte[] memberList(String hostKey, int members) {
+    String[] links = memberLinks(members);
+    StringBuilder html = new StringBuilder(members * 160 + 256);
+    html.append("<html><head><meta charset=\"utf-8\"><title>Members - ")
+        .append(hostKey).append("</title></head><body><table>\n");
+    for (int i = 0; i < links.length; i += 2) {
+      html.append("<tr><td><a href=\"").append(links[i]).append("\">member ")
+          .append(i / 2).append("</a></td><td><a href=\"")
+          .append(links[i + 1]).append("\">more</a></td></tr>\n");
+    }
+    html.append("</table></body></html>");
+    return html.toString().getBytes(UTF_8);
+  }
+
+  /**
+   * @param hostKey
+   *          A host pattern key.
+   * @return the URI the page for <code>hostKey</code> is served under
+   */
+  static String uri(String hostKey) {
+    return "http://" + hostKey + "/thread/1";
+  }
+
+}
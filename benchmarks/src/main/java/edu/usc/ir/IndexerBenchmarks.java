@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-page indexing work after extraction: merging the personas of every
+ * host pattern ({@link PersonaIndexer#collect(Map)}) and building the Solr
+ * document ({@link PersonaIndexer#toSolrDocument(Persona)}). No Solr server
+ * is involved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexerBenchmarks {
+
+  @Param({ "7" })
+  private int hosts;
+
+  @Param({ "10", "100" })
+  private int usernames;
+
+  private PersonaIndexer indexer;
+
+  private Map<String, Persona> personas;
+
+  private Persona collected;
+
+  @Setup
+  public void setUp() {
+    FixtureCorpus.quietLogging();
+    this.indexer = new PersonaIndexer();
+    this.personas = new LinkedHashMap<String, Persona>();
+    for (int h = 0; h < this.hosts; h++) {
+      Persona persona = new Persona();
+      persona.setPageId("http://forum" + h + ".example.com/thread/1");
+      persona.setHostPatternKey("forum" + h + ".example.com");
+      for (int i = 0; i < this.usernames; i++) {
+        // overlapping users, as when several selectors match the same links
+        persona.getUsernames().add("user" + (h * this.usernames / 2 + i));
+      }
+      this.personas.put(persona.getHostPatternKey(), persona);
+    }
+    this.collected = this.indexer.collect(this.personas);
+  }
+
+  @Benchmark
+  public Persona collect() {
+    return this.indexer.collect(this.personas);
+  }
+
+  @Benchmark
+  public SolrInputDocument toSolrDocument() {
+    return PersonaIndexer.toSolrDocument(this.collected);
+  }
+
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What per-page logging costs extraction: fixture pages are extracted and
+ * collected with logging off, in {@link LoggingMode#VERBOSE} and in
+ * {@link LoggingMode#PRODUCTION}. The console handler is pointed at a
+ * temporary file, so the figures include formatting and writing the log but
+ * not a terminal. Compare the modes against <code>OFF</code> for the
+ * overhead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoggingBenchmarks {
+
+  private static final int PAGES = 50;
+
+  // held on to, so the level set on it sticks
+  private static final Logger LOGGER = Logger.getLogger("edu.usc.ir");
+
+  @Param({ "OFF", "VERBOSE", "PRODUCTION" })
+  private String logging;
+
+  @Param({ "100" })
+  private int sample;
+
+  @Param({ "40" })
+  private int posts;
+
+  private final List<byte[]> pages = new ArrayList<byte[]>(PAGES);
+
+  private final List<String> uris = new ArrayList<String>(PAGES);
+
+  private PersonaExtractor extractor;
+
+  private PersonaIndexer indexer;
+
+  private File log;
+
+  private PrintStream console;
+
+  private PrintStream redirected;
+
+  private Handler[] rootHandlers;
+
+  @Setup
+  public void setUp() throws IOException {
+    FixtureCorpus.quietLogging();
+    List<String> hostKeys = new ArrayList<String>(
+        FixtureCorpus.forumHostKeys());
+    for (int i = 0; i < PAGES; i++) {
+      String hostKey = hostKeys.get(i % hostKeys.size());
+      this.pages.add(FixtureCorpus.page(hostKey, this.posts));
+      // distinct ids, so PRODUCTION samples pages as it would a crawl
+      this.uris.add(FixtureCorpus.uri(hostKey) + "?page=" + i);
+    }
+    this.extractor = new PersonaExtractor();
+    this.extractor.setConfigFile(FixtureCorpus.getConfigFile());
+    this.indexer = new PersonaIndexer();
+
+    this.log = File.createTempFile("console", ".log");
+    this.log.deleteOnExit();
+    this.console = System.err;
+    this.redirected = new PrintStream(new BufferedOutputStream(
+        new FileOutputStream(this.log)), true);
+    System.setErr(this.redirected);
+    Logger root = Logger.getLogger("");
+    this.rootHandlers = root.getHandlers();
+    for (Handler handler : this.rootHandlers) {
+      root.removeHandler(handler);
+    }
+    // created after the redirect, so it writes to the file
+    root.addHandler(new ConsoleHandler());
+    if (this.logging.equals("OFF")) {
+      LOGGER.setLevel(Level.OFF);
+    } else {
+      LOGGER.setLevel(Level.INFO);
+      LoggingMode.valueOf(this.logging).install(this.sample);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    // writes out what is still queued
+    LoggingMode.uninstall();
+    Logger root = Logger.getLogger("");
+    for (Handler handler : root.getHandlers()) {
+      root.removeHandler(handler);
+      handler.close();
+    }
+    for (Handler handler : this.rootHandlers) {
+      root.addHandler(handler);
+    }
+    System.setErr(this.console);
+    this.redirected.close();
+    this.log.delete();
+    this.extractor.close();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PAGES)
+  public int extractAndCollect() throws IOException {
+    int usernames = 0;
+    for (int i = 0; i < PAGES; i++) {
+      this.extractor.setPage(this.pages.get(i), this.uris.get(i));
+      usernames += this.indexer
+          .collect(this.extractor.obtainPersonasForAllHosts()).getUsernames()
+          .size();
+    }
+    return usernames;
+  }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Username normalisation over the links of an anchor-heavy member list page:
+ * the {@link UsernameNormalizer} with the default and with a full filter,
+ * against the lower casing <code>isUserLink</code> check and substring
+ * PersonaExtractor used before, and extraction of the whole page through a
+ * <code>/members/</code> link selector with each filter.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NormalizerBenchmarks {
+
+  private static final String HOST_KEY = "www.theoutdoorstrader.com";
+
+  @Param({ "1000" })
+  private int members;
+
+  @Param({ "DEFAULT", "reject:php reject:? lowercase decode strip-id" })
+  private String filter;
+
+  private String[] links;
+
+  private UsernameNormalizer normalizer;
+
+  private final StringBuilder scratch = new StringBuilder();
+
+  private PersonaExtractor extractor;
+
+  private File configFile;
+
+  @Setup
+  public void setUp() throws IOException {
+    FixtureCorpus.quietLogging();
+    this.links = FixtureCorpus.memberLinks(this.members);
+    this.configFile = File.createTempFile("patterns", ".properties");
+    String config = FileUtils.readFileToString(FixtureCorpus.getConfigFile(),
+        "ISO-8859-1");
+    if (this.filter.equals("DEFAULT")) {
+      this.normalizer = UsernameNormalizer.DEFAULT;
+      // spelled out, in case the bundled config gains a filter
+      config += "\n" + HOST_KEY + ".filter=reject:php reject:?\n";
+    } else {
+      this.normalizer = UsernameNormalizer.parse(this.filter);
+      config += "\n" + HOST_KEY + ".filter=" + this.filter + "\n";
+    }
+    FileUtils.writeStringToFile(this.configFile, config, "ISO-8859-1");
+    this.extractor = new PersonaExtractor();
+    this.extractor.setConfigFile(this.configFile);
+    this.extractor.setEngineType(ExtractionEngine.Type.NEKO);
+    this.extractor.setPage(FixtureCorpus.memberList(HOST_KEY, this.members),
+        FixtureCorpus.uri(HOST_KEY));
+  }
+
+  @TearDown
+  public void tearDown() {
+    this.extractor.close();
+    this.configFile.delete();
+  }
+
+  @Benchmark
+  public void legacyLinks(Blackhole blackhole) {
+    for (String link : this.links) {
+      if (isUserLink(link)) {
+        blackhole.consume(link.substring(link.lastIndexOf('/') + 1));
+      }
+    }
+  }
+
+  @Benchmark
+  public void normalizeLinks(Blackhole blackhole) {
+    for (String link : this.links) {
+      blackhole.consume(this.normalizer.fromLink(link, this.scratch));
+    }
+  }
+
+  @Benchmark
+  public Persona extractMemberList() throws IOException {
+    return this.extractor.obtainPersonas(HOST_KEY);
+  }
+
+  // the link check PersonaExtractor made before UsernameNormalizer
+  private static boolean isUserLink(String link) {
+    if (link.toLowerCase().contains("php")) {
+      return false;
+    } else if (link.toLowerCase().contains("?")) {
+      return false;
+    } else
+      return true;
+  }
+
+}
@@ -0,0 +1,144 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.collections.list.SetUniqueList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Accumulating usernames as extraction does for every matching element, into
+ * a {@link Persona} ({@link UsernameList}, directly or through a
+ * {@link PersonaDictionary}) and into the commons-collections
+ * <code>SetUniqueList</code> it used before. Each username is added twice, so
+ * half the adds are duplicates to be dropped. The merge
+ * benchmarks then combine one such list per host, as
+ * {@link PersonaIndexer#collect(java.util.Map)} does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UsernameBenchmarks {
+
+  @Param({ "10", "100", "1000", "10000" })
+  private int usernames;
+
+  @Param({ "7" })
+  private int hosts;
+
+  private List<String> extracted;
+
+  private List<List<String>> perHost;
+
+  private List<Persona> perHostPersonas;
+
+  private PersonaDictionary dictionary;
+
+  @Setup
+  public void setUp() throws IOException {
+    this.extracted = new ArrayList<String>(this.usernames * 2);
+    for (int i = 0; i < this.usernames * 2; i++) {
+      // a fresh string per add, as each DOM lookup returns
+      this.extracted.add(new String("user" + (i % this.usernames)));
+    }
+    // room for every username, so nothing is evicted
+    this.dictionary = new PersonaDictionary(this.usernames * 2, null);
+    this.perHost = new ArrayList<List<String>>();
+    this.perHostPersonas = new ArrayList<Persona>();
+    for (int h = 0; h < this.hosts; h++) {
+      List<String> list = setUniqueList();
+      Persona persona = new Persona();
+      for (int i = 0; i < this.usernames; i++) {
+        // overlapping users, as when several selectors match the same links
+        String username = "user" + (h * this.usernames / 2 + i);
+        list.add(username);
+        persona.getUsernames().add(username);
+      }
+      this.perHost.add(list);
+      this.perHostPersonas.add(persona);
+    }
+  }
+
+  @Benchmark
+  public List<String> accumulateSetUniqueList() {
+    List<String> list = setUniqueList();
+    for (String username : this.extracted) {
+      list.add(username);
+    }
+    return list;
+  }
+
+  @Benchmark
+  public Persona accumulateUsernames() {
+    Persona persona = new Persona();
+    for (String username : this.extracted) {
+      persona.getUsernames().add(username);
+    }
+    return persona;
+  }
+
+  @Benchmark
+  public Persona accumulateDictionaryUsernames() {
+    Persona persona = new Persona();
+    for (String username : this.extracted) {
+      persona.getUsernames().add(this.dictionary.intern(username));
+    }
+    return persona;
+  }
+
+  @Benchmark
+  public List<String> mergeSetUniqueList() {
+    List<String> merged = setUniqueList();
+    for (List<String> list : this.perHost) {
+      merged.addAll(list);
+    }
+    return merged;
+  }
+
+  @Benchmark
+  public Persona mergeUsernames() {
+    Persona merged = new Persona();
+    for (Persona persona : this.perHostPersonas) {
+      merged.getUsernames().addAll(persona.getUsernames());
+    }
+    return merged;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<String> setUniqueList() {
+    return (List<String>) SetUniqueList.decorate(new ArrayList<String>());
+  }
+
+}
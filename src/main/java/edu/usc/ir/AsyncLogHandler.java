@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Hands log records to another {@link Handler} on a background thread, so
+ * formatting and I/O stay off the threads doing the work. The target is
+ * flushed once per batch of records rather than once per record.
+ * <p>
+ * The queue is bounded: when it is full, records below
+ * {@link Level#WARNING} are dropped (and counted) instead of blocking the
+ * caller, while warnings and errors wait for room. Closing the handler
+ * writes out everything queued, then closes the target.
+ */
+public class AsyncLogHandler extends Handler {
+
+  /** Records queued before lower level ones are dropped. */
+  public static final int DEFAULT_CAPACITY = 8192;
+
+  // tells the writer thread to stop
+  private static final LogRecord CLOSE = new LogRecord(Level.OFF, "");
+
+  private final Handler target;
+
+  private final BlockingQueue<LogRecord> queue;
+
+  private final Thread writer;
+
+  private final AtomicLong dropped = new AtomicLong();
+
+  private volatile boolean closed = false;
+
+  /**
+   * @param target
+   *          The handler to publish to, from the background thread only.
+   */
+  public AsyncLogHandler(Handler target) {
+    this(target, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param target
+   *          The handler to publish to, from the background thread only.
+   * @param capacity
+   *          Records queued before lower level ones are dropped.
+   */
+  public AsyncLogHandler(Handler target, int capacity) {
+    this.target = target;
+    this.queue = new ArrayBlockingQueue<LogRecord>(Math.max(1, capacity));
+    setLevel(target.getLevel());
+    this.writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    }, "async-log");
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.logging.Handler#publish(java.util.logging.LogRecord)
+   */
+  @Override
+  public void publish(LogRecord record) {
+    if (this.closed || !isLoggable(record)) {
+      return;
+    }
+    // the caller is worked out lazily from the stack, which is only right on
+    // the logging thread
+    record.getSourceClassName();
+    if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
+      try {
+        this.queue.put(record);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    } else if (!this.queue.offer(record)) {
+      this.dropped.incrementAndGet();
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.logging.Handler#flush()
+   */
+  @Override
+  public void flush() {
+    this.target.flush();
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.logging.Handler#close()
+   */
+  @Override
+  public void close() {
+    if (this.closed) {
+      return;
+    }
+    this.closed = true;
+    try {
+      this.queue.put(CLOSE);
+      this.writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    long lost = this.dropped.get();
+    if (lost > 0) {
+      this.target.publish(new LogRecord(Level.WARNING, "Dropped [" + lost
+          + "] log records below WARNING: the log queue was full."));
+    }
+    this.target.close();
+  }
+
+  /**
+   * @return the number of records dropped because the queue was full
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * @return the target handler
+   */
+  public Handler getTarget() {
+    return target;
+  }
+
+  private void drain() {
+    List<LogRecord> batch = new ArrayList<LogRecord>();
+    try {
+      while (true) {
+        batch.add(this.queue.take());
+        this.queue.drainTo(batch);
+        for (LogRecord record : batch) {
+          if (record == CLOSE) {
+            this.target.flush();
+            return;
+          }
+          try {
+            this.target.publish(record);
+          } catch (RuntimeException e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+          }
+        }
+        batch.clear();
+        this.target.flush();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
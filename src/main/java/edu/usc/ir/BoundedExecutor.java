@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed size thread pool whose work queue is bounded: once it is full,
+ * {@link #execute(Runnable)} blocks the submitting thread until a worker
+ * frees up a slot, so producers can never run arbitrarily far ahead of
+ * consumers.
+ */
+public class BoundedExecutor extends ThreadPoolExecutor {
+
+  /**
+   * @param threads
+   *          Number of worker threads.
+   * @param queueCapacity
+   *          Tasks that may wait for a worker before submitters block.
+   * @param name
+   *          Prefix for the worker thread names.
+   */
+  public BoundedExecutor(int threads, int queueCapacity, final String name) {
+    super(threads, threads, 0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          @Override
+          public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, name + "-"
+                + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          }
+        }, new RejectedExecutionHandler() {
+          @Override
+          public void rejectedExecution(Runnable task,
+              ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+              throw new RejectedExecutionException("Executor is shut down");
+            }
+            try {
+              executor.getQueue().put(task);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new RejectedExecutionException(e);
+            }
+          }
+        });
+  }
+
+  /**
+   * Shuts down and waits for all queued and running tasks to finish.
+   */
+  public void shutdownAndWait() {
+    shutdown();
+    try {
+      awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      shutdownNow();
+    }
+  }
+
+}
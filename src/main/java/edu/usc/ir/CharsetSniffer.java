@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usc.ir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+
+/**
+ * Works out the charset of raw HTML bytes, without decoding or copying them,
+ * in the order HTML does: from a byte order mark, else from the charset the
+ * page was served with (see {@link #fromContentType(String)}), else from a
+ * <code>&lt;meta charset&gt;</code> or
+ * <code>&lt;meta http-equiv content="...; charset=..."&gt;</code> in the first
+ * {@link #PRESCAN_BYTES} bytes, else windows-1252, the HTML default.
+ */
+public final class CharsetSniffer {
+
+  /** How far into the page to look for a meta charset. */
+  public static final int PRESCAN_BYTES = 4096;
+
+  public static final Charset DEFAULT = Charset.forName("windows-1252");
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final Charset UTF_16LE = Charset.forName("UTF-16LE");
+
+  private static final Charset UTF_16BE = Charset.forName("UTF-16BE");
+
+  private CharsetSniffer() {
+  }
+
+  /**
+   * @param content
+   *          The page bytes from its position to its limit; not modified.
+   * @return the page's charset
+   */
+  public static Charset detect(ByteBuffer content) {
+    return detect(content, null);
+  }
+
+  /**
+   * @param content
+   *          The page bytes from its position to its limit; not modified.
+   * @param hint
+   *          The charset the page was served with, or null if unknown.
+   * @return the page's charset: from its byte order mark, else
+   *         <code>hint</code>, else sniffed from the bytes
+   */
+  public static Charset detect(ByteBuffer content, Charset hint) {
+    int start = content.position();
+    int end = content.limit();
+    if (end - start >= 3 && (content.get(start) & 0xff) == 0xef
+        && (content.get(start + 1) & 0xff) == 0xbb
+        && (content.get(start + 2) & 0xff) == 0xbf) {
+      return UTF_8;
+    }
+    if (end - start >= 2) {
+      int b0 = content.get(start) & 0xff;
+      int b1 = content.get(start + 1) & 0xff;
+      if (b0 == 0xff && b1 == 0xfe) {
+        return UTF_16LE;
+      } else if (b0 == 0xfe && b1 == 0xff) {
+        return UTF_16BE;
+      }
+    }
+    if (hint != null) {
+      return hint;
+    }
+    Charset meta = metaCharset(content, start, Math.min(end,
+        start + PRESCAN_BYTES));
+    return meta != null ? meta : DEFAULT;
+  }
+
+  /**
+   * @param contentType
+   *          A Content-Type header value, e.g.
+   *          <code>text/html; charset=UTF-8</code>, or null.
+   * @return the supported charset it names, or null if it names none
+   */
+  public static Charset fromContentType(String contentType) {
+    if (contentType == null) {
+      return null;
+    }
+    for (String param : contentType.split(";")) {
+      int equals = param.indexOf('=');
+      if (equals < 0 || !param.substring(0, equals).trim()
+          .equalsIgnoreCase("charset")) {
+        continue;
+      }
+      String name = param.substring(equals + 1).trim();
+      if (name.length() > 1 && (name.charAt(0) == '"'
+          || name.charAt(0) == '\'')) {
+        name = name.substring(1, name.length() - 1);
+      }
+      try {
+        return Charset.forName(name);
+      } catch (IllegalArgumentException e) {
+        // unsupported, or not a charset name at all
+        return null;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param content
+   *          The page bytes from its position to its limit; not modified.
+   * @return the length of the byte order mark at the start of
+   *         <code>content</code>, 0 if there is none
+   */
+  public static int bomLength(ByteBuffer content) {
+    int start = content.position();
+    int remaining = content.remaining();
+    if (remaining >= 3 && (content.get(start) & 0xff) == 0xef
+        && (content.get(start + 1) & 0xff) == 0xbb
+        && (content.get(start + 2) & 0xff) == 0xbf) {
+      return 3;
+    }
+    if (remaining >= 2) {
+      int b0 = content.get(start) & 0xff;
+      int b1 = content.get(start + 1) & 0xff;
+      if ((b0 == 0xff && b1 == 0xfe) || (b0 == 0xfe && b1 == 0xff)) {
+        return 2;
+      }
+    }
+    return 0;
+  }
+
+  private static Charset metaCharset(ByteBuffer content, int start, int end) {
+    for (int i = indexOf(content, "<meta", start, end); i >= 0; i = indexOf(
+        content, "<meta", i + 5, end)) {
+      int tagEnd = i + 5;
+      while (tagEnd < end && content.get(tagEnd) != '>') {
+        tagEnd++;
+      }
+      int at = indexOf(content, "charset", i + 5, tagEnd);
+      if (at < 0) {
+        continue;
+      }
+      int p = at + 7;
+      while (p < tagEnd && isSpace(content.get(p))) {
+        p++;
+      }
+      if (p >= tagEnd || content.get(p) != '=') {
+        continue;
+      }
+      p++;
+      while (p < tagEnd && (isSpace(content.get(p)) || content.get(p) == '"'
+          || content.get(p) == '\'')) {
+        p++;
+      }
+      int nameStart = p;
+      while (p < tagEnd && isNameChar(content.get(p))) {
+        p++;
+      }
+      Charset charset = forName(content, nameStart, p);
+      if (charset != null) {
+        return charset;
+      }
+    }
+    return null;
+  }
+
+  private static Charset forName(ByteBuffer content, int start, int end) {
+    if (end <= start) {
+      return null;
+    }
+    char[] name = new char[end - start];
+    for (int i = start; i < end; i++) {
+      name[i - start] = (char) content.get(i);
+    }
+    try {
+      Charset charset = Charset.forName(new String(name));
+      // a page that says UTF-16 in ASCII bytes is not UTF-16
+      if (charset.equals(UTF_16LE) || charset.equals(UTF_16BE)
+          || charset.name().equals("UTF-16")) {
+        return UTF_8;
+      }
+      return charset;
+    } catch (IllegalCharsetNameException e) {
+      return null;
+    } catch (IllegalArgumentException e) {
+      // unsupported
+      return null;
+    }
+  }
+
+  /**
+   * ASCII case-insensitive search for lower case <code>needle</code>.
+   */
+  private static int indexOf(ByteBuffer content, String needle, int from,
+      int end) {
+    int last = end - needle.length();
+    outer: for (int i = from; i <= last; i++) {
+      for (int j = 0; j < needle.length(); j++) {
+        int b = content.get(i + j);
+        if (b >= 'A' && b <= 'Z') {
+          b += 'a' - 'A';
+        }
+        if (b != needle.charAt(j)) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+  }
+
+  private static boolean isNameChar(byte b) {
+    return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+        || (b >= '0' && b <= '9') || b == '-' || b == '_' || b == '.'
+        || b == ':';
+  }
+
+}
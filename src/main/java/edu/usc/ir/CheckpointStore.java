@@ -0,0 +1,246 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Remembers which ImageCat doc ids have been fetched and which pages have been
+ * indexed (with the content hash they had), so a grab or index run can be
+ * resumed, or re-run incrementally, without redoing finished work.
+ * <p>
+ * The store is an append-only, tab separated UTF-8 log, one record per line:
+ * <code>F&lt;tab&gt;docId</code> for a fetched page and
+ * <code>I&lt;tab&gt;pageId&lt;tab&gt;sha1</code> for an indexed one. It is
+ * replayed into memory when opened, later records winning, and each record is
+ * flushed as it is written, so a crash loses at most the record being written.
+ * A torn last record is dropped when the store is reopened. Thread-safe.
+ */
+public class CheckpointStore implements Closeable {
+
+  private static Logger LOG = Logger.getLogger(CheckpointStore.class.getName());
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String FETCHED = "F";
+
+  private static final String INDEXED = "I";
+
+  private final File file;
+
+  private final Set<String> fetched = new HashSet<String>();
+
+  private final Map<String, String> indexed = new HashMap<String, String>();
+
+  private Writer log;
+
+  /**
+   * Opens (or creates) the store at <code>file</code> and replays it.
+   *
+   * @param file
+   *          The checkpoint log.
+   * @throws IOException
+   *           If the log cannot be read or opened for appending.
+   */
+  public CheckpointStore(File file) throws IOException {
+    this.file = file;
+    if (file.exists()) {
+      truncateTornLine();
+      replay();
+    } else if (file.getParentFile() != null) {
+      file.getParentFile().mkdirs();
+    }
+    this.log = new BufferedWriter(new OutputStreamWriter(
+        new FileOutputStream(file, true), UTF_8));
+    LOG.info("Checkpoint: [" + file.getAbsolutePath() + "]: fetched: ["
+        + this.fetched.size() + "]: indexed: [" + this.indexed.size() + "]");
+  }
+
+  /**
+   * @param docId
+   *          An ImageCat doc id.
+   * @return true if <code>docId</code> has been fetched
+   */
+  public synchronized boolean isFetched(String docId) {
+    return this.fetched.contains(docId);
+  }
+
+  /**
+   * Records that <code>docId</code> has been fetched and saved.
+   *
+   * @param docId
+   *          An ImageCat doc id.
+   * @throws IOException
+   *           If the record cannot be written.
+   */
+  public synchronized void recordFetched(String docId) throws IOException {
+    append(FETCHED, checkField(docId));
+    this.fetched.add(docId);
+  }
+
+  /**
+   * @param pageId
+   *          A page id (see {@link Persona#getPageId()}).
+   * @param hash
+   *          The page's current content hash.
+   * @return true if the page has been indexed with exactly this content
+   */
+  public synchronized boolean isIndexed(String pageId, String hash) {
+    return hash.equals(this.indexed.get(pageId));
+  }
+
+  /**
+   * Records that <code>pageId</code> has been indexed (or found to have no
+   * personas) with content <code>hash</code>.
+   *
+   * @param pageId
+   *          A page id (see {@link Persona#getPageId()}).
+   * @param hash
+   *          The content hash of the page that was indexed.
+   * @throws IOException
+   *           If the record cannot be written.
+   */
+  public synchronized void recordIndexed(String pageId, String hash)
+      throws IOException {
+    append(INDEXED, checkField(pageId), checkField(hash));
+    this.indexed.put(pageId, hash);
+  }
+
+  /**
+   * @return the number of fetched doc ids
+   */
+  public synchronized int getFetchedCount() {
+    return this.fetched.size();
+  }
+
+  /**
+   * @return the number of indexed pages
+   */
+  public synchronized int getIndexedCount() {
+    return this.indexed.size();
+  }
+
+  /**
+   * @return the checkpoint log
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /* (non-Javadoc)
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (this.log != null) {
+      this.log.close();
+      this.log = null;
+    }
+  }
+
+  private void append(String... fields) throws IOException {
+    if (this.log == null) {
+      throw new IOException("Checkpoint store is closed: ["
+          + this.file.getAbsolutePath() + "]");
+    }
+    for (int i = 0; i < fields.length; i++) {
+      if (i > 0) {
+        this.log.write('\t');
+      }
+      this.log.write(fields[i]);
+    }
+    this.log.write('\n');
+    this.log.flush();
+  }
+
+  private void replay() throws IOException {
+    BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(this.file), UTF_8));
+    try {
+      String line;
+      int lineNo = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNo++;
+        String[] fields = line.split("\t");
+        if (fields.length == 2 && FETCHED.equals(fields[0])) {
+          this.fetched.add(fields[1]);
+        } else if (fields.length == 3 && INDEXED.equals(fields[0])) {
+          this.indexed.put(fields[1], fields[2]);
+        } else if (!line.isEmpty()) {
+          LOG.warning("Checkpoint: [" + this.file.getAbsolutePath()
+              + "]: ignoring malformed line [" + lineNo + "]");
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Cuts off a record left partially written by a crash, so that it is
+   * neither replayed nor joined to the next record appended.
+   */
+  private void truncateTornLine() throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+    try {
+      long end = raf.length();
+      while (end > 0) {
+        raf.seek(end - 1);
+        if (raf.read() == '\n') {
+          break;
+        }
+        end--;
+      }
+      if (end < raf.length()) {
+        LOG.warning("Checkpoint: [" + this.file.getAbsolutePath()
+            + "]: dropping [" + (raf.length() - end)
+            + "] bytes of a partially written record.");
+        raf.setLength(end);
+      }
+    } finally {
+      raf.close();
+    }
+  }
+
+  private static String checkField(String field) {
+    if (field.indexOf('\t') >= 0 || field.indexOf('\n') >= 0
+        || field.indexOf('\r') >= 0) {
+      throw new IllegalArgumentException(
+          "Checkpoint fields cannot contain tabs or line breaks: [" + field
+              + "]");
+    }
+    return field;
+  }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+/**
+ * When to issue explicit Solr commits during an indexing run. A zero for any
+ * setting disables it; with everything disabled the run commits once, at the
+ * end.
+ */
+public class CommitPolicy {
+
+  private final long everyDocs;
+
+  private final long intervalMillis;
+
+  private final int commitWithinMillis;
+
+  /**
+   * @param everyDocs
+   *          Commit after this many documents have been added.
+   * @param intervalMillis
+   *          Commit when this long has passed since the last commit.
+   * @param commitWithinMillis
+   *          Solr <code>commitWithin</code> to send with every add, leaving
+   *          commits to the server.
+   */
+  public CommitPolicy(long everyDocs, long intervalMillis,
+      int commitWithinMillis) {
+    this.everyDocs = everyDocs;
+    this.intervalMillis = intervalMillis;
+    this.commitWithinMillis = commitWithinMillis;
+  }
+
+  /**
+   * @param uncommittedDocs
+   *          Documents added since the last commit.
+   * @param millisSinceCommit
+   *          Time since the last commit (or start of the run).
+   * @return True if an explicit commit is due now.
+   */
+  public boolean shouldCommit(long uncommittedDocs, long millisSinceCommit) {
+    if (uncommittedDocs == 0) {
+      return false;
+    }
+    return (everyDocs > 0 && uncommittedDocs >= everyDocs)
+        || (intervalMillis > 0 && millisSinceCommit >= intervalMillis);
+  }
+
+  /**
+   * @return the commitWithin to send with each add, or -1 for none (the
+   *         SolrJ convention)
+   */
+  public int getCommitWithin() {
+    return commitWithinMillis > 0 ? commitWithinMillis : -1;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "[everyDocs=" + everyDocs + ",intervalMillis=" + intervalMillis
+        + ",commitWithinMillis=" + commitWithinMillis + "]";
+  }
+
+}
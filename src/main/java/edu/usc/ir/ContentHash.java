@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 content hashes, as lower case hex, used to tell whether a page has
+ * changed since it was last processed.
+ */
+public final class ContentHash {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private ContentHash() {
+  }
+
+  /**
+   * @param content
+   *          The bytes to hash.
+   * @return the SHA-1 of <code>content</code> in hex
+   */
+  public static String sha1(byte[] content) {
+    MessageDigest digest = newDigest();
+    digest.update(content);
+    return hex(digest.digest());
+  }
+
+  /**
+   * @param content
+   *          The bytes to hash, from the buffer's position to its limit; the
+   *          buffer is left as it was.
+   * @return the SHA-1 of <code>content</code> in hex
+   */
+  public static String sha1(ByteBuffer content) {
+    MessageDigest digest = newDigest();
+    digest.update(content.duplicate());
+    return hex(digest.digest());
+  }
+
+  /**
+   * @param file
+   *          The file to hash, read in blocks.
+   * @return the SHA-1 of the contents of <code>file</code> in hex
+   * @throws IOException
+   *           If the file cannot be read.
+   */
+  public static String sha1(File file) throws IOException {
+    MessageDigest digest = newDigest();
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[64 * 1024];
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    } finally {
+      in.close();
+    }
+    return hex(digest.digest());
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      // every JRE must provide SHA-1
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(chars);
+  }
+
+}
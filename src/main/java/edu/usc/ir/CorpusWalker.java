@@ -0,0 +1,238 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+/**
+ * Lazily walks a page directory tree (e.g. the reverse domain layout written
+ * by {@link ImageCatPageGrabber}) with NIO {@link DirectoryStream}s. Only one
+ * open stream per directory level is held at a time, so memory stays flat
+ * however many files there are, and the first page is available as soon as
+ * the first directory entry is read.
+ * <p>
+ * Include and exclude globs (see {@link FileSystems#getPathMatcher(String)})
+ * are matched against each path relative to the root. Excludes also prune
+ * directories; includes only apply to files. Symbolic links to directories
+ * are not followed.
+ */
+public class CorpusWalker implements Iterable<File>, Closeable {
+
+  private static Logger LOG = Logger.getLogger(CorpusWalker.class.getName());
+
+  private final Path root;
+
+  private final List<PathMatcher> includes;
+
+  private final List<PathMatcher> excludes;
+
+  private final List<DirectoryStream<Path>> openStreams = Collections
+      .synchronizedList(new ArrayList<DirectoryStream<Path>>());
+
+  /**
+   * Walks every file under <code>root</code>.
+   *
+   * @param root
+   *          The directory to walk.
+   */
+  public CorpusWalker(File root) {
+    this(root, null, null);
+  }
+
+  /**
+   * @param root
+   *          The directory to walk.
+   * @param includes
+   *          Globs a file must match one of to be returned, or null/empty for
+   *          all files.
+   * @param excludes
+   *          Globs for files and directories to skip, or null.
+   */
+  public CorpusWalker(File root, List<String> includes, List<String> excludes) {
+    this.root = root.toPath();
+    this.includes = matchers(includes);
+    this.excludes = matchers(excludes);
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Iterable#iterator()
+   */
+  @Override
+  public Iterator<File> iterator() {
+    return new WalkIterator();
+  }
+
+  /**
+   * Closes any directory streams still open by unfinished iterators.
+   */
+  @Override
+  public void close() {
+    synchronized (this.openStreams) {
+      for (DirectoryStream<Path> stream : this.openStreams) {
+        closeQuietly(stream);
+      }
+      this.openStreams.clear();
+    }
+  }
+
+  /**
+   * @return true if any of <code>excludes</code> matches <code>relative</code>
+   */
+  static boolean excluded(List<PathMatcher> excludes, Path relative) {
+    for (PathMatcher matcher : excludes) {
+      if (matcher.matches(relative)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if <code>includes</code> is empty or any of them matches
+   *         <code>relative</code>
+   */
+  static boolean included(List<PathMatcher> includes, Path relative) {
+    if (includes.isEmpty()) {
+      return true;
+    }
+    for (PathMatcher matcher : includes) {
+      if (matcher.matches(relative)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return a glob {@link PathMatcher} for each of <code>globs</code>, none
+   *         if it is null
+   */
+  static List<PathMatcher> matchers(List<String> globs) {
+    List<PathMatcher> matchers = new ArrayList<PathMatcher>();
+    if (globs != null) {
+      for (String glob : globs) {
+        matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+      }
+    }
+    return matchers;
+  }
+
+  private void closeQuietly(DirectoryStream<Path> stream) {
+    try {
+      stream.close();
+    } catch (IOException e) {
+      LOG.fine("Unable to close directory stream: " + e.getMessage());
+    }
+  }
+
+  private class WalkIterator implements Iterator<File> {
+
+    private final Deque<DirectoryStream<Path>> streams = new ArrayDeque<DirectoryStream<Path>>();
+
+    private final Deque<Iterator<Path>> levels = new ArrayDeque<Iterator<Path>>();
+
+    private File next = null;
+
+    WalkIterator() {
+      push(root);
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (this.next == null && !this.levels.isEmpty()) {
+        Path path;
+        try {
+          Iterator<Path> level = this.levels.peek();
+          if (!level.hasNext()) {
+            pop();
+            continue;
+          }
+          path = level.next();
+        } catch (DirectoryIteratorException e) {
+          LOG.warning("Unable to read directory: " + e.getCause().getMessage()
+              + ": skipping the rest of it.");
+          pop();
+          continue;
+        }
+
+        Path relative = root.relativize(path);
+        if (excluded(excludes, relative)) {
+          continue;
+        }
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+          push(path);
+        } else if (Files.isRegularFile(path) && included(includes, relative)) {
+          this.next = path.toFile();
+        }
+      }
+      return this.next != null;
+    }
+
+    @Override
+    public File next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      File file = this.next;
+      this.next = null;
+      return file;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private void push(Path dir) {
+      try {
+        DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+        this.streams.push(stream);
+        this.levels.push(stream.iterator());
+        openStreams.add(stream);
+      } catch (IOException e) {
+        LOG.warning("Unable to open directory: [" + dir + "]: "
+            + e.getMessage() + ": skipping.");
+      }
+    }
+
+    private void pop() {
+      this.levels.pop();
+      DirectoryStream<Path> stream = this.streams.pop();
+      openStreams.remove(stream);
+      closeQuietly(stream);
+    }
+  }
+
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usc.ir;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link PageSource} over the files of a page directory tree, walked lazily
+ * by a {@link CorpusWalker}.
+ */
+public class DirectoryPageSource extends PageSource {
+
+  private final CorpusWalker walker;
+
+  private final Iterator<File> files;
+
+  /**
+   * @param dir
+   *          The directory to walk.
+   * @param includes
+   *          Globs for the files to read, relative to <code>dir</code>.
+   * @param excludes
+   *          Globs for files and directories to skip.
+   */
+  public DirectoryPageSource(File dir, List<String> includes,
+      List<String> excludes) {
+    // pages are read by the extraction engine, which applies the byte limit
+    super(null, null, 0);
+    this.walker = new CorpusWalker(dir, includes, excludes);
+    this.files = this.walker.iterator();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.PageSource#next()
+   */
+  @Override
+  public PageRecord next() {
+    return this.files.hasNext() ? new PageRecord(this.files.next()) : null;
+  }
+
+  /* (non-Javadoc)
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() {
+    this.walker.close();
+  }
+
+}
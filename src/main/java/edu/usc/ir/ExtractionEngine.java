@@ -0,0 +1,139 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.w3c.dom.Node;
+
+/**
+ * Parses pages into a DOM that {@link HostPattern}s can be evaluated against.
+ * Engines hold reusable parser state and are not thread-safe; use one per
+ * thread and {@link #close()} it when done.
+ */
+public interface ExtractionEngine {
+
+  /**
+   * The available engines.
+   */
+  public enum Type {
+    /** Full HtmlUnit browser emulation (with JavaScript disabled). */
+    HTMLUNIT {
+      @Override
+      public ExtractionEngine newEngine() {
+        return new HtmlUnitEngine();
+      }
+    },
+    /** Plain NekoHTML DOM, no browser emulation. */
+    NEKO {
+      @Override
+      public ExtractionEngine newEngine() {
+        return new NekoDomEngine();
+      }
+    };
+
+    public abstract ExtractionEngine newEngine();
+  }
+
+  /**
+   * Parses <code>page</code>.
+   *
+   * @param page
+   *          The local HTML file.
+   * @return The document node to evaluate patterns against.
+   * @throws IOException
+   *           If the page cannot be read or parsed as HTML.
+   */
+  Node parse(File page) throws IOException;
+
+  /**
+   * Parses a page already held in memory, e.g. straight off the wire.
+   *
+   * @param content
+   *          The raw page bytes; the charset is sniffed from them.
+   * @param uri
+   *          The address the page was fetched from.
+   * @return The document node to evaluate patterns against.
+   * @throws IOException
+   *           If the page cannot be parsed as HTML.
+   */
+  Node parse(byte[] content, String uri) throws IOException;
+
+  /**
+   * Reads a local page the way {@link #parse(File)} does, e.g. to hash the
+   * bytes before parsing them with
+   * {@link #parse(ByteBuffer, String, Charset)}.
+   *
+   * @param page
+   *          The local HTML file.
+   * @return The page bytes, from the buffer's position to its limit; only
+   *         valid until the next read or parse.
+   * @throws IOException
+   *           If the page cannot be read.
+   */
+  ByteBuffer read(File page) throws IOException;
+
+  /**
+   * Parses page bytes from the buffer's position to its limit, leaving the
+   * buffer as it was.
+   *
+   * @param content
+   *          The raw page bytes.
+   * @param uri
+   *          The address the page is from.
+   * @param charset
+   *          The charset the page was served with, e.g. from an HTTP
+   *          Content-Type, or null to sniff it from the bytes; a byte order
+   *          mark wins over either, see {@link CharsetSniffer}.
+   * @return The document node to evaluate patterns against.
+   * @throws IOException
+   *           If the page cannot be parsed as HTML.
+   */
+  Node parse(ByteBuffer content, String uri, Charset charset)
+      throws IOException;
+
+  /**
+   * @param node
+   *          A node selected from a document returned by this engine.
+   * @return The node's visible text, trimmed with whitespace collapsed.
+   */
+  String getText(Node node);
+
+  /**
+   * @param limits
+   *          The byte, element and time limits to stop each parse at; parsing
+   *          ends where a limit is reached and the document built so far is
+   *          returned. {@link PageLimits#NONE} (the default) for whole pages.
+   */
+  void setLimits(PageLimits limits);
+
+  /**
+   * @return the element or time limit that cut the last parse short, or null
+   *         if it read the page to the end (or to the byte limit).
+   */
+  PageLimits.Limit getLimitReached();
+
+  /**
+   * Releases any resources held by the engine.
+   */
+  void close();
+
+}
@@ -0,0 +1,464 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process wide counters and histograms for each extraction and indexing
+ * stage: page parse time, XPath evaluation time per host pattern, usernames
+ * per page, and Solr add and commit latency, with failures of each, and
+ * pages cut short by each {@link PageLimits} limit. Recording
+ * is a couple of atomic updates, so it is always on.
+ * <p>
+ * Everything is registered with the platform MBean server under
+ * <code>edu.usc.ir</code>, and {@link MetricsReporter} logs or dumps it
+ * periodically. Thread-safe.
+ */
+public final class ExtractionMetrics implements ExtractionMetricsMBean {
+
+  static final String DOMAIN = "edu.usc.ir";
+
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private static Logger LOG = Logger
+      .getLogger(ExtractionMetrics.class.getName());
+
+  private static final ExtractionMetrics INSTANCE = new ExtractionMetrics();
+
+  static {
+    INSTANCE.register();
+  }
+
+  private final AtomicLong pagesParsed = new AtomicLong();
+
+  private final AtomicLong parseFailures = new AtomicLong();
+
+  private final AtomicLong patternsEvaluated = new AtomicLong();
+
+  private final AtomicLong patternFailures = new AtomicLong();
+
+  private final AtomicLong pagesRouted = new AtomicLong();
+
+  private final AtomicLong pagesUnrouted = new AtomicLong();
+
+  private final AtomicLong pagesExtracted = new AtomicLong();
+
+  private final AtomicLong pagesWithoutUsernames = new AtomicLong();
+
+  private final AtomicLong usernamesExtracted = new AtomicLong();
+
+  private final AtomicLong pagesTruncated = new AtomicLong();
+
+  private final AtomicLong limitBytes = new AtomicLong();
+
+  private final AtomicLong limitNodes = new AtomicLong();
+
+  private final AtomicLong limitUsernames = new AtomicLong();
+
+  private final AtomicLong limitTime = new AtomicLong();
+
+  private final AtomicLong solrDocsAdded = new AtomicLong();
+
+  private final AtomicLong solrAddFailures = new AtomicLong();
+
+  private final AtomicLong solrCommits = new AtomicLong();
+
+  private final AtomicLong solrCommitFailures = new AtomicLong();
+
+  private final Histogram parse = latency("parse");
+
+  private final Histogram usernamesPerPage = new Histogram(
+      "usernamesPerPage", "usernames", 1);
+
+  private final Histogram solrAdd = latency("solrAdd");
+
+  private final Histogram solrCommit = latency("solrCommit");
+
+  private final ConcurrentMap<String, Histogram> xpath = new ConcurrentHashMap<String, Histogram>();
+
+  private ExtractionMetrics() {
+  }
+
+  /**
+   * @return the metrics for this process
+   */
+  public static ExtractionMetrics get() {
+    return INSTANCE;
+  }
+
+  /**
+   * @param nanos
+   *          How long a page took to parse.
+   */
+  public void recordParse(long nanos) {
+    this.pagesParsed.incrementAndGet();
+    this.parse.record(nanos);
+  }
+
+  public void parseFailed() {
+    this.parseFailures.incrementAndGet();
+  }
+
+  /**
+   * @param hostKey
+   *          The host pattern key.
+   * @param nanos
+   *          How long its XPath took to evaluate against one page.
+   */
+  public void recordPattern(String hostKey, long nanos) {
+    this.patternsEvaluated.incrementAndGet();
+    xpath(hostKey).record(nanos);
+  }
+
+  public void patternFailed() {
+    this.patternFailures.incrementAndGet();
+  }
+
+  /**
+   * @param routed
+   *          Whether {@link HostRouter} picked the page's host patterns, or
+   *          left every pattern to run.
+   */
+  public void recordRoute(boolean routed) {
+    (routed ? this.pagesRouted : this.pagesUnrouted).incrementAndGet();
+  }
+
+  /**
+   * @param usernames
+   *          The number of unique usernames extracted from a page.
+   */
+  public void recordPage(int usernames) {
+    this.pagesExtracted.incrementAndGet();
+    this.usernamesExtracted.addAndGet(usernames);
+    if (usernames == 0) {
+      this.pagesWithoutUsernames.incrementAndGet();
+    }
+    this.usernamesPerPage.record(usernames);
+  }
+
+  /**
+   * @param limits
+   *          The limits a page reached, not empty.
+   */
+  public void recordTruncated(Set<PageLimits.Limit> limits) {
+    this.pagesTruncated.incrementAndGet();
+    for (PageLimits.Limit limit : limits) {
+      switch (limit) {
+      case BYTES:
+        this.limitBytes.incrementAndGet();
+        break;
+      case NODES:
+        this.limitNodes.incrementAndGet();
+        break;
+      case USERNAMES:
+        this.limitUsernames.incrementAndGet();
+        break;
+      case TIME:
+        this.limitTime.incrementAndGet();
+        break;
+      }
+    }
+  }
+
+  /**
+   * @param docs
+   *          The documents in the batch added.
+   * @param nanos
+   *          How long Solr took to accept them.
+   */
+  public void recordSolrAdd(int docs, long nanos) {
+    this.solrDocsAdded.addAndGet(docs);
+    this.solrAdd.record(nanos);
+  }
+
+  /**
+   * @param docs
+   *          The documents in the batch Solr did not accept.
+   */
+  public void solrAddFailed(int docs) {
+    this.solrAddFailures.addAndGet(docs);
+  }
+
+  /**
+   * @param nanos
+   *          How long a commit took.
+   */
+  public void recordSolrCommit(long nanos) {
+    this.solrCommits.incrementAndGet();
+    this.solrCommit.record(nanos);
+  }
+
+  public void solrCommitFailed() {
+    this.solrCommitFailures.incrementAndGet();
+  }
+
+  /**
+   * @return every counter by name, in a stable order
+   */
+  public Map<String, Long> getCounters() {
+    Map<String, Long> counters = new LinkedHashMap<String, Long>();
+    counters.put("pagesParsed", getPagesParsed());
+    counters.put("parseFailures", getParseFailures());
+    counters.put("patternsEvaluated", getPatternsEvaluated());
+    counters.put("patternFailures", getPatternFailures());
+    counters.put("pagesRouted", getPagesRouted());
+    counters.put("pagesUnrouted", getPagesUnrouted());
+    counters.put("pagesExtracted", getPagesExtracted());
+    counters.put("pagesWithoutUsernames", getPagesWithoutUsernames());
+    counters.put("usernamesExtracted", getUsernamesExtracted());
+    counters.put("pagesTruncated", getPagesTruncated());
+    counters.put("limitBytes", getLimitBytes());
+    counters.put("limitNodes", getLimitNodes());
+    counters.put("limitUsernames", getLimitUsernames());
+    counters.put("limitTime", getLimitTime());
+    counters.put("solrDocsAdded", getSolrDocsAdded());
+    counters.put("solrAddFailures", getSolrAddFailures());
+    counters.put("solrCommits", getSolrCommits());
+    counters.put("solrCommitFailures", getSolrCommitFailures());
+    return counters;
+  }
+
+  /**
+   * @return every histogram, the per host pattern XPath ones sorted by host
+   *         key after the others
+   */
+  public List<Histogram> getHistograms() {
+    List<Histogram> histograms = new ArrayList<Histogram>();
+    histograms.add(this.parse);
+    histograms.addAll(new TreeMap<String, Histogram>(this.xpath).values());
+    histograms.add(this.usernamesPerPage);
+    histograms.add(this.solrAdd);
+    histograms.add(this.solrCommit);
+    return histograms;
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#summary()
+   */
+  @Override
+  public String summary() {
+    StringBuilder summary = new StringBuilder();
+    summary.append("counters: ").append(getCounters());
+    for (Histogram histogram : getHistograms()) {
+      summary.append('\n').append(histogram);
+    }
+    return summary.toString();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getPagesParsed()
+   */
+  @Override
+  public long getPagesParsed() {
+    return pagesParsed.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getParseFailures()
+   */
+  @Override
+  public long getParseFailures() {
+    return parseFailures.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getPatternsEvaluated()
+   */
+  @Override
+  public long getPatternsEvaluated() {
+    return patternsEvaluated.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getPatternFailures()
+   */
+  @Override
+  public long getPatternFailures() {
+    return patternFailures.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getPagesRouted()
+   */
+  @Override
+  public long getPagesRouted() {
+    return pagesRouted.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getPagesUnrouted()
+   */
+  @Override
+  public long getPagesUnrouted() {
+    return pagesUnrouted.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getPagesExtracted()
+   */
+  @Override
+  public long getPagesExtracted() {
+    return pagesExtracted.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getPagesWithoutUsernames()
+   */
+  @Override
+  public long getPagesWithoutUsernames() {
+    return pagesWithoutUsernames.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getUsernamesExtracted()
+   */
+  @Override
+  public long getUsernamesExtracted() {
+    return usernamesExtracted.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getPagesTruncated()
+   */
+  @Override
+  public long getPagesTruncated() {
+    return pagesTruncated.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getLimitBytes()
+   */
+  @Override
+  public long getLimitBytes() {
+    return limitBytes.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getLimitNodes()
+   */
+  @Override
+  public long getLimitNodes() {
+    return limitNodes.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getLimitUsernames()
+   */
+  @Override
+  public long getLimitUsernames() {
+    return limitUsernames.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getLimitTime()
+   */
+  @Override
+  public long getLimitTime() {
+    return limitTime.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getSolrDocsAdded()
+   */
+  @Override
+  public long getSolrDocsAdded() {
+    return solrDocsAdded.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getSolrAddFailures()
+   */
+  @Override
+  public long getSolrAddFailures() {
+    return solrAddFailures.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getSolrCommits()
+   */
+  @Override
+  public long getSolrCommits() {
+    return solrCommits.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionMetricsMBean#getSolrCommitFailures()
+   */
+  @Override
+  public long getSolrCommitFailures() {
+    return solrCommitFailures.get();
+  }
+
+  private Histogram xpath(String hostKey) {
+    Histogram histogram = this.xpath.get(hostKey);
+    if (histogram == null) {
+      Histogram created = new Histogram("xpath[" + hostKey + "]", "ms",
+          NANOS_PER_MILLI);
+      histogram = this.xpath.putIfAbsent(hostKey, created);
+      if (histogram == null) {
+        histogram = created;
+        register(created, "type=Histogram,stage=xpath,pattern="
+            + ObjectName.quote(hostKey));
+      }
+    }
+    return histogram;
+  }
+
+  private void register() {
+    register(this, "type=ExtractionMetrics");
+    register(this.parse, "type=Histogram,stage=parse");
+    register(this.usernamesPerPage, "type=Histogram,stage=usernamesPerPage");
+    register(this.solrAdd, "type=Histogram,stage=solrAdd");
+    register(this.solrCommit, "type=Histogram,stage=solrCommit");
+  }
+
+  private static void register(Object mbean, String properties) {
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+      if (!server.isRegistered(name)) {
+        server.registerMBean(mbean, name);
+      }
+    } catch (JMException e) {
+      // metrics still work, they just are not visible over JMX
+      LOG.warning("Unable to register MBean: [" + properties + "]: "
+          + e.getMessage());
+    }
+  }
+
+  private static Histogram latency(String name) {
+    return new Histogram(name, "ms", NANOS_PER_MILLI);
+  }
+
+}
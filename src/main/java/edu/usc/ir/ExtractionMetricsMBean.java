@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+/**
+ * JMX view of the {@link ExtractionMetrics} counters. The latency and
+ * usernames per page histograms are registered as {@link HistogramMBean}s of
+ * their own.
+ */
+public interface ExtractionMetricsMBean {
+
+  long getPagesParsed();
+
+  long getParseFailures();
+
+  long getPatternsEvaluated();
+
+  long getPatternFailures();
+
+  long getPagesRouted();
+
+  long getPagesUnrouted();
+
+  long getPagesExtracted();
+
+  long getPagesWithoutUsernames();
+
+  long getUsernamesExtracted();
+
+  long getPagesTruncated();
+
+  long getLimitBytes();
+
+  long getLimitNodes();
+
+  long getLimitUsernames();
+
+  long getLimitTime();
+
+  long getSolrDocsAdded();
+
+  long getSolrAddFailures();
+
+  long getSolrCommits();
+
+  long getSolrCommitFailures();
+
+  /**
+   * @return one line per counter and histogram
+   */
+  String summary();
+
+}
@@ -0,0 +1,299 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.kohsuke.args4j.ClassParser;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+/**
+ * The extraction options {@link PersonaIndexer}, {@link PersonaPipeline} and
+ * {@link PersonaExtractionServer} share: per-page limits, the page dedup
+ * cache, host routing, pattern watching, the persona dictionary and the
+ * logging mode. Each tool adds them to its own command line with
+ * {@link #addTo(CmdLineParser)}, applies them to its extractors with
+ * {@link #configure(PersonaExtractor)} and creates the shared pieces they
+ * ask for with the <code>new...</code> methods.
+ */
+public class ExtractionOptions {
+
+  @Option(name = "-lk", usage = "Parse at most this many KB of each page and mark its personas truncated, default 0 (no limit)", aliases = {
+      "--limitPageKB" }, required = false)
+  private int limitPageKB = 0;
+
+  @Option(name = "-ln", usage = "Stop parsing each page after this many elements and mark its personas truncated, default 0 (no limit)", aliases = {
+      "--limitNodes" }, required = false)
+  private int limitNodes = 0;
+
+  @Option(name = "-lu", usage = "Extract at most this many usernames per host pattern and page, default 0 (no limit)", aliases = {
+      "--limitUsernames" }, required = false)
+  private int limitUsernames = 0;
+
+  @Option(name = "-lt", usage = "Stop parsing each page and reading its pattern matches after this many milliseconds and mark its personas truncated, default 0 (no limit)", aliases = {
+      "--limitMillis" }, required = false)
+  private long limitMillis = 0;
+
+  @Option(name = "-dc", usage = "Reuse what was extracted from earlier pages with the same content, caching up to this many results in memory (0 for none, the default)", aliases = {
+      "--dedupCache" }, required = false)
+  private int dedupSize = 0;
+
+  @Option(name = "-dn", usage = "With -dc, also treat pages whose simhashes differ in at most this many bits (0-3) as duplicates, default -1 (identical bytes only)", aliases = {
+      "--dedupNearBits" }, required = false)
+  private int dedupNearBits = -1;
+
+  @Option(name = "-dd", usage = "Directory for the dedup cache's spill file, default the temporary directory", aliases = {
+      "--dedupDir" }, required = false)
+  private File dedupDir = null;
+
+  @Option(name = "-rt", usage = "Unless a host pattern is given, only run the host patterns for the site each page is from, when that can be told", aliases = {
+      "--route" }, required = false)
+  private boolean route = false;
+
+  @Option(name = "-wp", usage = "Watch the config file and use new patterns for the pages after it changes", aliases = {
+      "--watchPatterns" }, required = false)
+  private boolean watchPatterns = false;
+
+  @Option(name = "-pd", usage = "Keep a persona dictionary of up to this many usernames, so ones repeated across pages are held once (0 for none, the default)", aliases = {
+      "--personaDictionary" }, required = false)
+  private int dictionarySize = 0;
+
+  @Option(name = "-ps", usage = "Write a persona to pages summary here (needs -pd)", aliases = {
+      "--personaSummary" }, required = false)
+  private File summaryFile = null;
+
+  @Option(name = "-lm", usage = "Logging mode: VERBOSE (default, every page) or PRODUCTION (sampled per-page logs, asynchronous output)", aliases = {
+      "--logMode" }, required = false)
+  private LoggingMode logMode = LoggingMode.VERBOSE;
+
+  @Option(name = "-lr", usage = "In PRODUCTION logging mode, log per-page messages for one page in this many, default 100", aliases = {
+      "--logSample" }, required = false)
+  private int logSample = 100;
+
+  private PageLimits limits = null;
+
+  /**
+   * Adds these options to <code>parser</code>, next to the tool's own.
+   *
+   * @param parser
+   *          The tool's command line parser.
+   */
+  public void addTo(CmdLineParser parser) {
+    new ClassParser().parse(this, parser);
+  }
+
+  /**
+   * Applies the per-page options (routing and limits) to
+   * <code>extractor</code>.
+   *
+   * @param extractor
+   *          A new extractor.
+   */
+  public void configure(PersonaExtractor extractor) {
+    extractor.setRoute(this.route);
+    extractor.setLimits(getLimits());
+  }
+
+  /**
+   * Applies {@link #getLogMode()} to the JVM wide logging setup.
+   */
+  public void installLogging() {
+    this.logMode.install(this.logSample);
+  }
+
+  /**
+   * @param configFile
+   *          The pattern config file.
+   * @return a watcher for <code>configFile</code>, or null unless
+   *         {@link #isWatchPatterns()}
+   * @throws IOException
+   *           If the file cannot be watched.
+   */
+  public PatternWatcher newPatternWatcher(File configFile) throws IOException {
+    return this.watchPatterns ? new PatternWatcher(configFile) : null;
+  }
+
+  /**
+   * @return a persona dictionary, or null if {@link #getDictionarySize()} is
+   *         0
+   * @throws IOException
+   *           If the summary file cannot be created.
+   */
+  public PersonaDictionary newDictionary() throws IOException {
+    return this.dictionarySize > 0
+        ? new PersonaDictionary(this.dictionarySize, this.summaryFile) : null;
+  }
+
+  /**
+   * @return a page dedup cache, or null if {@link #getDedupSize()} is 0
+   * @throws IOException
+   *           If the spill file cannot be created.
+   */
+  public PageDedupCache newDedupCache() throws IOException {
+    return this.dedupSize > 0
+        ? new PageDedupCache(this.dedupSize, this.dedupNearBits, this.dedupDir)
+        : null;
+  }
+
+  /**
+   * @return the per-page limits, from the command line unless set
+   */
+  public PageLimits getLimits() {
+    if (this.limits == null) {
+      this.limits = new PageLimits(this.limitPageKB * 1024L, this.limitNodes,
+          this.limitUsernames, this.limitMillis);
+    }
+    return this.limits;
+  }
+
+  /**
+   * @param limits
+   *          the per-page limits to set, overriding the command line options
+   */
+  public void setLimits(PageLimits limits) {
+    this.limits = limits;
+  }
+
+  /**
+   * @return the dedupSize
+   */
+  public int getDedupSize() {
+    return dedupSize;
+  }
+
+  /**
+   * @param dedupSize
+   *          results to cache in memory for pages with repeated content, 0
+   *          for no dedup cache
+   */
+  public void setDedupSize(int dedupSize) {
+    this.dedupSize = dedupSize;
+  }
+
+  /**
+   * @param dedupNearBits
+   *          most bits simhashes may differ in for near duplicates, negative
+   *          for identical bytes only
+   */
+  public void setDedupNearBits(int dedupNearBits) {
+    this.dedupNearBits = dedupNearBits;
+  }
+
+  /**
+   * @param dedupDir
+   *          the directory for the dedup cache's spill file, or null for the
+   *          temporary directory
+   */
+  public void setDedupDir(File dedupDir) {
+    this.dedupDir = dedupDir;
+  }
+
+  /**
+   * @return the route
+   */
+  public boolean isRoute() {
+    return route;
+  }
+
+  /**
+   * @param route
+   *          whether to only run the host patterns routed to for each page
+   */
+  public void setRoute(boolean route) {
+    this.route = route;
+  }
+
+  /**
+   * @return the watchPatterns
+   */
+  public boolean isWatchPatterns() {
+    return watchPatterns;
+  }
+
+  /**
+   * @param watchPatterns
+   *          whether to reload the patterns when the config file changes
+   */
+  public void setWatchPatterns(boolean watchPatterns) {
+    this.watchPatterns = watchPatterns;
+  }
+
+  /**
+   * @return the dictionarySize
+   */
+  public int getDictionarySize() {
+    return dictionarySize;
+  }
+
+  /**
+   * @param dictionarySize
+   *          the most usernames the persona dictionary keeps, 0 for no
+   *          dictionary
+   */
+  public void setDictionarySize(int dictionarySize) {
+    this.dictionarySize = dictionarySize;
+  }
+
+  /**
+   * @return the summaryFile
+   */
+  public File getSummaryFile() {
+    return summaryFile;
+  }
+
+  /**
+   * @param summaryFile
+   *          the persona to pages summary to write, or null for none
+   */
+  public void setSummaryFile(File summaryFile) {
+    this.summaryFile = summaryFile;
+  }
+
+  /**
+   * @return the logMode
+   */
+  public LoggingMode getLogMode() {
+    return logMode;
+  }
+
+  /**
+   * @param logMode
+   *          the logMode to set
+   */
+  public void setLogMode(LoggingMode logMode) {
+    this.logMode = logMode;
+  }
+
+  /**
+   * @return the logSample
+   */
+  public int getLogSample() {
+    return logSample;
+  }
+
+  /**
+   * @param logSample
+   *          the logSample to set
+   */
+  public void setLogSample(int logSample) {
+    this.logSample = logSample;
+  }
+
+}
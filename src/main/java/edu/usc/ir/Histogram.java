@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values, such as latencies in
+ * nanoseconds or usernames per page. Values below 16 are counted exactly;
+ * larger ones fall into 8 buckets per power of two, so percentiles are
+ * accurate to within 12.5% in a fixed 4KB, however many values are recorded.
+ * <p>
+ * Values are reported divided by a scale, e.g. 1e6 to report nanosecond
+ * latencies in milliseconds. Thread-safe.
+ */
+public class Histogram implements HistogramMBean {
+
+  private static final int EXACT = 16;
+
+  private static final int SUB_BITS = 3;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+  // exponents 4 to 62 of a positive long
+  private static final int BUCKETS = EXACT + (63 - 4) * SUB_BUCKETS;
+
+  private final String name;
+
+  private final String unit;
+
+  private final double scale;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+  private final AtomicLong count = new AtomicLong();
+
+  private final AtomicLong sum = new AtomicLong();
+
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * @param name
+   *          The metric name.
+   * @param unit
+   *          The unit values are reported in.
+   * @param scale
+   *          What recorded values are divided by to report them in
+   *          <code>unit</code>.
+   */
+  public Histogram(String name, String unit, double scale) {
+    this.name = name;
+    this.unit = unit;
+    this.scale = scale;
+  }
+
+  /**
+   * @param value
+   *          The value to record, negative values counting as 0.
+   */
+  public void record(long value) {
+    value = Math.max(0, value);
+    this.buckets.incrementAndGet(bucket(value));
+    this.count.incrementAndGet();
+    this.sum.addAndGet(value);
+    long current;
+    while (value > (current = this.max.get())
+        && !this.max.compareAndSet(current, value)) {
+      // lost a race with another record, look again
+    }
+  }
+
+  /**
+   * @param quantile
+   *          Between 0 and 1, e.g. 0.99.
+   * @return the value below which <code>quantile</code> of the recorded values
+   *         fall, in {@link #getUnit()}, or 0 if none were recorded
+   */
+  public double getPercentile(double quantile) {
+    long total = this.count.get();
+    if (total == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += this.buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(upperBound(i), this.max.get()) / this.scale;
+      }
+    }
+    return this.max.get() / this.scale;
+  }
+
+  /**
+   * @return the name
+   */
+  public String getName() {
+    return name;
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.HistogramMBean#getUnit()
+   */
+  @Override
+  public String getUnit() {
+    return unit;
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.HistogramMBean#getCount()
+   */
+  @Override
+  public long getCount() {
+    return count.get();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.HistogramMBean#getMean()
+   */
+  @Override
+  public double getMean() {
+    long total = this.count.get();
+    return total > 0 ? this.sum.get() / this.scale / total : 0;
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.HistogramMBean#getMax()
+   */
+  @Override
+  public double getMax() {
+    return max.get() / scale;
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.HistogramMBean#getP50()
+   */
+  @Override
+  public double getP50() {
+    return getPercentile(0.5);
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.HistogramMBean#getP90()
+   */
+  @Override
+  public double getP90() {
+    return getPercentile(0.9);
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.HistogramMBean#getP99()
+   */
+  @Override
+  public double getP99() {
+    return getPercentile(0.99);
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return String.format(
+        "%s: count: [%d]: mean: [%.2f]: p50: [%.2f]: p90: [%.2f]: p99: [%.2f]: max: [%.2f] %s",
+        this.name, getCount(), getMean(), getP50(), getP90(), getP99(),
+        getMax(), this.unit);
+  }
+
+  static int bucket(long value) {
+    if (value < EXACT) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+    return EXACT + (exponent - 4) * SUB_BUCKETS + sub;
+  }
+
+  static long upperBound(int bucket) {
+    if (bucket < EXACT) {
+      return bucket;
+    }
+    int exponent = (bucket - EXACT) / SUB_BUCKETS + 4;
+    int sub = (bucket - EXACT) % SUB_BUCKETS;
+    long width = 1L << (exponent - SUB_BITS);
+    return (SUB_BUCKETS + sub) * width + width - 1;
+  }
+
+}
@@ -0,0 +1,279 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.xpath.XPathUtils;
+
+/**
+ * An XPath selector from the pattern config, compiled once and safe to
+ * evaluate concurrently from any number of threads. The compiled expression
+ * is evaluated against the DOM of either {@link ExtractionEngine}.
+ */
+public class HostPattern {
+
+  private static Logger LOG = Logger.getLogger(HostPattern.class.getName());
+
+  /*
+   * HtmlUnit only reports its HTML elements without the XHTML namespace, so
+   * that plain names like //a match them, while this per-thread flag of its
+   * XPath support is set. Null if this HtmlUnit has no such flag.
+   */
+  private static final ThreadLocal<Boolean> HTMLUNIT_XPATH = htmlUnitXPathFlag();
+
+  /**
+   * What kind of value the selector produces.
+   */
+  public enum ResultType {
+    /** Node set of elements whose href ends in the username. */
+    ANCHOR,
+    /** Node set whose text content is the username. */
+    TEXT,
+    /** Scalar (string) expression that evaluates to the username. */
+    STRING
+  }
+
+  private final String hostKey;
+
+  private final String expression;
+
+  /*
+   * JAXP expressions are not thread safe, so each thread compiles its own
+   * copy of the (already validated) expression on first use.
+   */
+  private final ThreadLocal<XPathExpression> compiled;
+
+  private final ResultType resultType;
+
+  /**
+   * Compiles <code>expression</code> for <code>hostKey</code>.
+   *
+   * @param hostKey
+   *          The host pattern key from the config file.
+   * @param expression
+   *          The XPath selector.
+   * @throws XPathExpressionException
+   *           If the expression is not valid XPath.
+   */
+  public HostPattern(String hostKey, String expression)
+      throws XPathExpressionException {
+    this.hostKey = hostKey;
+    this.expression = expression;
+    XPathExpression first = compile(expression);
+    this.compiled = new ThreadLocal<XPathExpression>() {
+      @Override
+      protected XPathExpression initialValue() {
+        try {
+          return compile(HostPattern.this.expression);
+        } catch (XPathExpressionException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    if (!isNodeSet(first)) {
+      this.resultType = ResultType.STRING;
+    } else if (expression.contains("@href")) {
+      this.resultType = ResultType.ANCHOR;
+    } else {
+      this.resultType = ResultType.TEXT;
+    }
+  }
+
+  private static XPathExpression compile(String expression)
+      throws XPathExpressionException {
+    XPath xpath = XPathFactory.newInstance().newXPath();
+    return xpath.compile(expression);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ThreadLocal<Boolean> htmlUnitXPathFlag() {
+    try {
+      Field flag = XPathUtils.class.getDeclaredField("PROCESS_XPATH_");
+      flag.setAccessible(true);
+      return (ThreadLocal<Boolean>) flag.get(null);
+    } catch (Exception e) {
+      LOG.warning("Unable to find HtmlUnit's XPath flag: " + e
+          + ": HtmlUnit pages will be searched through XPathUtils.");
+      return null;
+    }
+  }
+
+  /*
+   * Against an empty document, a node set expression yields an empty node
+   * list and a scalar one fails the conversion.
+   */
+  private static boolean isNodeSet(XPathExpression expression) {
+    try {
+      expression.evaluate((Object) null, XPathConstants.NODESET);
+      return true;
+    } catch (XPathExpressionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Walks a JAXP node list by index without asking for its length, so the
+   * underlying node set is only searched as far as the caller reads. The
+   * search goes on as items are read, so for an HtmlUnit DOM each read is
+   * made with HtmlUnit's XPath flag set.
+   */
+  private static class NodeListIterator implements Iterator<Object> {
+
+    private final NodeList nodes;
+
+    private final boolean htmlUnit;
+
+    private Node next;
+
+    private int index;
+
+    NodeListIterator(NodeList nodes, boolean htmlUnit) {
+      this.nodes = nodes;
+      this.htmlUnit = htmlUnit;
+      this.next = item(0);
+    }
+
+    private Node item(int i) {
+      if (!this.htmlUnit) {
+        return this.nodes.item(i);
+      }
+      Boolean previous = HTMLUNIT_XPATH.get();
+      HTMLUNIT_XPATH.set(Boolean.TRUE);
+      try {
+        return this.nodes.item(i);
+      } finally {
+        HTMLUNIT_XPATH.set(previous);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return this.next != null;
+    }
+
+    @Override
+    public Object next() {
+      if (this.next == null) {
+        throw new NoSuchElementException();
+      }
+      Node node = this.next;
+      this.next = item(++this.index);
+      return node;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Evaluates this pattern against <code>context</code>. Node sets are
+   * returned as their {@link Node}s, scalar results as a single
+   * {@link String}, mirroring HtmlUnit's <code>getByXPath</code>.
+   * <p>
+   * Node sets are walked one node per {@link Iterator#next()}, so a caller
+   * that stops early (at a username or time limit) does not have the rest of
+   * the document searched. HtmlUnit pages are searched with the same
+   * precompiled expression, with HtmlUnit's XPath flag set; only if that
+   * flag cannot be found are they searched through its public
+   * {@link XPathUtils#getByXPath(DomNode, String, org.apache.xml.utils.PrefixResolver)},
+   * which compiles the expression on every call.
+   *
+   * @param context
+   *          The node (usually the page) to evaluate against.
+   * @return The selected values, never null.
+   * @throws XPathExpressionException
+   *           If evaluation fails.
+   */
+  public Iterator<Object> iterate(Node context)
+      throws XPathExpressionException {
+    boolean htmlUnit = context instanceof DomNode;
+    if (htmlUnit && HTMLUNIT_XPATH == null) {
+      try {
+        return XPathUtils.getByXPath((DomNode) context, this.expression, null)
+            .iterator();
+      } catch (RuntimeException e) {
+        throw new XPathExpressionException(e);
+      }
+    }
+    XPathExpression xpath = this.compiled.get();
+    Boolean previous = htmlUnit ? HTMLUNIT_XPATH.get() : null;
+    if (htmlUnit) {
+      HTMLUNIT_XPATH.set(Boolean.TRUE);
+    }
+    try {
+      if (this.resultType == ResultType.STRING) {
+        return Collections.<Object> singletonList(
+            xpath.evaluate(context, XPathConstants.STRING)).iterator();
+      }
+      return new NodeListIterator(
+          (NodeList) xpath.evaluate(context, XPathConstants.NODESET),
+          htmlUnit);
+    } finally {
+      if (htmlUnit) {
+        HTMLUNIT_XPATH.set(previous);
+      }
+    }
+  }
+
+  /**
+   * @return the hostKey
+   */
+  public String getHostKey() {
+    return hostKey;
+  }
+
+  /**
+   * @return the expression
+   */
+  public String getExpression() {
+    return expression;
+  }
+
+  /**
+   * @return the resultType
+   */
+  public ResultType getResultType() {
+    return resultType;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "[hostKey=" + hostKey + ",type=" + resultType + ",expression="
+        + expression + "]";
+  }
+}
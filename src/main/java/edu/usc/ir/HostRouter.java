@@ -0,0 +1,203 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Picks the host patterns that apply to a page, so each page only runs the
+ * patterns for the site it came from rather than every pattern in the
+ * config. The site is taken from, in order:
+ * <ol>
+ * <li>the host of the page's URL, when it is <code>http</code> or
+ * <code>https</code>;</li>
+ * <li>the page's <code>&lt;base href&gt;</code>, or its
+ * <code>&lt;link rel="canonical"&gt;</code>;</li>
+ * <li>the reverse-domain directory layout ImageCat pages are stored in, e.g.
+ * <code>.../com/slickguns/www/doc1</code>, in the page's URL or path.</li>
+ * </ol>
+ * Hosts match a host pattern key ignoring case and a leading
+ * <code>www.</code>, and subdomains match their parent domain's key. The
+ * first source naming a host with patterns wins; if none does, routing is
+ * left undecided and the caller runs every pattern. Immutable and
+ * thread-safe.
+ */
+public class HostRouter {
+
+  private final Map<String, List<String>> byHost = new HashMap<String, List<String>>();
+
+  // most labels in a host pattern key, bounding the reverse path search
+  private int maxLabels = 0;
+
+  /**
+   * @param patterns
+   *          The host patterns to route to.
+   */
+  public HostRouter(PatternRegistry patterns) {
+    for (String hostKey : patterns.getHostKeys()) {
+      String host = normalize(hostKey);
+      List<String> keys = this.byHost.get(host);
+      if (keys == null) {
+        keys = new ArrayList<String>(1);
+        this.byHost.put(host, keys);
+      }
+      keys.add(hostKey);
+      this.maxLabels = Math.max(this.maxLabels, hostKey.split("\\.").length);
+    }
+    for (Map.Entry<String, List<String>> entry : this.byHost.entrySet()) {
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
+    }
+  }
+
+  /**
+   * @param pageId
+   *          The page's URI.
+   * @param document
+   *          The parsed page, or null.
+   * @return the host pattern keys for the page, or null if it could not be
+   *         routed and every pattern should run
+   */
+  public List<String> route(String pageId, Node document) {
+    URI uri = null;
+    if (pageId != null) {
+      try {
+        uri = new URI(pageId);
+      } catch (URISyntaxException e) {
+        // no URL to go on
+      }
+    }
+    List<String> keys = null;
+    if (uri != null && uri.getHost() != null
+        && ("http".equalsIgnoreCase(uri.getScheme())
+            || "https".equalsIgnoreCase(uri.getScheme()))) {
+      keys = keysFor(uri.getHost());
+    }
+    if (keys == null && document instanceof Document) {
+      keys = keysFor(declaredHost((Document) document));
+    }
+    if (keys == null && uri != null && uri.getPath() != null) {
+      keys = keysForReversePath(uri.getPath());
+    }
+    return keys;
+  }
+
+  /**
+   * @param host
+   *          A host name, or null.
+   * @return the keys for <code>host</code> or its closest parent domain with
+   *         patterns, or null if there are none
+   */
+  List<String> keysFor(String host) {
+    if (host == null) {
+      return null;
+    }
+    String domain = normalize(host);
+    while (true) {
+      List<String> keys = this.byHost.get(domain);
+      if (keys != null) {
+        return keys;
+      }
+      int dot = domain.indexOf('.');
+      // stop before a bare top level domain
+      if (dot < 0 || domain.indexOf('.', dot + 1) < 0) {
+        return null;
+      }
+      domain = domain.substring(dot + 1);
+    }
+  }
+
+  private List<String> keysForReversePath(String path) {
+    String[] segments = path.split("/");
+    for (int start = 0; start < segments.length; start++) {
+      // the longest host first, so www.example.com wins over example.com
+      int longest = Math.min(this.maxLabels, segments.length - start);
+      for (int labels = longest; labels >= 2; labels--) {
+        StringBuilder host = new StringBuilder();
+        for (int i = start + labels - 1; i >= start; i--) {
+          if (segments[i].isEmpty()) {
+            host = null;
+            break;
+          }
+          host.append(segments[i]);
+          if (i > start) {
+            host.append('.');
+          }
+        }
+        if (host != null) {
+          List<String> keys = this.byHost.get(normalize(host.toString()));
+          if (keys != null) {
+            return keys;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String declaredHost(Document document) {
+    NodeList bases = document.getElementsByTagName("base");
+    for (int i = 0; i < bases.getLength(); i++) {
+      String host = hostOf(((Element) bases.item(i)).getAttribute("href"));
+      if (host != null) {
+        return host;
+      }
+    }
+    NodeList links = document.getElementsByTagName("link");
+    for (int i = 0; i < links.getLength(); i++) {
+      Element link = (Element) links.item(i);
+      if ("canonical".equalsIgnoreCase(link.getAttribute("rel").trim())) {
+        String host = hostOf(link.getAttribute("href"));
+        if (host != null) {
+          return host;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static String hostOf(String url) {
+    if (url == null || url.isEmpty()) {
+      return null;
+    }
+    try {
+      return new URI(url.trim()).getHost();
+    } catch (URISyntaxException e) {
+      return null;
+    }
+  }
+
+  private static String normalize(String host) {
+    String normalized = host.toLowerCase(Locale.ROOT);
+    return normalized.startsWith("www.") ? normalized.substring(4)
+        : normalized;
+  }
+
+}
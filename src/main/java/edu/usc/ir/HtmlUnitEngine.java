@@ -0,0 +1,304 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+import org.w3c.dom.Node;
+
+import com.gargoylesoftware.htmlunit.DownloadedContent;
+import com.gargoylesoftware.htmlunit.History;
+import com.gargoylesoftware.htmlunit.HttpMethod;
+import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.WebResponse;
+import com.gargoylesoftware.htmlunit.WebResponseData;
+import com.gargoylesoftware.htmlunit.WebWindow;
+import com.gargoylesoftware.htmlunit.html.DomNode;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.gargoylesoftware.htmlunit.util.NameValuePair;
+
+/**
+ * {@link ExtractionEngine} that loads pages through an HtmlUnit
+ * {@link WebClient}, reusing one client for every page. Pages are handed to
+ * HtmlUnit as ready-made responses over NIO buffers (see
+ * {@link LocalPageReader}), with the charset found by {@link CharsetSniffer},
+ * rather than being loaded through <code>file:</code> URL connections. The
+ * {@link PageLimits} element and time limits are enforced on the stream
+ * HtmlUnit parses from, which ends at the start tag past the element limit or
+ * once the time budget is spent.
+ */
+public class HtmlUnitEngine implements ExtractionEngine {
+
+  private final WebClient webClient;
+
+  private final LocalPageReader reader = new LocalPageReader();
+
+  private PageLimits limits = PageLimits.NONE;
+
+  private PageLimits.Limit limitReached;
+
+  public HtmlUnitEngine() {
+    this.webClient = new WebClient();
+    this.webClient.getOptions().setJavaScriptEnabled(false);
+    this.webClient.getOptions().setThrowExceptionOnFailingStatusCode(false);
+    this.webClient.getOptions().setThrowExceptionOnScriptError(false);
+    try {
+      // a first history entry of our own, so parse can drop each page's
+      this.webClient.getPage(WebClient.URL_ABOUT_BLANK);
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to open a blank page", e);
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#parse(java.io.File)
+   */
+  @Override
+  public Node parse(File page) throws IOException {
+    return parse(read(page), page.toURI().toURL(), null);
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#parse(byte[], java.lang.String)
+   */
+  @Override
+  public Node parse(byte[] content, String uri) throws IOException {
+    return parse(ByteBuffer.wrap(content), new URL(uri), null);
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#read(java.io.File)
+   */
+  @Override
+  public ByteBuffer read(File page) throws IOException {
+    return this.reader.read(page);
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#parse(java.nio.ByteBuffer, java.lang.String, java.nio.charset.Charset)
+   */
+  @Override
+  public Node parse(ByteBuffer content, String uri, Charset hint)
+      throws IOException {
+    return parse(content, new URL(uri), hint);
+  }
+
+  private Node parse(ByteBuffer content, URL url, Charset hint)
+      throws IOException {
+    // the charset goes in the header, so HtmlUnit never re-reads the bytes
+    // to guess it
+    Charset charset = CharsetSniffer.detect(content, hint);
+    ByteBuffer body = content.duplicate();
+    body.position(body.position() + CharsetSniffer.bomLength(content));
+    if (this.limits.exceedsBytes(body.remaining())) {
+      // the parser sees the prefix as a page that just ends early
+      body.limit(body.position() + (int) this.limits.getMaxBytes());
+    }
+    List<NameValuePair> headers = Collections.singletonList(new NameValuePair(
+        "Content-Type", "text/html; charset=" + charset.name()));
+    BufferContent bufferContent = new BufferContent(body,
+        this.limits.getMaxNodes(), this.limits.deadline(System.nanoTime()));
+    WebResponse response = new WebResponse(
+        new WebResponseData(bufferContent, 200, "OK", headers), url,
+        HttpMethod.GET, 0);
+    WebWindow window = webClient.getCurrentWindow();
+    this.limitReached = null;
+    Page loaded = webClient.loadWebResponseInto(response, window);
+    this.limitReached = bufferContent.getLimitReached();
+    // the window history would keep the last 50 pages alive, which for big
+    // pages is most of the heap; nothing here ever navigates back
+    History history = window.getHistory();
+    if (history.getLength() > 1) {
+      history.removeCurrent();
+    }
+    if (!(loaded instanceof HtmlPage)) {
+      throw new IOException("Not an HTML page: [" + url + "]");
+    }
+    return (HtmlPage) loaded;
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#getText(org.w3c.dom.Node)
+   */
+  @Override
+  public String getText(Node node) {
+    return ((DomNode) node).asText();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#setLimits(edu.usc.ir.PageLimits)
+   */
+  @Override
+  public void setLimits(PageLimits limits) {
+    this.limits = limits;
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#getLimitReached()
+   */
+  @Override
+  public PageLimits.Limit getLimitReached() {
+    return this.limitReached;
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#close()
+   */
+  @Override
+  public void close() {
+    webClient.close();
+  }
+
+  /**
+   * Response content served straight from a (heap, direct or mapped) buffer,
+   * through a {@link LimitedStream}.
+   */
+  private static class BufferContent implements DownloadedContent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient ByteBuffer buffer;
+
+    private final int maxElements;
+
+    private final long deadline;
+
+    private transient LimitedStream stream;
+
+    BufferContent(ByteBuffer buffer, int maxElements, long deadline) {
+      this.buffer = buffer;
+      this.maxElements = maxElements;
+      this.deadline = deadline;
+    }
+
+    PageLimits.Limit getLimitReached() {
+      return this.stream == null ? null : this.stream.reached;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      this.stream = new LimitedStream(this.buffer, this.maxElements,
+          this.deadline);
+      return this.stream;
+    }
+
+    @Override
+    public void cleanUp() {
+      // nothing to release, the buffer belongs to the caller
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return !this.buffer.hasRemaining();
+    }
+
+    @Override
+    public long length() {
+      return this.buffer.remaining();
+    }
+  }
+
+  /**
+   * Page bytes that end early: just before the start tag past the element
+   * limit, or at the first read after the deadline. Start tags are counted as
+   * a <code>&lt;</code> followed by a letter, which is what the parser takes
+   * for an element; the count is close to, not exactly, the DOM's element
+   * count (tags inside comments and scripts are counted too).
+   */
+  private static class LimitedStream extends ByteBufferInputStream {
+
+    private final int maxElements;
+
+    private final long deadline;
+
+    private int elements;
+
+    private boolean openTag;
+
+    PageLimits.Limit reached;
+
+    LimitedStream(ByteBuffer buffer, int maxElements, long deadline) {
+      super(buffer);
+      this.maxElements = maxElements;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public int read() {
+      if (this.reached != null) {
+        return -1;
+      }
+      if (System.nanoTime() > this.deadline) {
+        this.reached = PageLimits.Limit.TIME;
+        return -1;
+      }
+      int b = super.read();
+      if (b == -1 || this.maxElements <= 0) {
+        return b;
+      }
+      if (startsElement((byte) b)) {
+        // the tag's '<' came in the last read
+        return -1;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (this.reached != null) {
+        return -1;
+      }
+      if (length > 0 && System.nanoTime() > this.deadline) {
+        this.reached = PageLimits.Limit.TIME;
+        return -1;
+      }
+      int count = super.read(bytes, offset, length);
+      if (count <= 0 || this.maxElements <= 0) {
+        return count;
+      }
+      for (int i = 0; i < count; i++) {
+        if (startsElement(bytes[offset + i])) {
+          // ends before the tag's '<', unless that came in the last read
+          return i > 1 ? i - 1 : -1;
+        }
+      }
+      return count;
+    }
+
+    // counts the element b starts, if any, and tells whether it is past the
+    // element limit
+    private boolean startsElement(byte b) {
+      if (this.openTag && ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z'))
+          && ++this.elements > this.maxElements) {
+        this.reached = PageLimits.Limit.NODES;
+        return true;
+      }
+      this.openTag = b == '<';
+      return false;
+    }
+  }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+
+/**
+ * Lazily iterates the ImageCat doc ids (the last path segment of each Solr
+ * <code>id</code>) matching a query, one Solr page at a time.
+ * <p>
+ * In single page mode it fetches <code>rows</code> rows from
+ * <code>start</code>, exactly like the original grabber. In all pages mode it
+ * walks every match in <code>id</code> order, asking for the ids after the
+ * last one seen (<code>id:{last TO *]</code>) rather than using deep
+ * <code>start</code> offsets, so each page costs the same however far into
+ * the result set it is, on any Solr version. That range differs on every
+ * page, so it is sent as an uncached filter: cached, each page would take a
+ * filter cache entry no later request can hit, evicting the ones that
+ * can.
+ * <p>
+ * Solr errors surface as {@link IllegalStateException}s from
+ * {@link #hasNext()}.
+ */
+public class ImageCatDocIdIterator implements Iterator<String> {
+
+  private static Logger LOG = Logger
+      .getLogger(ImageCatDocIdIterator.class.getName());
+
+  private final SolrServer server;
+
+  private final String query;
+
+  private final int start;
+
+  private final int rows;
+
+  private final boolean allPages;
+
+  private SolrDocumentList page = null;
+
+  private int index = 0;
+
+  private String lastId = null;
+
+  private boolean exhausted = false;
+
+  private long fetched = 0;
+
+  /**
+   * @param server
+   *          The ImageCat Solr server.
+   * @param query
+   *          The Solr query, e.g. <code>host:slickguns</code>.
+   * @param start
+   *          First row to fetch (single page mode only).
+   * @param rows
+   *          Rows to fetch (single page mode), or rows per Solr request (all
+   *          pages mode).
+   * @param allPages
+   *          Whether to walk every match rather than a single page.
+   */
+  public ImageCatDocIdIterator(SolrServer server, String query, int start,
+      int rows, boolean allPages) {
+    this.server = server;
+    this.query = query;
+    this.start = start;
+    this.rows = rows;
+    this.allPages = allPages;
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.Iterator#hasNext()
+   */
+  @Override
+  public boolean hasNext() {
+    if (this.page != null && this.index < this.page.size()) {
+      return true;
+    }
+    if (this.exhausted) {
+      return false;
+    }
+    fetchPage();
+    return this.index < this.page.size();
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.Iterator#next()
+   */
+  @Override
+  public String next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    SolrDocument doc = this.page.get(this.index++);
+    String id = doc.getFieldValue("id").toString();
+    this.lastId = id;
+    return id.substring(id.lastIndexOf('/') + 1);
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.Iterator#remove()
+   */
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @return the number of doc ids fetched from Solr so far
+   */
+  public long getFetched() {
+    return fetched;
+  }
+
+  private void fetchPage() {
+    SolrQuery solrQuery = new SolrQuery();
+    solrQuery.setQuery(this.query);
+    solrQuery.set("fl", "id");
+    solrQuery.setRows(this.rows);
+    if (this.allPages) {
+      solrQuery.setSortField("id", SolrQuery.ORDER.asc);
+      if (this.lastId != null) {
+        solrQuery.addFilterQuery("{!cache=false}id:{"
+            + ClientUtils.escapeQueryChars(this.lastId) + " TO *]");
+      }
+    } else {
+      solrQuery.setStart(this.start);
+      // a single page only
+      this.exhausted = true;
+    }
+
+    try {
+      this.page = this.server.query(solrQuery).getResults();
+    } catch (SolrServerException e) {
+      throw new IllegalStateException("Unable to query ImageCat: ["
+          + solrQuery + "]: " + e.getMessage(), e);
+    }
+    this.index = 0;
+    this.fetched += this.page.size();
+    if (this.page.size() < this.rows) {
+      this.exhausted = true;
+    }
+    LOG.info("Fetched [" + this.page.size() + "] doc ids: total: ["
+        + this.fetched + "] of [" + this.page.getNumFound() + "]");
+  }
+
+}
@@ -19,35 +19,37 @@ package edu.usc.ir;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
-import org.apache.commons.io.FileUtils;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.impl.HttpClientUtil;
 import org.apache.solr.client.solrj.impl.HttpSolrServer;
-import org.apache.solr.client.solrj.response.QueryResponse;
-import org.apache.solr.common.SolrDocumentList;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
-import com.gargoylesoftware.htmlunit.DefaultCredentialsProvider;
-import com.gargoylesoftware.htmlunit.WebClient;
-import com.gargoylesoftware.htmlunit.WebResponse;
-import com.gargoylesoftware.htmlunit.html.HtmlPage;
-
 public class ImageCatPageGrabber {
 
-  @Option(name = "-u", usage = "Username", aliases = { "--user" })
+  @Option(name = "-u", usage = "Username", aliases = { "--user", "-iu" })
   private String username = null;
 
-  @Option(name = "-p", usage = "Password", aliases = { "--pass" })
+  @Option(name = "-p", usage = "Password", aliases = { "--pass", "-ip" })
   private String password = null;
 
   @Option(name = "-i", usage = "Imagecat URL", aliases = { "--imagecatUrl" }, required=true)
@@ -62,18 +64,38 @@ public class ImageCatPageGrabber {
   @Option(name="-pp", usage = "Page Prefix (e.g., http://somehost/webmount/", aliases = { "--pagePrefix" }, required=true)
   private String pagePrefix = null;
   
-  @Option(name="-s", usage = "Starting Solr Row e.g., 0, default 0", aliases = { "--rowStart" }, required=false)
+  @Option(name="-s", usage = "Starting Solr Row e.g., 0, default 0", aliases = { "--rowStart", "-rs" }, required=false)
   private int start = 0;
   
-  @Option(name="-r", usage = "Rows in Solr, e.g., 10, default 10", aliases = { "--numRows" }, required=false)
+  @Option(name="-r", usage = "Rows in Solr, e.g., 10, default 10 (rows per Solr request with --all)", aliases = { "--numRows" }, required=false)
   private int rows = 10;
   
+  @Option(name="-a", usage = "Grab every page for the host, paging through Solr in id order", aliases = { "--all" }, required=false)
+  private boolean allPages = false;
+  
+  @Option(name="-t", usage = "Page requests in flight, default 1", aliases = { "--threads" }, required=false)
+  private int threads = 1;
+  
+  @Option(name="-rl", usage = "Maximum page requests started per second per host, default 0 (no limit)", aliases = { "--rateLimit" }, required=false)
+  private double rateLimit = 0;
+  
+  @Option(name="-mr", usage = "Retries for a page after a transient failure, default 3", aliases = { "--maxRetries" }, required=false)
+  private int maxRetries = 3;
+  
+  @Option(name="-rd", usage = "Delay before the first retry in ms, doubled for each further retry, default 500", aliases = { "--retryDelay" }, required=false)
+  private long retryDelay = 500;
+  
+  @Option(name="-ck", usage = "Checkpoint log of fetched doc ids; pages already in it are skipped", aliases = { "--checkpoint" }, required=false)
+  private File checkpointFile = null;
+  
   // receives other command line parameters than options
   @Argument
   private List<String> arguments = new ArrayList<String>();
 
   private static final String USAGE = "java ImageCatPageGrabber [options...] arguments...";
 
+  private static final long TRANSFER_CHUNK = 1024 * 1024;
+
   private static Logger LOG = Logger
       .getLogger(ImageCatPageGrabber.class.getName());
   
@@ -88,66 +110,77 @@ public class ImageCatPageGrabber {
   /**
    * Grabs pages from the JPL ImageCat Web mount using a Solr query for
    * {@link #hostPart}, starting from {@link #start} and fetching
-   * {@link #rows} rows. {@link #pagePrefix} is used to define the JPL
+   * {@link #rows} rows, or with {@link #allPages} every matching page,
+   * {@link #rows} at a time. {@link #pagePrefix} is used to define the JPL
    * ImageCat web mount HTTP prefix.
    * 
+   * Pages are fetched by {@link PageFetcher} with up to {@link #threads}
+   * requests in flight, at most {@link #rateLimit} request starts per second,
+   * and {@link #maxRetries} retries with exponential backoff for transient
+   * failures. Pages that still fail are logged and skipped. With a
+   * {@link #checkpointFile}, doc ids fetched by an earlier run are skipped and
+   * each saved page is recorded, so an interrupted run can be resumed.
+   * 
    * @throws IOException
-   *           If there is a HtmlUnit error.
+   *           If a page fetcher cannot be shut down.
    * @throws SolrServerException
    *           If there is a Solr error.
    */
   public void grabPages()
       throws IOException, SolrServerException {
-    WebClient webclient = new WebClient();
-    if (this.username != null && this.password != null){
-      LOG.info("Credentials enabled.");
-      DefaultCredentialsProvider provider = new DefaultCredentialsProvider();
-      provider.addCredentials(this.username, this.password);
-      webclient.setCredentialsProvider(provider);      
-    }
-    
-    webclient.getOptions().setJavaScriptEnabled(false);
-    webclient.getOptions().setThrowExceptionOnFailingStatusCode(false);
-    webclient.getOptions().setThrowExceptionOnScriptError(false);
     HttpSolrServer server = new HttpSolrServer(this.imagecatUrl.toString());
 
+    if (this.username != null && this.password != null) {
+      LOG.info("Credentials enabled.");
+    }
     HttpClientUtil.setBasicAuth((DefaultHttpClient) server.getHttpClient(),
         this.username, this.password);
     LOG.info("Host: [" + hostPart + "]: pagePrefix: [" + pagePrefix
-        + "]: start: [" + start + "]: rows: [" + rows + "]");
-    SolrQuery query = new SolrQuery();
-    query.setQuery("host:" + hostPart);
-    query.set("fl", "id,persons");
-    query.setStart(start);
-    query.setRows(rows);
-    QueryResponse response = server.query(query);
-    SolrDocumentList docResults = response.getResults();
-    List<String> docIds = new ArrayList<String>();
-    for (int i = 0; i < docResults.size(); i++) {
-      String id = docResults.get(i).getFieldValue("id").toString();
-      int index = id.lastIndexOf('/');
-      String docId = id.substring(index + 1);
-      docIds.add(docId);
-    }
-
-    LOG.info("Obtained doc ids: [" + docIds + "]");
-
-    String domain = hostToReversePath(hostPart);
-    for (int j = 0; j < docIds.size(); j++) {
-      ArrayList<String> username = new ArrayList<String>();
-      String docId = docIds.get(j);
-      String url = pagePrefix + domain + docId;
-      HtmlPage htmlPage = webclient.getPage(url);
-      WebResponse webResponse = htmlPage.getWebResponse();
-      String content = webResponse.getContentAsString();
-      
-      File outPage = new File(
-          this.outDir.getAbsoluteFile() + File.separator + docId);
-      LOG.info("Writing page: ["+docId+"] to ["+outPage.getAbsolutePath()+"]");
-      FileUtils.writeStringToFile(outPage, content);
+        + "]: start: [" + start + "]: rows: [" + rows + "]: all: [" + allPages
+        + "]: threads: [" + threads + "]: rateLimit: [" + rateLimit + "]");
+    // doc ids stream straight into the fetchers, a Solr page at a time
+    ImageCatDocIdIterator docIds = new ImageCatDocIdIterator(server,
+        "host:" + hostPart, start, rows, allPages);
+
+    final CheckpointStore checkpoint = this.checkpointFile != null
+        ? new CheckpointStore(this.checkpointFile) : null;
+    final AtomicLong skipped = new AtomicLong();
+    PageFetcher fetcher = new PageFetcher(threads, rateLimit, maxRetries,
+        retryDelay, username, password);
+    long started = System.currentTimeMillis();
+    try {
+      fetcher.fetchAll(unfetched(docIds, checkpoint, skipped),
+          pagePrefix + hostToReversePath(hostPart),
+          new PageFetcher.PageHandler() {
+            @Override
+            public void pageFetched(String docId, String url,
+                String contentType, InputStream content) throws IOException {
+              File outPage = new File(
+                  outDir.getAbsoluteFile() + File.separator + docId);
+              LOG.info("Writing page: [" + docId + "] to ["
+                  + outPage.getAbsolutePath() + "]");
+              streamToFile(content, outPage);
+              if (checkpoint != null) {
+                checkpoint.recordFetched(docId);
+              }
+            }
+          });
+    } finally {
+      fetcher.close();
+      server.shutdown();
+      if (checkpoint != null) {
+        checkpoint.close();
+      }
     }
 
-    webclient.close();
+    long elapsed = Math.max(1, System.currentTimeMillis() - started);
+    LOG.info("Grabbed [" + fetcher.getFetched() + "] of ["
+        + docIds.getFetched() + "] pages for host: [" + hostPart
+        + "]: skipped (already fetched): [" + skipped.get() + "]: failed: ["
+        + fetcher.getFailed() + "]: retries: ["
+        + fetcher.getRetries() + "]: "
+        + String.format("%.1f", fetcher.getFetched() * 1000.0 / elapsed)
+        + " pages/sec");
   }
 
   public static void main(String[] args) throws IOException, SolrServerException {    
@@ -161,7 +194,77 @@ public class ImageCatPageGrabber {
 
   }
 
-  private String hostToReversePath(String host) {
+  /**
+   * Streams <code>content</code> into <code>file</code> through NIO channels,
+   * byte for byte and without holding the page in memory. The body goes to a
+   * <code>.part</code> file that is moved into place once complete, so an
+   * interrupted or retried download never leaves a truncated page behind.
+   */
+  static void streamToFile(InputStream content, File file) throws IOException {
+    Path target = file.toPath();
+    Path part = target.resolveSibling(target.getFileName() + ".part");
+    if (target.getParent() != null) {
+      Files.createDirectories(target.getParent());
+    }
+    ReadableByteChannel in = Channels.newChannel(content);
+    FileChannel out = FileChannel.open(part, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    try {
+      long position = 0;
+      long transferred;
+      while ((transferred = out.transferFrom(in, position,
+          TRANSFER_CHUNK)) > 0) {
+        position += transferred;
+      }
+    } finally {
+      out.close();
+    }
+    Files.move(part, target, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Filters out the doc ids <code>checkpoint</code> has already fetched.
+   */
+  private Iterator<String> unfetched(final Iterator<String> docIds,
+      final CheckpointStore checkpoint, final AtomicLong skipped) {
+    if (checkpoint == null) {
+      return docIds;
+    }
+    return new Iterator<String>() {
+      private String next = null;
+
+      @Override
+      public boolean hasNext() {
+        while (this.next == null && docIds.hasNext()) {
+          String docId = docIds.next();
+          if (checkpoint.isFetched(docId)) {
+            skipped.incrementAndGet();
+          } else {
+            this.next = docId;
+          }
+        }
+        return this.next != null;
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        String docId = this.next;
+        this.next = null;
+        return docId;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  static String hostToReversePath(String host) {
     String[] parts = host.split("\\.");
     StringBuilder reversePath = new StringBuilder();
     for (int i = parts.length - 1; i >= 0; i--) {
@@ -307,6 +410,90 @@ public class ImageCatPageGrabber {
     this.rows = rows;
   }
 
+  /**
+   * @return the allPages
+   */
+  public boolean isAllPages() {
+    return allPages;
+  }
+
+  /**
+   * @param allPages the allPages to set
+   */
+  public void setAllPages(boolean allPages) {
+    this.allPages = allPages;
+  }
+
+  /**
+   * @return the threads
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * @param threads the threads to set
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * @return the rateLimit
+   */
+  public double getRateLimit() {
+    return rateLimit;
+  }
+
+  /**
+   * @param rateLimit the rateLimit to set
+   */
+  public void setRateLimit(double rateLimit) {
+    this.rateLimit = rateLimit;
+  }
+
+  /**
+   * @return the maxRetries
+   */
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * @param maxRetries the maxRetries to set
+   */
+  public void setMaxRetries(int maxRetries) {
+    this.maxRetries = maxRetries;
+  }
+
+  /**
+   * @return the retryDelay
+   */
+  public long getRetryDelay() {
+    return retryDelay;
+  }
+
+  /**
+   * @param retryDelay the retryDelay to set
+   */
+  public void setRetryDelay(long retryDelay) {
+    this.retryDelay = retryDelay;
+  }
+
+  /**
+   * @return the checkpointFile
+   */
+  public File getCheckpointFile() {
+    return checkpointFile;
+  }
+
+  /**
+   * @param checkpointFile the checkpointFile to set
+   */
+  public void setCheckpointFile(File checkpointFile) {
+    this.checkpointFile = checkpointFile;
+  }
+
   /**
    * @return the arguments
    */
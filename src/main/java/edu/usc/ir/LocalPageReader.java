@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads local page files into NIO buffers rather than through URL
+ * connection streams and heap byte arrays. Files of at least
+ * {@link #MAP_THRESHOLD} bytes are memory-mapped; smaller ones, for which a
+ * mapping costs more than it saves, are read into one direct buffer reused
+ * from page to page. Either way the page bytes never land on the Java heap.
+ * <p>
+ * A buffer returned by {@link #read(File)} is only valid until the next call.
+ * Not thread-safe; use one per {@link ExtractionEngine}.
+ */
+public class LocalPageReader {
+
+  /** Files this large or larger are memory-mapped. */
+  public static final long MAP_THRESHOLD = 256 * 1024;
+
+  private ByteBuffer direct = ByteBuffer.allocateDirect(64 * 1024);
+
+  /**
+   * @param file
+   *          The page to read.
+   * @return the page bytes, from position 0 to the file length
+   * @throws IOException
+   *           If the file cannot be read.
+   */
+  public ByteBuffer read(File file) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.READ);
+    try {
+      long size = channel.size();
+      if (size >= MAP_THRESHOLD) {
+        // the mapping stays valid once the channel is closed
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      if (size > this.direct.capacity()) {
+        this.direct = ByteBuffer.allocateDirect((int) MAP_THRESHOLD);
+      }
+      this.direct.clear();
+      this.direct.limit((int) size);
+      while (this.direct.hasRemaining()
+          && channel.read(this.direct) >= 0) {
+        // read fully
+      }
+      this.direct.flip();
+      return this.direct;
+    } finally {
+      channel.close();
+    }
+  }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+import java.util.logging.StreamHandler;
+
+/**
+ * How much logging a run does, and how it is written.
+ * <ul>
+ * <li>{@link #VERBOSE}: every per-page message is logged, straight to the
+ * configured handlers (the console by default, flushed per record).</li>
+ * <li>{@link #PRODUCTION}: per-page messages are logged for a sample of pages
+ * only, and the root handlers are moved behind an {@link AsyncLogHandler}
+ * with buffered output. Warnings not tied to a page are always logged.</li>
+ * </ul>
+ * Per-page log sites check {@link #isPageLogged(Logger, Level, String)} so
+ * that unlogged pages never build their messages.
+ */
+public enum LoggingMode {
+
+  VERBOSE, PRODUCTION;
+
+  private static volatile int pageSample = 1;
+
+  /**
+   * Applies this mode to the JVM wide logging setup. Call once, at start up.
+   *
+   * @param sample
+   *          In {@link #PRODUCTION}, log per-page messages for one page in
+   *          this many. Ignored in {@link #VERBOSE}.
+   */
+  public void install(int sample) {
+    if (this == VERBOSE) {
+      pageSample = 1;
+      return;
+    }
+    pageSample = Math.max(1, sample);
+    Logger root = LogManager.getLogManager().getLogger("");
+    for (Handler handler : root.getHandlers()) {
+      if (handler instanceof AsyncLogHandler) {
+        continue;
+      }
+      root.removeHandler(handler);
+      root.addHandler(new AsyncLogHandler(buffered(handler)));
+    }
+  }
+
+  /**
+   * Closes the handlers installed by {@link #install(int)}, writing out any
+   * queued records.
+   */
+  public static void uninstall() {
+    Logger root = LogManager.getLogManager().getLogger("");
+    for (Handler handler : root.getHandlers()) {
+      if (handler instanceof AsyncLogHandler) {
+        root.removeHandler(handler);
+        handler.close();
+      }
+    }
+    pageSample = 1;
+  }
+
+  /**
+   * Whether per-page messages at <code>level</code> should be logged for a
+   * page. Pages are sampled on their id, so all messages for a sampled page
+   * are logged together.
+   *
+   * @param log
+   *          The logger the message would go to.
+   * @param level
+   *          The level it would be logged at.
+   * @param pageId
+   *          The page's id or URL; may be null.
+   * @return true if the message should be built and logged.
+   */
+  public static boolean isPageLogged(Logger log, Level level, String pageId) {
+    if (!log.isLoggable(level)) {
+      return false;
+    }
+    int sample = pageSample;
+    return sample <= 1 || pageId == null
+        || (pageId.hashCode() & 0x7fffffff) % sample == 0;
+  }
+
+  /**
+   * @return one in how many pages gets per-page log messages
+   */
+  public static int getPageSample() {
+    return pageSample;
+  }
+
+  // ConsoleHandler flushes every record; keep its level and format but let
+  // the async handler flush per batch instead
+  private static Handler buffered(Handler handler) {
+    if (!(handler instanceof ConsoleHandler)) {
+      return handler;
+    }
+    StreamHandler stream = new StreamHandler(System.err,
+        handler.getFormatter());
+    stream.setLevel(handler.getLevel());
+    stream.setFilter(handler.getFilter());
+    handler.close();
+    return stream;
+  }
+
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs a summary of the {@link ExtractionMetrics} every
+ * <code>intervalSeconds</code>, and once more when closed, optionally
+ * appending the same figures to a CSV file with the columns
+ * <code>time,metric,count,mean,p50,p90,p99,max,unit</code> (time in epoch
+ * milliseconds; counters fill in only <code>count</code>). The metrics are
+ * cumulative, so each dump shows the run so far.
+ */
+public class MetricsReporter implements Closeable {
+
+  private static Logger LOG = Logger.getLogger(MetricsReporter.class.getName());
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String HEADER = "time,metric,count,mean,p50,p90,p99,max,unit\n";
+
+  private final ExtractionMetrics metrics;
+
+  private final ScheduledExecutorService timer;
+
+  private Writer csv;
+
+  /**
+   * Starts reporting.
+   *
+   * @param metrics
+   *          The metrics to report.
+   * @param intervalSeconds
+   *          Seconds between reports, 0 to report only on close.
+   * @param csvFile
+   *          CSV file to append the reports to, or null for none.
+   * @throws IOException
+   *           If the CSV file cannot be opened.
+   */
+  public MetricsReporter(ExtractionMetrics metrics, long intervalSeconds,
+      File csvFile) throws IOException {
+    this.metrics = metrics;
+    if (csvFile != null) {
+      boolean fresh = !csvFile.exists() || csvFile.length() == 0;
+      this.csv = new BufferedWriter(new OutputStreamWriter(
+          new FileOutputStream(csvFile, true), UTF_8));
+      if (fresh) {
+        this.csv.write(HEADER);
+      }
+    }
+    if (intervalSeconds > 0) {
+      this.timer = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "metrics-reporter");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      this.timer.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            report();
+          } catch (IOException e) {
+            LOG.log(Level.WARNING, "Unable to write metrics: " + e.getMessage(),
+                e);
+          }
+        }
+      }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    } else {
+      this.timer = null;
+    }
+  }
+
+  /**
+   * Logs, and writes to the CSV file if any, the metrics as they stand.
+   *
+   * @throws IOException
+   *           If the CSV file cannot be written.
+   */
+  public synchronized void report() throws IOException {
+    LOG.info("Metrics: " + this.metrics.summary());
+    if (this.csv == null) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    for (Map.Entry<String, Long> counter : this.metrics.getCounters()
+        .entrySet()) {
+      this.csv.write(now + "," + counter.getKey() + "," + counter.getValue()
+          + ",,,,,,\n");
+    }
+    for (Histogram histogram : this.metrics.getHistograms()) {
+      this.csv.write(String.format(Locale.ROOT,
+          "%d,\"%s\",%d,%.3f,%.3f,%.3f,%.3f,%.3f,%s\n", now,
+          histogram.getName().replace("\"", "\"\""), histogram.getCount(),
+          histogram.getMean(), histogram.getP50(), histogram.getP90(),
+          histogram.getP99(), histogram.getMax(), histogram.getUnit()));
+    }
+    this.csv.flush();
+  }
+
+  /**
+   * Stops the periodic reports and makes a final one.
+   *
+   * @throws IOException
+   *           If the CSV file cannot be written.
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.timer != null) {
+      this.timer.shutdownNow();
+    }
+    synchronized (this) {
+      try {
+        report();
+      } finally {
+        if (this.csv != null) {
+          this.csv.close();
+          this.csv = null;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import net.sourceforge.htmlunit.cyberneko.filters.DefaultFilter;
+import net.sourceforge.htmlunit.cyberneko.parsers.DOMParser;
+
+import org.apache.xerces.xni.Augmentations;
+import org.apache.xerces.xni.QName;
+import org.apache.xerces.xni.XMLAttributes;
+import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.parser.XMLDocumentFilter;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Lightweight {@link ExtractionEngine} that builds a plain Xerces DOM with the
+ * NekoHTML parser HtmlUnit itself uses, skipping the browser emulation
+ * (windows, page loading, CSS and script machinery) entirely. Local files are
+ * read through a {@link LocalPageReader} and decoded in the charset found by
+ * {@link CharsetSniffer}. The {@link PageLimits} element and time limits are
+ * enforced while parsing, by a filter that ends the parse once either is
+ * reached, so the DOM never grows past them.
+ */
+public class NekoDomEngine implements ExtractionEngine {
+
+  private final DOMParser parser;
+
+  private final LocalPageReader reader = new LocalPageReader();
+
+  private PageLimits limits = PageLimits.NONE;
+
+  private final LimitFilter limitFilter = new LimitFilter();
+
+  public NekoDomEngine() {
+    this.parser = new DOMParser();
+    try {
+      // namespace-less, lower case element names, as HtmlUnit exposes them
+      // to XPath
+      this.parser.setFeature("http://xml.org/sax/features/namespaces", false);
+      this.parser.setFeature(
+          "http://apache.org/xml/features/dom/defer-node-expansion", false);
+      this.parser.setProperty(
+          "http://cyberneko.org/html/properties/names/elems", "lower");
+      this.parser.setProperty(
+          "http://apache.org/xml/properties/dom/document-class-name",
+          "org.apache.xerces.dom.CoreDocumentImpl");
+      this.parser.setProperty("http://cyberneko.org/html/properties/filters",
+          new XMLDocumentFilter[] { this.limitFilter });
+      // the charset is sniffed up front, see parse(ByteBuffer, String, Charset)
+      this.parser.setFeature(
+          "http://cyberneko.org/html/features/scanner/ignore-specified-charset",
+          true);
+    } catch (SAXException e) {
+      throw new IllegalStateException("Unable to configure NekoHTML parser", e);
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#parse(java.io.File)
+   */
+  @Override
+  public Node parse(File page) throws IOException {
+    return parse(read(page), page.toURI().toString(), null);
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#parse(byte[], java.lang.String)
+   */
+  @Override
+  public Node parse(byte[] content, String uri) throws IOException {
+    return parse(ByteBuffer.wrap(content), uri, null);
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#read(java.io.File)
+   */
+  @Override
+  public ByteBuffer read(File page) throws IOException {
+    return this.reader.read(page);
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#parse(java.nio.ByteBuffer, java.lang.String, java.nio.charset.Charset)
+   */
+  @Override
+  public Node parse(ByteBuffer content, String uri, Charset hint)
+      throws IOException {
+    Charset charset = CharsetSniffer.detect(content, hint);
+    ByteBuffer body = content.duplicate();
+    body.position(body.position() + CharsetSniffer.bomLength(content));
+    if (this.limits.exceedsBytes(body.remaining())) {
+      // the parser sees the prefix as a page that just ends early
+      body.limit(body.position() + (int) this.limits.getMaxBytes());
+    }
+    InputSource source = new InputSource(new ByteBufferInputStream(body));
+    source.setSystemId(uri);
+    source.setEncoding(charset.name());
+    this.limitFilter.start(this.limits.getMaxNodes(),
+        this.limits.deadline(System.nanoTime()));
+    try {
+      parser.parse(source);
+      return parser.getDocument();
+    } catch (SAXException e) {
+      if (this.limitFilter.reached != null) {
+        // the document so far, closed where the parse stopped
+        return parser.getDocument();
+      }
+      throw new IOException("Unable to parse: [" + source.getSystemId()
+          + "]: " + e.getMessage(), e);
+    } finally {
+      parser.reset();
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#getText(org.w3c.dom.Node)
+   */
+  @Override
+  public String getText(Node node) {
+    String text = node.getTextContent();
+    if (text == null) {
+      return "";
+    }
+    StringBuilder normalized = new StringBuilder(text.length());
+    boolean space = false;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if (Character.isWhitespace(c) || c == '\u00a0') {
+        space = normalized.length() > 0;
+      } else {
+        if (space) {
+          normalized.append(' ');
+          space = false;
+        }
+        normalized.append(c);
+      }
+    }
+    return normalized.toString();
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#setLimits(edu.usc.ir.PageLimits)
+   */
+  @Override
+  public void setLimits(PageLimits limits) {
+    this.limits = limits;
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#getLimitReached()
+   */
+  @Override
+  public PageLimits.Limit getLimitReached() {
+    return this.limitFilter.reached;
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.ExtractionEngine#close()
+   */
+  @Override
+  public void close() {
+    // nothing to release
+  }
+
+  /**
+   * Counts elements as the parser reports them and ends the parse, by
+   * throwing, at the element limit or once the time budget is spent.
+   */
+  private static class LimitFilter extends DefaultFilter {
+
+    private int maxElements;
+
+    private long deadline;
+
+    private int elements;
+
+    PageLimits.Limit reached;
+
+    void start(int maxElements, long deadline) {
+      this.maxElements = maxElements;
+      this.deadline = deadline;
+      this.elements = 0;
+      this.reached = null;
+    }
+
+    @Override
+    public void startElement(QName element, XMLAttributes attributes,
+        Augmentations augs) throws XNIException {
+      count();
+      super.startElement(element, attributes, augs);
+    }
+
+    @Override
+    public void emptyElement(QName element, XMLAttributes attributes,
+        Augmentations augs) throws XNIException {
+      count();
+      super.emptyElement(element, attributes, augs);
+    }
+
+    private void count() {
+      if (this.maxElements > 0 && ++this.elements > this.maxElements) {
+        this.reached = PageLimits.Limit.NODES;
+      } else if (System.nanoTime() > this.deadline) {
+        this.reached = PageLimits.Limit.TIME;
+      } else {
+        return;
+      }
+      throw new XNIException("Page limit reached: [" + this.reached + "]");
+    }
+  }
+
+}
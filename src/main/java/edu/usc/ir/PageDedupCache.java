@@ -0,0 +1,709 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Remembers what was extracted from each page's content, so byte-identical
+ * pages met again (mirrors, pagination duplicates, a profile fetched twice)
+ * reuse the earlier result instead of being parsed and extracted again.
+ * <p>
+ * Pages are keyed on the SHA-1 of their bytes. Optionally, near duplicates
+ * count too: pages whose 64-bit simhash over word shingles is within
+ * <code>nearBits</code> bits of a cached page's, and whose link targets and
+ * title (what the host patterns select on) are the same. That catches pages
+ * differing only in e.g. a timestamp or some text. Simhash alone cannot tell
+ * apart pages built from one template that differ in little more than the
+ * usernames, hence the second check; near duplicates are still off unless
+ * asked for.
+ * <p>
+ * At most <code>maxEntries</code> results are held in memory; the least
+ * recently used is then spilled to an append-only file, from which it is
+ * read back, and moved back into memory, if its page comes up again. At most
+ * {@link #SPILLED_PER_ENTRY} times as many are spilled; past that the least
+ * recently used spilled page is forgotten, and the file is compacted once
+ * most of it is forgotten records. Results are only reused for pages
+ * extracted with the same version of the patterns, so a
+ * {@link PatternWatcher} reload is not hidden by the cache, and results a
+ * {@link PageLimits} limit cut short are never cached. The spill file
+ * is deleted on {@link #close()}, which also logs how much extraction was
+ * skipped. Thread-safe.
+ */
+public class PageDedupCache implements Closeable {
+
+  /** Most bits simhashes may differ in for pages to count as duplicates. */
+  public static final int MAX_NEAR_BITS = 3;
+
+  /** Most results spilled, per result held in memory. */
+  public static final int SPILLED_PER_ENTRY = 8;
+
+  private static Logger LOG = Logger
+      .getLogger(PageDedupCache.class.getName());
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int SHINGLE = 3;
+
+  // any MAX_NEAR_BITS + 1 bands: two hashes within MAX_NEAR_BITS bits of each
+  // other agree on at least one whole band
+  private static final int BANDS = 4;
+
+  private static final int BAND_BITS = 64 / BANDS;
+
+  /**
+   * A page's content hashes.
+   */
+  public static final class Fingerprint {
+
+    private final String sha1;
+
+    private final long simhash;
+
+    private final long links;
+
+    Fingerprint(String sha1, long simhash, long links) {
+      this.sha1 = sha1;
+      this.simhash = simhash;
+      this.links = links;
+    }
+
+    /**
+     * @return the SHA-1 of the page bytes, in hex
+     */
+    public String getSha1() {
+      return sha1;
+    }
+
+    /**
+     * @return the simhash of the page's word shingles, or 0 if near
+     *         duplicates are not being looked for
+     */
+    public long getSimhash() {
+      return simhash;
+    }
+
+    /**
+     * @return a hash of the page's link targets and title, in order, or 0 if
+     *         near duplicates are not being looked for
+     */
+    public long getLinks() {
+      return links;
+    }
+
+  }
+
+  // what was extracted from a page, less its page id
+  private static final class Result {
+
+    final String patternVersion;
+
+    final String hostPatternKey;
+
+    final String[] usernames;
+
+    Result(String patternVersion, String hostPatternKey, String[] usernames) {
+      this.patternVersion = patternVersion;
+      this.hostPatternKey = hostPatternKey;
+      this.usernames = usernames;
+    }
+
+  }
+
+  private final int maxEntries;
+
+  private final int nearBits;
+
+  private final Map<String, Result> entries;
+
+  // sha1 to offset and length of its record in the spill file, least
+  // recently used first
+  private final LinkedHashMap<String, long[]> spilled;
+
+  // sha1 to simhash and links hash, and band to the sha1s with that band,
+  // for every page cached in memory or spilled
+  private final Map<String, long[]> nearHashes = new HashMap<String, long[]>();
+
+  private final Map<Long, List<String>> bands = new HashMap<Long, List<String>>();
+
+  private File spillFile;
+
+  private RandomAccessFile spill = null;
+
+  // bytes of the spill file in records still in spilled
+  private long spilledBytes = 0;
+
+  private long lookups = 0;
+
+  private long exactHits = 0;
+
+  private long nearHits = 0;
+
+  private long spillReads = 0;
+
+  private long forgotten = 0;
+
+  private long stored = 0;
+
+  private long skippedTruncated = 0;
+
+  private long extractNanos = 0;
+
+  /**
+   * @param maxEntries
+   *          Most results to hold in memory.
+   * @param nearBits
+   *          Most bits simhashes may differ in for near duplicates, up to
+   *          {@link #MAX_NEAR_BITS}; negative to match identical bytes only.
+   * @param spillDir
+   *          Directory for the spill file, or null for the default temporary
+   *          directory.
+   * @throws IOException
+   *           If the spill file cannot be created.
+   */
+  public PageDedupCache(int maxEntries, int nearBits, File spillDir)
+      throws IOException {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException(
+          "maxEntries: [" + maxEntries + "]: must be at least 1");
+    }
+    if (nearBits > MAX_NEAR_BITS) {
+      throw new IllegalArgumentException("nearBits: [" + nearBits
+          + "]: must be at most " + MAX_NEAR_BITS);
+    }
+    this.maxEntries = maxEntries;
+    this.nearBits = nearBits;
+    // access order: the eldest entry is the least recently used
+    this.entries = new LinkedHashMap<String, Result>(16, 0.75f, true);
+    this.spilled = new LinkedHashMap<String, long[]>(16, 0.75f, true);
+    this.spillFile = File.createTempFile("persona-dedup", ".tsv", spillDir);
+    this.spillFile.deleteOnExit();
+  }
+
+  /**
+   * Hashes a page. Does not touch the cache, so needs no lock.
+   *
+   * @param content
+   *          The raw page bytes, from the buffer's position to its limit,
+   *          e.g. a mapped file; the buffer is left as it was.
+   * @return the page's fingerprint
+   */
+  public Fingerprint fingerprint(ByteBuffer content) {
+    if (this.nearBits < 0) {
+      return new Fingerprint(ContentHash.sha1(content), 0, 0);
+    }
+    return new Fingerprint(ContentHash.sha1(content), simhash(content),
+        links(content));
+  }
+
+  /**
+   * @param fingerprint
+   *          The page's fingerprint.
+   * @param pageId
+   *          The page's id, given to the persona returned.
+   * @param patternVersion
+   *          The version of the patterns the page would be extracted with;
+   *          results from other versions are not reused.
+   * @return a new persona with what was extracted from a duplicate page, or
+   *         null if no duplicate has been seen
+   * @throws IOException
+   *           If a spilled result cannot be read back.
+   */
+  public synchronized Persona get(Fingerprint fingerprint, String pageId,
+      String patternVersion) throws IOException {
+    this.lookups++;
+    Result result = current(find(fingerprint.sha1), patternVersion);
+    if (result != null) {
+      this.exactHits++;
+    } else if (this.nearBits >= 0) {
+      String near = findNear(fingerprint);
+      if (near != null) {
+        result = current(find(near), patternVersion);
+        if (result != null) {
+          this.nearHits++;
+        }
+      }
+    }
+    if (result == null) {
+      return null;
+    }
+    Persona persona = new Persona();
+    persona.setPageId(pageId);
+    persona.setPatternVersion(result.patternVersion);
+    persona.setHostPatternKey(result.hostPatternKey);
+    persona.getUsernames().addAll(Arrays.asList(result.usernames));
+    return persona;
+  }
+
+  /**
+   * Caches what was extracted from a page that {@link #get} found no
+   * duplicate for, unless a {@link PageLimits} limit cut it short: what a
+   * limit leaves out depends on the page (and, for the time limit, on the
+   * load), so it is not reused for duplicates.
+   *
+   * @param fingerprint
+   *          The page's fingerprint.
+   * @param persona
+   *          What was extracted from it.
+   * @param extractNanos
+   *          How long extracting took, to estimate the time hits save.
+   * @throws IOException
+   *           If an evicted result cannot be spilled.
+   */
+  public synchronized void put(Fingerprint fingerprint, Persona persona,
+      long extractNanos) throws IOException {
+    if (persona.isTruncated()) {
+      this.skippedTruncated++;
+      return;
+    }
+    this.stored++;
+    this.extractNanos += extractNanos;
+    String sha1 = fingerprint.sha1;
+    // replaces a result from older patterns, or one another thread just
+    // stored for the same page
+    boolean known = this.entries.containsKey(sha1)
+        || unspill(sha1) != null;
+    List<String> usernames = persona.getUsernames();
+    this.entries.put(sha1, new Result(persona.getPatternVersion(),
+        persona.getHostPatternKey(),
+        usernames.toArray(new String[usernames.size()])));
+    if (this.nearBits >= 0 && !known) {
+      this.nearHashes.put(sha1,
+          new long[] { fingerprint.simhash, fingerprint.links });
+      for (int band = 0; band < BANDS; band++) {
+        Long key = bandKey(band, fingerprint.simhash);
+        List<String> keys = this.bands.get(key);
+        if (keys == null) {
+          keys = new ArrayList<String>(1);
+          this.bands.put(key, keys);
+        }
+        keys.add(sha1);
+      }
+    }
+    evict();
+  }
+
+  /**
+   * Logs how many pages were duplicates and the extraction time they saved,
+   * and deletes the spill file.
+   *
+   * @throws IOException
+   *           If the spill file cannot be closed.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    LOG.info(getReport());
+    try {
+      if (this.spill != null) {
+        this.spill.close();
+        this.spill = null;
+      }
+    } finally {
+      this.spillFile.delete();
+    }
+  }
+
+  /**
+   * @return a one line summary of the duplicates found and the work saved
+   */
+  public synchronized String getReport() {
+    long hits = this.exactHits + this.nearHits;
+    double meanMs = this.stored > 0 ? this.extractNanos / 1e6 / this.stored
+        : 0;
+    return "Dedup: pages: [" + this.lookups + "]: exact duplicates: ["
+        + this.exactHits + "]: near duplicates: [" + this.nearHits
+        + "]: extractions skipped: ["
+        + String.format("%.1f", this.lookups > 0 ? hits * 100.0 / this.lookups
+            : 0)
+        + "%]: extraction time saved: ~[" + String.format("%.1f",
+            hits * meanMs / 1000)
+        + "] secs: cached: [" + this.entries.size() + "] in memory, ["
+        + this.spilled.size() + "] spilled (read back [" + this.spillReads
+        + "], forgotten [" + this.forgotten + "]): not cached, truncated: ["
+        + this.skippedTruncated + "]";
+  }
+
+  /**
+   * @return the number of pages looked up
+   */
+  public synchronized long getLookups() {
+    return lookups;
+  }
+
+  /**
+   * @return the number of extraction results not cached because a limit
+   *         cut them short
+   */
+  public synchronized long getSkippedTruncated() {
+    return skippedTruncated;
+  }
+
+  /**
+   * @return the number of pages with byte-identical duplicates cached
+   */
+  public synchronized long getExactHits() {
+    return exactHits;
+  }
+
+  /**
+   * @return the number of pages with near duplicates cached
+   */
+  public synchronized long getNearHits() {
+    return nearHits;
+  }
+
+  /**
+   * @param content
+   *          The raw page bytes, from the buffer's position to its limit.
+   * @return the simhash of <code>content</code>'s shingles of
+   *         {@link #SHINGLE} words, where a word is a run of ASCII letters
+   *         and digits (case folded) or non-ASCII bytes
+   */
+  static long simhash(ByteBuffer content) {
+    int[] weights = new int[64];
+    long[] window = new long[SHINGLE];
+    int words = 0;
+    long word = 0xcbf29ce484222325L;
+    boolean inWord = false;
+    for (int i = content.position(); i <= content.limit(); i++) {
+      int b = i < content.limit() ? content.get(i) & 0xff : ' ';
+      if (b >= 'A' && b <= 'Z') {
+        b += 'a' - 'A';
+      }
+      if ((b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b >= 0x80) {
+        // FNV-1a over the word's bytes
+        word = (word ^ b) * 0x100000001b3L;
+        inWord = true;
+        continue;
+      }
+      if (!inWord) {
+        continue;
+      }
+      window[words++ % SHINGLE] = word;
+      word = 0xcbf29ce484222325L;
+      inWord = false;
+      if (words >= SHINGLE) {
+        long shingle = 0;
+        for (int j = words - SHINGLE; j < words; j++) {
+          shingle = shingle * 31 + window[j % SHINGLE];
+        }
+        shingle = mix(shingle);
+        for (int bit = 0; bit < 64; bit++) {
+          weights[bit] += ((shingle >>> bit) & 1) != 0 ? 1 : -1;
+        }
+      }
+    }
+    long hash = 0;
+    for (int bit = 0; bit < 64; bit++) {
+      if (weights[bit] > 0) {
+        hash |= 1L << bit;
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * @param content
+   *          The raw page bytes, from the buffer's position to its limit.
+   * @return an FNV-1a hash of the values of every <code>href</code>
+   *         attribute and the text of the <code>title</code>, in order
+   */
+  static long links(ByteBuffer content) {
+    long hash = 0xcbf29ce484222325L;
+    int length = content.limit();
+    for (int i = content.position(); i < length; i++) {
+      int end;
+      if (matches(content, i, "href=")) {
+        i += 5;
+        int quote = i < length ? content.get(i) : 0;
+        if (quote == '"' || quote == '\'') {
+          i++;
+        } else {
+          quote = -1;
+        }
+        for (end = i; end < length; end++) {
+          int b = content.get(end);
+          if (quote > 0 ? b == quote
+              : b == ' ' || b == '>' || b == '\t' || b == '\n') {
+            break;
+          }
+        }
+      } else if (matches(content, i, "<title")) {
+        i += 6;
+        for (end = i; end < length
+            && !matches(content, end, "</title"); end++) {
+          // to the end of the title
+        }
+      } else {
+        continue;
+      }
+      for (int j = i; j < end; j++) {
+        hash = (hash ^ (content.get(j) & 0xff)) * 0x100000001b3L;
+      }
+      // separate the values, so moving bytes between them changes the hash
+      hash = (hash ^ 0x100) * 0x100000001b3L;
+      i = end;
+    }
+    return hash;
+  }
+
+  // ASCII case insensitive
+  private static boolean matches(ByteBuffer content, int offset,
+      String token) {
+    if (offset + token.length() > content.limit()) {
+      return false;
+    }
+    for (int i = 0; i < token.length(); i++) {
+      int b = content.get(offset + i);
+      if (b >= 'A' && b <= 'Z') {
+        b += 'a' - 'A';
+      }
+      if (b != token.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // the MurmurHash3 64-bit finalizer, so every bit depends on every word
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static Long bandKey(int band, long simhash) {
+    long bits = (simhash >>> (band * BAND_BITS)) & ((1L << BAND_BITS) - 1);
+    return Long.valueOf(((long) band << BAND_BITS) | bits);
+  }
+
+  // a spilled result found is moved back into memory
+  private Result find(String sha1) throws IOException {
+    Result result = this.entries.get(sha1);
+    if (result != null) {
+      return result;
+    }
+    long[] record = this.spilled.get(sha1);
+    if (record == null) {
+      return null;
+    }
+    this.spillReads++;
+    result = readSpilled(record);
+    unspill(sha1);
+    this.entries.put(sha1, result);
+    evict();
+    return result;
+  }
+
+  // spills the least recently used results past maxEntries, and forgets the
+  // least recently used spilled ones past maxEntries * SPILLED_PER_ENTRY
+  private void evict() throws IOException {
+    if (this.entries.size() > this.maxEntries) {
+      Iterator<Map.Entry<String, Result>> eldest = this.entries.entrySet()
+          .iterator();
+      Map.Entry<String, Result> evicted = eldest.next();
+      eldest.remove();
+      spill(evicted.getKey(), evicted.getValue());
+    }
+    long maxSpilled = (long) this.maxEntries * SPILLED_PER_ENTRY;
+    while (this.spilled.size() > maxSpilled) {
+      String sha1 = this.spilled.keySet().iterator().next();
+      unspill(sha1);
+      forgetNear(sha1);
+      this.forgotten++;
+    }
+    // records no longer in spilled are dead; once they are most of the file
+    // (and it is worth the rewrite), keep only the live ones
+    if (this.spill != null && this.spill.length() > (1 << 20)
+        && this.spill.length() > 2 * this.spilledBytes) {
+      compact();
+    }
+  }
+
+  private long[] unspill(String sha1) {
+    long[] record = this.spilled.remove(sha1);
+    if (record != null) {
+      this.spilledBytes -= record[1];
+    }
+    return record;
+  }
+
+  private void forgetNear(String sha1) {
+    long[] hashes = this.nearHashes.remove(sha1);
+    if (hashes == null) {
+      return;
+    }
+    for (int band = 0; band < BANDS; band++) {
+      Long key = bandKey(band, hashes[0]);
+      List<String> keys = this.bands.get(key);
+      if (keys != null && keys.remove(sha1) && keys.isEmpty()) {
+        this.bands.remove(key);
+      }
+    }
+  }
+
+  // rewrites the spill file with only the live records, in the same order
+  private void compact() throws IOException {
+    File compacted = File.createTempFile("persona-dedup", ".tsv",
+        this.spillFile.getParentFile());
+    compacted.deleteOnExit();
+    RandomAccessFile out = new RandomAccessFile(compacted, "rw");
+    try {
+      byte[] bytes = new byte[256];
+      long offset = 0;
+      for (long[] record : this.spilled.values()) {
+        if (bytes.length < record[1]) {
+          bytes = new byte[(int) record[1]];
+        }
+        this.spill.seek(record[0]);
+        this.spill.readFully(bytes, 0, (int) record[1]);
+        out.write(bytes, 0, (int) record[1]);
+        record[0] = offset;
+        offset += record[1];
+      }
+    } catch (IOException e) {
+      out.close();
+      compacted.delete();
+      throw e;
+    }
+    this.spill.close();
+    this.spillFile.delete();
+    this.spillFile = compacted;
+    this.spill = out;
+  }
+
+  private static Result current(Result result, String patternVersion) {
+    if (result == null || patternVersion == null
+        || patternVersion.equals(result.patternVersion)) {
+      return result;
+    }
+    return null;
+  }
+
+  private String findNear(Fingerprint fingerprint) {
+    for (int band = 0; band < BANDS; band++) {
+      List<String> keys = this.bands.get(bandKey(band, fingerprint.simhash));
+      if (keys == null) {
+        continue;
+      }
+      for (String sha1 : keys) {
+        long[] hashes = this.nearHashes.get(sha1);
+        if (hashes[1] == fingerprint.links && Long
+            .bitCount(hashes[0] ^ fingerprint.simhash) <= this.nearBits) {
+          return sha1;
+        }
+      }
+    }
+    return null;
+  }
+
+  // lines of sha1<tab>patternVersion<tab>hostPatternKey<tab>username...,
+  // with the fields escaped
+  private void spill(String sha1, Result result) throws IOException {
+    if (this.spill == null) {
+      this.spill = new RandomAccessFile(this.spillFile, "rw");
+    }
+    StringBuilder line = new StringBuilder(sha1);
+    line.append('\t');
+    escape(line, result.patternVersion);
+    line.append('\t');
+    escape(line, result.hostPatternKey);
+    for (String username : result.usernames) {
+      line.append('\t');
+      escape(line, username);
+    }
+    line.append('\n');
+    byte[] bytes = line.toString().getBytes(UTF_8);
+    long offset = this.spill.length();
+    this.spill.seek(offset);
+    this.spill.write(bytes);
+    this.spilled.put(sha1, new long[] { offset, bytes.length });
+    this.spilledBytes += bytes.length;
+  }
+
+  private Result readSpilled(long[] record) throws IOException {
+    byte[] bytes = new byte[(int) record[1]];
+    this.spill.seek(record[0]);
+    this.spill.readFully(bytes);
+    // less the newline
+    String[] fields = new String(bytes, 0, bytes.length - 1, UTF_8)
+        .split("\t", -1);
+    String[] usernames = new String[fields.length - 3];
+    for (int i = 0; i < usernames.length; i++) {
+      usernames[i] = unescape(fields[i + 3]);
+    }
+    return new Result(unescape(fields[1]), unescape(fields[2]), usernames);
+  }
+
+  private static void escape(StringBuilder out, String value) {
+    if (value == null) {
+      out.append("\\0");
+      return;
+    }
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\') {
+        out.append("\\\\");
+      } else if (c == '\t') {
+        out.append("\\t");
+      } else if (c == '\n') {
+        out.append("\\n");
+      } else {
+        out.append(c);
+      }
+    }
+  }
+
+  private static String unescape(String value) {
+    if (value.equals("\\0")) {
+      return null;
+    }
+    if (value.indexOf('\\') < 0) {
+      return value;
+    }
+    StringBuilder out = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\\' && i + 1 < value.length()) {
+        char next = value.charAt(++i);
+        out.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+      } else {
+        out.append(c);
+      }
+    }
+    return out.toString();
+  }
+
+}
@@ -0,0 +1,357 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Fetches pages over HTTP with a bounded number of requests in flight, a
+ * per-host politeness limit on request starts, and retries with exponential
+ * backoff for transient failures (I/O errors, 429 and 5xx responses). Uses
+ * one pooled, thread-safe HTTP client.
+ */
+public class PageFetcher implements Closeable {
+
+  /**
+   * Receives each successfully fetched page, on a fetcher thread, as the
+   * still open response body with its Content-Type (null if it had none). An
+   * {@link IOException} reading the body (e.g. the connection dropping
+   * mid-body) is treated like any other transient failure and the page is
+   * fetched again, so handlers must be safe to call more than once for a
+   * page. Any other exception from the handler (e.g. a failed write) fails
+   * the page without fetching it again.
+   */
+  public interface PageHandler {
+
+    void pageFetched(String docId, String url, String contentType,
+        InputStream content) throws IOException;
+
+  }
+
+  private static Logger LOG = Logger.getLogger(PageFetcher.class.getName());
+
+  private final CloseableHttpClient client;
+
+  private final int concurrency;
+
+  private final double requestsPerSecond;
+
+  private final int maxRetries;
+
+  private final long retryDelayMillis;
+
+  private final ConcurrentMap<String, RateLimiter> limiters = new ConcurrentHashMap<String, RateLimiter>();
+
+  private final AtomicLong fetched = new AtomicLong();
+
+  private final AtomicLong failed = new AtomicLong();
+
+  private final AtomicLong retries = new AtomicLong();
+
+  /**
+   * @param concurrency
+   *          Maximum requests in flight.
+   * @param requestsPerSecond
+   *          Maximum request starts per second per host, zero for no limit.
+   * @param maxRetries
+   *          Retries after the first attempt for transient failures.
+   * @param retryDelayMillis
+   *          Delay before the first retry, doubled for each further one.
+   * @param username
+   *          HTTP basic auth username, or null.
+   * @param password
+   *          HTTP basic auth password, or null.
+   */
+  public PageFetcher(int concurrency, double requestsPerSecond,
+      int maxRetries, long retryDelayMillis, String username,
+      String password) {
+    this.concurrency = Math.max(1, concurrency);
+    this.requestsPerSecond = requestsPerSecond;
+    this.maxRetries = maxRetries;
+    this.retryDelayMillis = retryDelayMillis;
+
+    HttpClientBuilder builder = HttpClientBuilder.create()
+        .setMaxConnTotal(this.concurrency)
+        .setMaxConnPerRoute(this.concurrency)
+        // retries are ours, with backoff and counted
+        .disableAutomaticRetries()
+        .setDefaultRequestConfig(RequestConfig.custom()
+            .setConnectTimeout(30000).setSocketTimeout(60000).build());
+    if (username != null && password != null) {
+      BasicCredentialsProvider provider = new BasicCredentialsProvider();
+      provider.setCredentials(AuthScope.ANY,
+          new UsernamePasswordCredentials(username, password));
+      builder.setDefaultCredentialsProvider(provider);
+    }
+    this.client = builder.build();
+  }
+
+  /**
+   * Fetches <code>urlPrefix + docId</code> for every doc id, up to
+   * {@link #concurrency} at a time, and returns once all have completed.
+   * Pages that still fail after all retries are logged and skipped.
+   *
+   * @param docIds
+   *          The doc ids to fetch, consumed lazily.
+   * @param urlPrefix
+   *          Prefix each doc id is appended to, to build its URL.
+   * @param handler
+   *          Receives each fetched page.
+   */
+  public void fetchAll(Iterator<String> docIds, final String urlPrefix,
+      final PageHandler handler) {
+    BoundedExecutor executor = new BoundedExecutor(this.concurrency,
+        this.concurrency, "fetcher");
+    try {
+      while (docIds.hasNext()) {
+        final String docId = docIds.next();
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            String url = urlPrefix + docId;
+            try {
+              if (fetch(docId, url, handler)) {
+                fetched.incrementAndGet();
+                return;
+              }
+            } catch (IOException e) {
+              LOG.warning("Unable to fetch: [" + url + "]: " + e.getMessage());
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+              LOG.log(Level.WARNING, "Unable to fetch: [" + url + "]: " + e, e);
+            }
+            failed.incrementAndGet();
+          }
+        });
+      }
+    } finally {
+      executor.shutdownAndWait();
+    }
+  }
+
+  /**
+   * Fetches <code>url</code> and streams its body to <code>handler</code>,
+   * retrying transient failures. The body is never buffered in full.
+   *
+   * @param docId
+   *          The doc id passed on to the handler.
+   * @param url
+   *          The page URL.
+   * @param handler
+   *          Receives the response body.
+   * @return true if the handler received the page, false if the server
+   *         answered with a permanent (non 2xx, non retryable) status.
+   * @throws IOException
+   *           If the last attempt failed with an I/O error or a retryable
+   *           status, or at once if the handler failed other than reading
+   *           the body.
+   * @throws InterruptedException
+   *           If interrupted while rate limited or backing off.
+   */
+  public boolean fetch(String docId, String url, PageHandler handler)
+      throws IOException, InterruptedException {
+    RateLimiter limiter = limiter(url);
+    for (int attempt = 0;; attempt++) {
+      limiter.acquire();
+      IOException failure;
+      CloseableHttpResponse response = null;
+      ResponseBody content = null;
+      try {
+        response = this.client.execute(new HttpGet(url));
+        int status = response.getStatusLine().getStatusCode();
+        HttpEntity entity = response.getEntity();
+        if (status >= 200 && status < 300) {
+          content = new ResponseBody(entity != null ? entity.getContent()
+              : new ByteArrayInputStream(new byte[0]));
+          try {
+            Header contentType = entity != null ? entity.getContentType()
+                : null;
+            handler.pageFetched(docId, url,
+                contentType != null ? contentType.getValue() : null, content);
+          } finally {
+            content.close();
+          }
+          return true;
+        }
+        EntityUtils.consumeQuietly(entity);
+        if (status != 429 && status < 500) {
+          LOG.warning("Fetch: [" + url + "]: status: [" + status
+              + "]: skipping.");
+          return false;
+        }
+        failure = new IOException("HTTP status: [" + status + "]");
+      } catch (IOException e) {
+        if (content != null && !content.broken) {
+          // the handler's own failure, e.g. a full queue or a failed write:
+          // fetching the page again would not help
+          throw e;
+        }
+        failure = e;
+      } finally {
+        if (response != null) {
+          response.close();
+        }
+      }
+
+      if (attempt >= this.maxRetries) {
+        throw failure;
+      }
+      long backoff = this.retryDelayMillis << attempt;
+      LOG.fine("Fetch: [" + url + "]: " + failure.getMessage()
+          + ": retrying in [" + backoff + "] ms.");
+      this.retries.incrementAndGet();
+      Thread.sleep(backoff);
+    }
+  }
+
+  /**
+   * Releases the connection pool.
+   *
+   * @throws IOException
+   *           If the client fails to shut down.
+   */
+  @Override
+  public void close() throws IOException {
+    this.client.close();
+  }
+
+  /**
+   * @return the number of pages fetched and handled
+   */
+  public long getFetched() {
+    return fetched.get();
+  }
+
+  /**
+   * @return the number of pages that could not be fetched or handled
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  /**
+   * @return the number of retried requests
+   */
+  public long getRetries() {
+    return retries.get();
+  }
+
+  /**
+   * A response body that remembers whether reading it failed, to tell a
+   * broken connection from a failing handler.
+   */
+  private static class ResponseBody extends FilterInputStream {
+
+    boolean broken;
+
+    ResponseBody(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        return super.read();
+      } catch (IOException e) {
+        this.broken = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      try {
+        return super.read(bytes, offset, length);
+      } catch (IOException e) {
+        this.broken = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      try {
+        return super.skip(n);
+      } catch (IOException e) {
+        this.broken = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public int available() throws IOException {
+      try {
+        return super.available();
+      } catch (IOException e) {
+        this.broken = true;
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } catch (IOException e) {
+        this.broken = true;
+        throw e;
+      }
+    }
+  }
+
+  private RateLimiter limiter(String url) {
+    String host = URI.create(url).getHost();
+    if (host == null) {
+      host = "";
+    }
+    RateLimiter limiter = this.limiters.get(host);
+    if (limiter == null) {
+      RateLimiter created = new RateLimiter(this.requestsPerSecond);
+      limiter = this.limiters.putIfAbsent(host, created);
+      if (limiter == null) {
+        limiter = created;
+      }
+    }
+    return limiter;
+  }
+
+}
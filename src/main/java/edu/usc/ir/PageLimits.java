@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-page bounds on extraction, so that one oversized or pathological page
+ * cannot exhaust the heap or stall a worker. A page that reaches a limit is
+ * extracted as far as the limit allows and its personas are marked
+ * {@link Persona#isTruncated() truncated}, rather than the page (or the run)
+ * failing. A zero for any setting disables it.
+ */
+public class PageLimits {
+
+  /**
+   * The limits a page can reach.
+   */
+  public enum Limit {
+    /** Only the first {@link PageLimits#getMaxBytes()} bytes were parsed. */
+    BYTES,
+    /** Parsing stopped after {@link PageLimits#getMaxNodes()} elements. */
+    NODES,
+    /** A persona stopped at {@link PageLimits#getMaxUsernames()} usernames. */
+    USERNAMES,
+    /** Parsing or patterns stopped once the time budget ran out. */
+    TIME
+  }
+
+  /** No limits at all. */
+  public static final PageLimits NONE = new PageLimits(0, 0, 0, 0);
+
+  private final long maxBytes;
+
+  private final int maxNodes;
+
+  private final int maxUsernames;
+
+  private final long timeBudgetMillis;
+
+  /**
+   * @param maxBytes
+   *          Parse at most this many bytes of a page.
+   * @param maxNodes
+   *          Stop parsing a page after this many elements.
+   * @param maxUsernames
+   *          Extract at most this many usernames per host pattern.
+   * @param timeBudgetMillis
+   *          Stop parsing a page, or evaluating patterns against it, this
+   *          long after it started to parse.
+   */
+  public PageLimits(long maxBytes, int maxNodes, int maxUsernames,
+      long timeBudgetMillis) {
+    this.maxBytes = Math.max(0, maxBytes);
+    this.maxNodes = Math.max(0, maxNodes);
+    this.maxUsernames = Math.max(0, maxUsernames);
+    this.timeBudgetMillis = Math.max(0, timeBudgetMillis);
+  }
+
+  /**
+   * @param length
+   *          A page's size in bytes.
+   * @return True if only part of the page may be parsed.
+   */
+  public boolean exceedsBytes(long length) {
+    return this.maxBytes > 0 && length > this.maxBytes;
+  }
+
+  /**
+   * @param startNanos
+   *          When the page started to parse, from {@link System#nanoTime()}.
+   * @return the {@link System#nanoTime()} the page's time budget runs out
+   *         at, or {@link Long#MAX_VALUE} for none
+   */
+  public long deadline(long startNanos) {
+    return this.timeBudgetMillis > 0
+        ? startNanos + TimeUnit.MILLISECONDS.toNanos(this.timeBudgetMillis)
+        : Long.MAX_VALUE;
+  }
+
+  /**
+   * @return the maxBytes, 0 for no limit
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * @return the maxNodes, 0 for no limit
+   */
+  public int getMaxNodes() {
+    return maxNodes;
+  }
+
+  /**
+   * @return the maxUsernames, 0 for no limit
+   */
+  public int getMaxUsernames() {
+    return maxUsernames;
+  }
+
+  /**
+   * @return the timeBudgetMillis, 0 for no limit
+   */
+  public long getTimeBudgetMillis() {
+    return timeBudgetMillis;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "[maxBytes=" + maxBytes + ",maxNodes=" + maxNodes
+        + ",maxUsernames=" + maxUsernames + ",timeBudgetMillis="
+        + timeBudgetMillis + "]";
+  }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usc.ir;
+
+import java.io.File;
+import java.nio.charset.Charset;
+
+/**
+ * One page to extract from: either a local file, or the bytes of a record
+ * read out of an archive or off the wire, with the URI it came from and the
+ * charset it was served with, when known.
+ */
+public class PageRecord {
+
+  private final String uri;
+
+  private final File file;
+
+  private final byte[] content;
+
+  private final Charset charset;
+
+  /**
+   * @param file
+   *          A local HTML file; its URI is the page's URI.
+   */
+  public PageRecord(File file) {
+    this.uri = file.toURI().toString();
+    this.file = file;
+    this.content = null;
+    this.charset = null;
+  }
+
+  /**
+   * @param uri
+   *          The URI the page was recorded under, e.g. a WARC target URI.
+   * @param content
+   *          The raw page bytes.
+   */
+  public PageRecord(String uri, byte[] content) {
+    this(uri, content, null);
+  }
+
+  /**
+   * @param uri
+   *          The URI the page was recorded under, e.g. a WARC target URI.
+   * @param content
+   *          The raw page bytes.
+   * @param charset
+   *          The charset the page was served with, e.g. from its HTTP
+   *          Content-Type, or null to sniff it from the bytes.
+   */
+  public PageRecord(String uri, byte[] content, Charset charset) {
+    this.uri = uri;
+    this.file = null;
+    this.content = content;
+    this.charset = charset;
+  }
+
+  /**
+   * @return the page URI, used as the persona page id
+   */
+  public String getUri() {
+    return uri;
+  }
+
+  /**
+   * @return the local file, or null for an in-memory record
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * @return the raw page bytes, or null for a file record
+   */
+  public byte[] getContent() {
+    return content;
+  }
+
+  /**
+   * @return the charset the page was served with, or null if unknown
+   */
+  public Charset getCharset() {
+    return charset;
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return uri;
+  }
+
+}
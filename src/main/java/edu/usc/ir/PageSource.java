@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usc.ir;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * A stream of {@link PageRecord}s to extract from: a page directory, or the
+ * records of a zip, tar(.gz) or WARC(.gz) archive, read straight out of the
+ * container with no temporary files. Use
+ * {@link #open(File, List, List, long)} to pick the right source for a path.
+ * Archived pages are read into memory only up to the byte limit, the rest is
+ * skipped. A zip or tar entry's page id is the archive's <code>file:</code>
+ * URI, <code>!/</code> and the entry name (see
+ * {@link #entryUri(String, String)}), a WARC record's its target URI. Not
+ * thread-safe.
+ */
+public abstract class PageSource implements Closeable {
+
+  private final List<PathMatcher> includes;
+
+  private final List<PathMatcher> excludes;
+
+  private final long maxBytes;
+
+  /**
+   * @param includes
+   *          Globs an entry name must match one of, or null/empty for all.
+   * @param excludes
+   *          Globs for entry names to skip, or null.
+   * @param maxBytes
+   *          Bytes of each page that will be parsed, see
+   *          {@link PageLimits#getMaxBytes()}; 0 for whole pages.
+   */
+  protected PageSource(List<String> includes, List<String> excludes,
+      long maxBytes) {
+    this.includes = CorpusWalker.matchers(includes);
+    this.excludes = CorpusWalker.matchers(excludes);
+    this.maxBytes = Math.max(0, maxBytes);
+  }
+
+  /**
+   * Opens the source for <code>input</code>, chosen by type and extension:
+   * a directory (walked recursively), <code>.zip</code>, <code>.tar</code>,
+   * <code>.tar.gz</code>/<code>.tgz</code>, or <code>.warc</code>/
+   * <code>.warc.gz</code>.
+   *
+   * @param input
+   *          The directory or archive.
+   * @param includes
+   *          Globs for the files or entries to read, relative to the
+   *          directory or archive root, or null/empty for all. WARC records
+   *          are not filtered.
+   * @param excludes
+   *          Globs for files or entries to skip, or null.
+   * @param maxBytes
+   *          Bytes of each page that will be parsed, see
+   *          {@link PageLimits#getMaxBytes()}; 0 for whole pages.
+   * @return The page source.
+   * @throws IOException
+   *           If <code>input</code> cannot be opened or is of an unknown type.
+   */
+  public static PageSource open(File input, List<String> includes,
+      List<String> excludes, long maxBytes) throws IOException {
+    if (input.isDirectory()) {
+      return new DirectoryPageSource(input, includes, excludes);
+    }
+    String name = input.getName().toLowerCase();
+    if (name.endsWith(".zip")) {
+      return new ZipPageSource(input, includes, excludes, maxBytes);
+    } else if (name.endsWith(".tar")) {
+      return new TarPageSource(input, openStream(input, false), includes,
+          excludes, maxBytes);
+    } else if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+      return new TarPageSource(input, openStream(input, true), includes,
+          excludes, maxBytes);
+    } else if (name.endsWith(".warc")) {
+      return new WarcPageSource(openStream(input, false), maxBytes);
+    } else if (name.endsWith(".warc.gz")) {
+      return new WarcPageSource(openStream(input, true), maxBytes);
+    }
+    throw new IOException("Not a page directory or a known archive type: ["
+        + input.getAbsolutePath() + "]");
+  }
+
+  /**
+   * @return the next page, or null when there are no more
+   * @throws IOException
+   *           If the source cannot be read.
+   */
+  public abstract PageRecord next() throws IOException;
+
+  /**
+   * @param name
+   *          An entry name relative to the archive root.
+   * @return true if the include and exclude globs select the entry, as
+   *         {@link CorpusWalker} would the same path in a directory: an
+   *         excluded parent directory excludes the entry too
+   */
+  protected boolean accept(String name) {
+    Path path = Paths.get(name);
+    for (Path dir = path; dir != null; dir = dir.getParent()) {
+      if (CorpusWalker.excluded(this.excludes, dir)) {
+        return false;
+      }
+    }
+    return CorpusWalker.included(this.includes, path);
+  }
+
+  /**
+   * @param archiveUri
+   *          The <code>file:</code> URI of a zip or tar archive.
+   * @param name
+   *          An entry name relative to the archive root.
+   * @return the entry's page id, the same form for every archive type, e.g.
+   *         <code>file:/crawl/pages.zip!/com/slickguns/123</code>
+   */
+  protected static String entryUri(String archiveUri, String name) {
+    return archiveUri + "!/" + name;
+  }
+
+  /**
+   * Reads a page from <code>in</code>, up to one byte past the byte limit:
+   * enough for everything that will be parsed, and for the extractor to tell
+   * the page was cut off. The rest is left unread.
+   *
+   * @param in
+   *          The page bytes.
+   * @param length
+   *          The page length if known, else -1.
+   * @return the page bytes read
+   * @throws IOException
+   *           If <code>in</code> cannot be read.
+   */
+  protected byte[] readPage(InputStream in, long length) throws IOException {
+    long max = this.maxBytes > 0 ? this.maxBytes + 1 : Long.MAX_VALUE;
+    if (length >= 0 && length <= Integer.MAX_VALUE) {
+      // exactly sized, no growing buffer to copy out of
+      return IOUtils.toByteArray(in, (int) Math.min(length, max));
+    }
+    return IOUtils.toByteArray(max < Long.MAX_VALUE
+        ? new BoundedInputStream(in, max) : in);
+  }
+
+  private static InputStream openStream(File file, boolean gzipped)
+      throws IOException {
+    InputStream in = new BufferedInputStream(new FileInputStream(file),
+        64 * 1024);
+    try {
+      // multi member (per record) gzip files are read through to the end
+      return gzipped ? new GZIPInputStream(in, 64 * 1024) : in;
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+}
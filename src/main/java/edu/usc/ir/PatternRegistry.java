@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.xml.xpath.XPathExpressionException;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Host pattern key to compiled {@link HostPattern} registry loaded from a
+ * <code>patterns.properties</code> config file, along with the
+ * {@link UsernameNormalizer} for each pattern from its optional
+ * <code>KEY.filter</code> entry. Each config file is loaded
+ * and compiled once per JVM via {@link #getInstance(File)}; registries are
+ * immutable and can be shared between threads. A {@link PatternWatcher}
+ * loads a new registry when the file changes, each identified by the
+ * {@link #getVersion()} of the config it was compiled from.
+ */
+public final class PatternRegistry {
+
+  private static final Map<String, PatternRegistry> REGISTRIES = new HashMap<String, PatternRegistry>();
+
+  // suffix of the keys holding username filter rules rather than patterns
+  private static final String FILTER = ".filter";
+
+  // hex digits of the config's SHA-1 kept as its version
+  private static final int VERSION_LENGTH = 12;
+
+  private static Logger LOG = Logger
+      .getLogger(PatternRegistry.class.getName());
+
+  private final File configFile;
+
+  private final Map<String, HostPattern> patterns;
+
+  private final Map<String, UsernameNormalizer> normalizers;
+
+  private final String version;
+
+  private PatternRegistry(File configFile, Map<String, HostPattern> patterns,
+      Map<String, UsernameNormalizer> normalizers, String version) {
+    this.configFile = configFile;
+    this.patterns = Collections.unmodifiableMap(patterns);
+    this.normalizers = normalizers;
+    this.version = version;
+  }
+
+  /**
+   * Returns the registry for <code>configFile</code>, loading and compiling
+   * it on first use.
+   *
+   * @param configFile
+   *          The pattern config file.
+   * @return The shared registry for that file.
+   * @throws IOException
+   *           If the config file cannot be read.
+   */
+  public static synchronized PatternRegistry getInstance(File configFile)
+      throws IOException {
+    String key = configFile.getCanonicalPath();
+    PatternRegistry registry = REGISTRIES.get(key);
+    if (registry == null) {
+      registry = load(configFile);
+      REGISTRIES.put(key, registry);
+    }
+    return registry;
+  }
+
+  /**
+   * Makes <code>registry</code> the one {@link #getInstance(File)} returns
+   * for its config file from now on.
+   *
+   * @param registry
+   *          A registry just reloaded.
+   * @throws IOException
+   *           If the config file's path cannot be resolved.
+   */
+  static synchronized void update(PatternRegistry registry)
+      throws IOException {
+    REGISTRIES.put(registry.configFile.getCanonicalPath(), registry);
+  }
+
+  /**
+   * Loads and compiles <code>configFile</code>, without caching it.
+   *
+   * @param configFile
+   *          The pattern config file.
+   * @return A new registry.
+   * @throws IOException
+   *           If the config file cannot be read.
+   */
+  static PatternRegistry load(File configFile) throws IOException {
+    byte[] config = FileUtils.readFileToByteArray(configFile);
+    Properties props = new Properties();
+    InputStream in = new ByteArrayInputStream(config);
+    try {
+      props.load(in);
+    } finally {
+      in.close();
+    }
+
+    Map<String, HostPattern> patterns = new LinkedHashMap<String, HostPattern>();
+    Map<String, UsernameNormalizer> normalizers = new HashMap<String, UsernameNormalizer>();
+    for (String host : props.stringPropertyNames()) {
+      String expression = props.getProperty(host);
+      if (host.endsWith(FILTER)) {
+        String key = host.substring(0, host.length() - FILTER.length());
+        try {
+          normalizers.put(key, UsernameNormalizer.parse(expression));
+        } catch (IllegalArgumentException e) {
+          LOG.warning("Invalid filter: [" + expression + "] for host: [" + key
+              + "]: " + e.getMessage() + ": using the default filter.");
+        }
+        continue;
+      }
+      LOG.finest("Adding pattern: [" + expression + "] for host: [" + host
+          + "]");
+      try {
+        patterns.put(host, new HostPattern(host, expression));
+      } catch (XPathExpressionException e) {
+        LOG.warning("Invalid pattern: [" + expression + "] for host: [" + host
+            + "]: " + e.getMessage() + ": no personas will be extracted.");
+        patterns.put(host, null);
+      }
+    }
+    String version = ContentHash.sha1(config).substring(0, VERSION_LENGTH);
+    LOG.info("Loaded [" + patterns.size() + "] patterns from: ["
+        + configFile.getAbsolutePath() + "]: version: [" + version + "]");
+    return new PatternRegistry(configFile, patterns, normalizers, version);
+  }
+
+  /**
+   * @return All configured host pattern keys, including ones whose selector
+   *         failed to compile.
+   */
+  public Set<String> getHostKeys() {
+    return patterns.keySet();
+  }
+
+  /**
+   * @param hostKey
+   *          The host pattern key.
+   * @return The compiled pattern, or null if the key is unknown or its
+   *         selector is invalid.
+   */
+  public HostPattern getPattern(String hostKey) {
+    return patterns.get(hostKey);
+  }
+
+  /**
+   * @param hostKey
+   *          The host pattern key.
+   * @return The normalizer for usernames selected by its pattern, the
+   *         {@link UsernameNormalizer#DEFAULT} one unless it has a filter.
+   */
+  public UsernameNormalizer getNormalizer(String hostKey) {
+    UsernameNormalizer normalizer = normalizers.get(hostKey);
+    return normalizer != null ? normalizer : UsernameNormalizer.DEFAULT;
+  }
+
+  /**
+   * @return The number of configured host patterns.
+   */
+  public int size() {
+    return patterns.size();
+  }
+
+  /**
+   * @return the configFile
+   */
+  public File getConfigFile() {
+    return configFile;
+  }
+
+  /**
+   * @return the start of the SHA-1 of the config file contents, the same
+   *         whenever the same patterns are loaded
+   */
+  public String getVersion() {
+    return version;
+  }
+
+}
@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches a pattern config file and reloads it when it changes, so a long
+ * run picks up new or fixed selectors without a restart.
+ * <p>
+ * The current {@link PatternRegistry} is an immutable snapshot swapped in
+ * atomically: {@link #get()} is a single volatile read, so extraction takes
+ * no lock, and a page extracted with one snapshot finishes with it while
+ * later pages get the new one. A config that cannot be read keeps the
+ * previous snapshot in place; one that compiles to the same
+ * {@link PatternRegistry#getVersion()} is ignored.
+ */
+public class PatternWatcher implements Closeable {
+
+  // lets an editor finish writing before the file is read
+  private static final long SETTLE_MILLIS = 250;
+
+  private static Logger LOG = Logger
+      .getLogger(PatternWatcher.class.getName());
+
+  private final File configFile;
+
+  private final AtomicReference<PatternRegistry> current;
+
+  private final WatchService watcher;
+
+  private final Thread thread;
+
+  private final AtomicLong reloads = new AtomicLong();
+
+  /**
+   * Loads <code>configFile</code> (or takes the already loaded registry for
+   * it) and starts watching it.
+   *
+   * @param configFile
+   *          The pattern config file.
+   * @throws IOException
+   *           If the file cannot be read or its directory watched.
+   */
+  public PatternWatcher(File configFile) throws IOException {
+    this.configFile = configFile.getCanonicalFile();
+    this.current = new AtomicReference<PatternRegistry>(
+        PatternRegistry.getInstance(this.configFile));
+    this.watcher = FileSystems.getDefault().newWatchService();
+    // only directories can be watched
+    this.configFile.getParentFile().toPath().register(this.watcher,
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+    this.thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        watch();
+      }
+    }, "pattern-watcher");
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * @return the patterns to extract the next page with
+   */
+  public PatternRegistry get() {
+    return this.current.get();
+  }
+
+  /**
+   * Reloads the config file now, as if it had changed.
+   *
+   * @return true if a new version was swapped in
+   */
+  public boolean reload() {
+    PatternRegistry loaded;
+    try {
+      loaded = PatternRegistry.load(this.configFile);
+    } catch (IOException e) {
+      LOG.warning("Unable to reload: [" + this.configFile + "]: "
+          + e.getMessage() + ": keeping version: [" + get().getVersion()
+          + "]");
+      return false;
+    }
+    PatternRegistry previous = this.current.get();
+    // the watch thread and a caller may reload at once: one swap wins
+    if (loaded.getVersion().equals(previous.getVersion())
+        || !this.current.compareAndSet(previous, loaded)) {
+      return false;
+    }
+    this.reloads.incrementAndGet();
+    try {
+      PatternRegistry.update(loaded);
+    } catch (IOException e) {
+      LOG.log(Level.FINE, "Unable to cache: [" + this.configFile + "]", e);
+    }
+    LOG.info("Patterns: [" + this.configFile + "]: version: ["
+        + previous.getVersion() + "] -> [" + loaded.getVersion()
+        + "]: patterns: [" + loaded.size() + "]");
+    return true;
+  }
+
+  /**
+   * @return the number of new versions swapped in
+   */
+  public long getReloads() {
+    return reloads.get();
+  }
+
+  /**
+   * Stops watching. {@link #get()} keeps returning the last snapshot.
+   *
+   * @throws IOException
+   *           If the watch service fails to close.
+   */
+  @Override
+  public void close() throws IOException {
+    this.watcher.close();
+    try {
+      this.thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void watch() {
+    Path name = this.configFile.toPath().getFileName();
+    try {
+      while (true) {
+        WatchKey key = this.watcher.take();
+        boolean changed = false;
+        // an editor's save can come as several events: collect them all
+        while (key != null) {
+          for (WatchEvent<?> event : key.pollEvents()) {
+            // on overflow events were lost, so the file may have changed
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                || name.equals(event.context())) {
+              changed = true;
+            }
+          }
+          key.reset();
+          key = this.watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        if (changed) {
+          reload();
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      // closed
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -17,11 +17,8 @@
 
 package edu.usc.ir;
 
-import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.collections.list.SetUniqueList;
-
 public class Persona {
 
   private List<String> usernames;
@@ -30,11 +27,14 @@ public class Persona {
   
   private String hostPatternKey;
 
-  @SuppressWarnings("unchecked")
+  private String patternVersion;
+
+  private boolean truncated;
+
   public Persona() {
     this.pageId = null;
     this.hostPatternKey = null;
-    this.usernames = (List<String>)SetUniqueList.decorate(new ArrayList<String>());
+    this.usernames = new UsernameList();
   }
 
   /**
@@ -79,6 +79,36 @@ public class Persona {
   public void setHostPatternKey(String hostPatternKey) {
     this.hostPatternKey = hostPatternKey;
   }
+
+  /**
+   * @return the version of the patterns the usernames were extracted with,
+   *         see {@link PatternRegistry#getVersion()}
+   */
+  public String getPatternVersion() {
+    return patternVersion;
+  }
+
+  /**
+   * @param patternVersion the patternVersion to set
+   */
+  public void setPatternVersion(String patternVersion) {
+    this.patternVersion = patternVersion;
+  }
+
+  /**
+   * @return true if a {@link PageLimits} limit stopped extraction early, so
+   *         the usernames may be incomplete
+   */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  /**
+   * @param truncated the truncated to set
+   */
+  public void setTruncated(boolean truncated) {
+    this.truncated = truncated;
+  }
   
 
   /* (non-Javadoc)
@@ -91,6 +121,11 @@ public class Persona {
     builder.append(this.pageId);
     builder.append(",hostPatternKey=");
     builder.append(this.hostPatternKey);
+    builder.append(",patternVersion=");
+    builder.append(this.patternVersion);
+    if (this.truncated) {
+      builder.append(",truncated=true");
+    }
     builder.append(",personas=");
     builder.append(this.usernames.toString());
     builder.append("]");
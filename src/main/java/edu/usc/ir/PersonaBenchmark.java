@@ -0,0 +1,627 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+import org.w3c.dom.Node;
+
+import com.gargoylesoftware.htmlunit.WebClient;
+import com.gargoylesoftware.htmlunit.html.HtmlPage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Simple wall clock benchmarks for persona extraction.
+ * <ul>
+ * <li>{@link Mode#PATTERNS} generates a synthetic forum page and pattern
+ * config for an increasing number of host patterns and reports the time per
+ * page for the per-pattern (re-parsing) path and the single-parse
+ * {@link PersonaExtractor#obtainPersonasForAllHosts()} path.</li>
+ * <li>{@link Mode#ENGINES} runs every {@link ExtractionEngine} over a corpus
+ * (synthetic, or <code>-d</code>) and reports throughput, allocation and
+ * retained DOM size, and whether the engines extracted the same personas.</li>
+ * <li>{@link Mode#FETCH} serves a synthetic page from an embedded HTTP stub
+ * with a fixed per-request latency (and optionally a 503 every
+ * <code>-fe</code> requests) and reports {@link PageFetcher} throughput for
+ * 1, 2, 4, ... <code>-mc</code> requests in flight.</li>
+ * <li>{@link Mode#READ} parses synthetic pages of 1KB up to <code>-ms</code>
+ * KB read through HtmlUnit's <code>file:</code> URL loading, a heap byte
+ * array and {@link LocalPageReader}'s NIO buffers, and reports the time and
+ * allocation per page and the allocation rate.</li>
+ * </ul>
+ */
+public class PersonaBenchmark {
+
+  /**
+   * The benchmark to run.
+   */
+  public enum Mode {
+    PATTERNS, ENGINES, FETCH, READ
+  }
+
+  /**
+   * How {@link Mode#READ} hands a local page to the engine.
+   */
+  private enum Input {
+    /** HtmlUnit loading the file: URL itself, as before NIO reads. */
+    URL,
+    /** The whole file read into a heap byte array. */
+    HEAP,
+    /** {@link ExtractionEngine#parse(File)}, a mapped or direct buffer. */
+    NIO
+  }
+
+  @Option(name = "-m", usage = "Benchmark: PATTERNS (default), ENGINES, FETCH or READ", aliases = {
+      "--mode" }, required = false)
+  private Mode mode = Mode.PATTERNS;
+
+  @Option(name = "-c", usage = "Config File with Xpath selectors, default the bundled patterns.properties", aliases = {
+      "--configFile" }, required = false)
+  private File configFile = null;
+
+  @Option(name = "-d", usage = "Directory of pages to benchmark, default a synthetic corpus", aliases = {
+      "--webPageDir" }, required = false)
+  private File pageDir = null;
+
+  @Option(name = "-np", usage = "Synthetic corpus size in pages, default 200", aliases = {
+      "--numPages" }, required = false)
+  private int numPages = 200;
+
+  @Option(name = "-n", usage = "Maximum number of host patterns, default 32", aliases = {
+      "--maxPatterns" }, required = false)
+  private int maxPatterns = 32;
+
+  @Option(name = "-i", usage = "Measured iterations per pattern count, default 20", aliases = {
+      "--iterations" }, required = false)
+  private int iterations = 20;
+
+  @Option(name = "-w", usage = "Warmup iterations per pattern count, default 5", aliases = {
+      "--warmup" }, required = false)
+  private int warmup = 5;
+
+  @Option(name = "-l", usage = "Member links per pattern on the synthetic page, default 50", aliases = {
+      "--links" }, required = false)
+  private int links = 50;
+
+  @Option(name = "-lat", usage = "Stub server latency per request in ms (FETCH), default 20", aliases = {
+      "--latency" }, required = false)
+  private long latency = 20;
+
+  @Option(name = "-mc", usage = "Maximum requests in flight (FETCH), default 32", aliases = {
+      "--maxConcurrency" }, required = false)
+  private int maxConcurrency = 32;
+
+  @Option(name = "-pk", usage = "Pad the stub server's page to this many KB (FETCH), default 0 (no padding)", aliases = {
+      "--pageKB" }, required = false)
+  private int pageKB = 0;
+
+  @Option(name = "-ms", usage = "Largest synthetic page in KB (READ), default 10240", aliases = {
+      "--maxSizeKB" }, required = false)
+  private int maxSizeKB = 10240;
+
+  @Option(name = "-fe", usage = "Stub server answers every Nth request with a 503 (FETCH), default 0 (never)", aliases = {
+      "--failEvery" }, required = false)
+  private int failEvery = 0;
+
+  // receives other command line parameters than options
+  @Argument
+  private List<String> arguments = new ArrayList<String>();
+
+  private static final String USAGE = "java PersonaBenchmark [options...] arguments...";
+
+  private static Logger LOG = Logger
+      .getLogger(PersonaBenchmark.class.getName());
+
+  // keep a strong reference so the level override is not collected
+  private static final Logger QUIET = Logger.getLogger("edu.usc.ir");
+
+  private static final long READ_BUDGET_BYTES = 20L * 1024 * 1024;
+
+  private static final byte[] UNAVAILABLE = "<html><body>Busy</body></html>"
+      .getBytes();
+
+  private File workDir = null;
+
+  /**
+   * Default constructor.
+   */
+  public PersonaBenchmark() {
+  }
+
+  /**
+   * Measures per page extraction time for 1, 2, 4, ... {@link #maxPatterns}
+   * host patterns.
+   *
+   * @throws IOException
+   *           If the synthetic corpus cannot be written.
+   */
+  public void benchmarkPatterns() throws IOException {
+    QUIET.setLevel(Level.WARNING);
+    System.out.println("patterns\treparse ms/page\tsingle-parse ms/page");
+    for (int numPatterns = 1; numPatterns <= maxPatterns; numPatterns *= 2) {
+      PersonaExtractor extractor = new PersonaExtractor();
+      extractor.setConfigFile(writePatterns(numPatterns));
+      extractor.setPage(writePage(numPatterns));
+
+      for (int i = 0; i < warmup; i++) {
+        reparse(extractor, numPatterns);
+        extractor.obtainPersonasForAllHosts();
+      }
+
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        reparse(extractor, numPatterns);
+      }
+      double reparseMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        extractor.obtainPersonasForAllHosts();
+      }
+      double singleMs = (System.nanoTime() - start) / 1e6 / iterations;
+
+      System.out.println(String.format("%d\t%.3f\t%.3f", numPatterns,
+          reparseMs, singleMs));
+    }
+  }
+
+  /**
+   * Compares the {@link ExtractionEngine}s over the same corpus using every
+   * pattern in {@link #configFile}.
+   *
+   * @throws IOException
+   *           If the corpus or config cannot be read or written.
+   */
+  public void benchmarkEngines() throws IOException {
+    QUIET.setLevel(Level.WARNING);
+    File config = this.configFile != null ? this.configFile
+        : copyBundledPatterns();
+    List<File> corpus = new ArrayList<File>();
+    if (this.pageDir != null) {
+      for (File page : new CorpusWalker(this.pageDir)) {
+        corpus.add(page);
+      }
+    } else {
+      for (int i = 0; i < numPages; i++) {
+        corpus.add(writeForumPage(i));
+      }
+    }
+
+    System.out.println("engine\tstartup ms\tpages/sec\talloc KB/page\tretained KB/page");
+    Map<ExtractionEngine.Type, List<Map<String, Persona>>> results = new LinkedHashMap<ExtractionEngine.Type, List<Map<String, Persona>>>();
+    for (ExtractionEngine.Type type : ExtractionEngine.Type.values()) {
+      long start = System.nanoTime();
+      ExtractionEngine engine = type.newEngine();
+      engine.parse(corpus.get(0));
+      double startupMs = (System.nanoTime() - start) / 1e6;
+      double retainedKb = retainedBytes(engine, corpus.get(0)) / 1024.0;
+      engine.close();
+
+      PersonaExtractor extractor = new PersonaExtractor();
+      extractor.setConfigFile(config);
+      extractor.setEngineType(type);
+      for (int i = 0; i < warmup; i++) {
+        extractAll(extractor, corpus);
+      }
+
+      long allocated = allocatedBytes();
+      start = System.nanoTime();
+      List<Map<String, Persona>> extracted = null;
+      for (int i = 0; i < iterations; i++) {
+        extracted = extractAll(extractor, corpus);
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      double allocKb = allocated < 0 ? -1
+          : (allocatedBytes() - allocated) / 1024.0 / iterations / corpus.size();
+      extractor.close();
+      results.put(type, extracted);
+
+      System.out.println(String.format("%s\t%.1f\t%.1f\t%.1f\t%.1f", type,
+          startupMs, iterations * corpus.size() / seconds, allocKb, retainedKb));
+    }
+
+    reportDifferences(corpus, results);
+  }
+
+  /**
+   * Measures {@link PageFetcher} pages/sec against an embedded HTTP stub for
+   * 1, 2, 4, ... {@link #maxConcurrency} requests in flight.
+   *
+   * @throws IOException
+   *           If the stub server cannot be started.
+   */
+  public void benchmarkFetch() throws IOException {
+    QUIET.setLevel(Level.WARNING);
+    final byte[] page = padPage(
+        FileUtils.readFileToByteArray(writeForumPage(0)), pageKB * 1024);
+    final AtomicLong requests = new AtomicLong();
+    HttpServer stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0),
+        0);
+    ExecutorService stubThreads = Executors.newCachedThreadPool();
+    stub.setExecutor(stubThreads);
+    stub.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          Thread.sleep(latency);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        long n = requests.incrementAndGet();
+        byte[] body = failEvery > 0 && n % failEvery == 0 ? UNAVAILABLE : page;
+        exchange.getResponseHeaders().set("Content-Type", "text/html");
+        exchange.sendResponseHeaders(body == page ? 200 : 503, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    });
+    stub.start();
+    String prefix = "http://127.0.0.1:" + stub.getAddress().getPort()
+        + "/pages/";
+
+    try {
+      System.out.println("in flight	pages/sec	retries	failed");
+      for (int concurrency = 1; concurrency <= maxConcurrency; concurrency *= 2) {
+        PageFetcher fetcher = new PageFetcher(concurrency, 0, 3, 10, null,
+            null);
+        long start = System.nanoTime();
+        fetcher.fetchAll(docIds(numPages), prefix,
+            new PageFetcher.PageHandler() {
+              @Override
+              public void pageFetched(String docId, String url,
+                  String contentType, InputStream content)
+                  throws IOException {
+                byte[] discard = new byte[8192];
+                while (content.read(discard) != -1) {
+                  // discard
+                }
+              }
+            });
+        double seconds = (System.nanoTime() - start) / 1e9;
+        fetcher.close();
+        System.out.println(String.format("%d\t%.1f\t%d\t%d", concurrency,
+            fetcher.getFetched() / seconds, fetcher.getRetries(),
+            fetcher.getFailed()));
+      }
+    } finally {
+      stub.stop(0);
+      stubThreads.shutdownNow();
+      try {
+        stubThreads.awaitTermination(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Compares the allocation of the ways a local page can reach each engine,
+   * for page sizes from 1KB to {@link #maxSizeKB}.
+   *
+   * @throws IOException
+   *           If the synthetic pages cannot be written or parsed.
+   */
+  public void benchmarkRead() throws IOException {
+    QUIET.setLevel(Level.WARNING);
+    WebClient webClient = new WebClient();
+    webClient.getOptions().setJavaScriptEnabled(false);
+    webClient.getPage(WebClient.URL_ABOUT_BLANK);
+    System.out.println("size KB\tengine\tinput\tms/page\talloc KB/page\talloc MB/sec");
+    try {
+      for (int kb = 1; kb <= maxSizeKB; kb *= 10) {
+        File page = writeSizedPage(kb * 1024);
+        // enough pages to measure, without parsing gigabytes of HTML
+        int count = (int) Math.max(2,
+            Math.min(iterations, READ_BUDGET_BYTES / page.length()));
+        for (ExtractionEngine.Type type : ExtractionEngine.Type.values()) {
+          ExtractionEngine engine = type.newEngine();
+          for (Input input : Input.values()) {
+            if (input == Input.URL && type != ExtractionEngine.Type.HTMLUNIT) {
+              continue;
+            }
+            read(engine, webClient, input, page);
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+              read(engine, webClient, input, page);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            double allocKb = allocated < 0 ? -1
+                : (allocatedBytes() - allocated) / 1024.0 / count;
+            System.out.println(String.format("%d\t%s\t%s\t%.2f\t%.1f\t%.1f",
+                kb, type, input, seconds * 1000 / count, allocKb,
+                allocKb * count / 1024 / seconds));
+          }
+          engine.close();
+        }
+        page.delete();
+      }
+    } finally {
+      webClient.close();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    PersonaBenchmark benchmark = new PersonaBenchmark();
+    try {
+      benchmark.processArgs(args);
+      switch (benchmark.mode) {
+      case ENGINES:
+        benchmark.benchmarkEngines();
+        break;
+      case FETCH:
+        benchmark.benchmarkFetch();
+        break;
+      case READ:
+        benchmark.benchmarkRead();
+        break;
+      default:
+        benchmark.benchmarkPatterns();
+      }
+    } catch (CmdLineException e) {
+      // don't proceed
+    } finally {
+      benchmark.cleanUp();
+    }
+  }
+
+  private void reparse(PersonaExtractor extractor, int numPatterns)
+      throws IOException {
+    for (int i = 0; i < numPatterns; i++) {
+      extractor.obtainPersonas(hostKey(i));
+    }
+  }
+
+  private List<Map<String, Persona>> extractAll(PersonaExtractor extractor,
+      List<File> corpus) throws IOException {
+    List<Map<String, Persona>> extracted = new ArrayList<Map<String, Persona>>(
+        corpus.size());
+    for (File page : corpus) {
+      extractor.setPage(page);
+      extracted.add(extractor.obtainPersonasForAllHosts());
+    }
+    return extracted;
+  }
+
+  private void reportDifferences(List<File> corpus,
+      Map<ExtractionEngine.Type, List<Map<String, Persona>>> results) {
+    List<Map<String, Persona>> expected = results
+        .get(ExtractionEngine.Type.HTMLUNIT);
+    for (ExtractionEngine.Type type : results.keySet()) {
+      List<Map<String, Persona>> actual = results.get(type);
+      int differences = 0;
+      for (int i = 0; i < corpus.size(); i++) {
+        for (String hostKey : expected.get(i).keySet()) {
+          List<String> want = expected.get(i).get(hostKey).getUsernames();
+          List<String> got = actual.get(i).get(hostKey).getUsernames();
+          if (!want.equals(got)) {
+            if (differences++ < 10) {
+              System.out.println(type + ": [" + corpus.get(i).getName()
+                  + "]: [" + hostKey + "]: expected " + want + " got " + got);
+            }
+          }
+        }
+      }
+      System.out.println(type + ": [" + differences
+          + "] persona differences from " + ExtractionEngine.Type.HTMLUNIT);
+    }
+  }
+
+  private long retainedBytes(ExtractionEngine engine, File page)
+      throws IOException {
+    // hold several copies so the figure is not lost in GC noise
+    final int copies = 10;
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    long before = runtime.totalMemory() - runtime.freeMemory();
+    List<Node> documents = new ArrayList<Node>(copies);
+    for (int i = 0; i < copies; i++) {
+      documents.add(engine.parse(page));
+    }
+    System.gc();
+    long after = runtime.totalMemory() - runtime.freeMemory();
+    LOG.fine("Retained documents: [" + documents.size() + "]");
+    return Math.max(0, after - before) / copies;
+  }
+
+  private long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads)
+          .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  private File copyBundledPatterns() throws IOException {
+    File config = new File(getWorkDir(), "patterns.properties");
+    InputStream in = PersonaBenchmark.class
+        .getResourceAsStream("/patterns.properties");
+    try {
+      FileUtils.copyInputStreamToFile(in, config);
+    } finally {
+      in.close();
+    }
+    return config;
+  }
+
+  private File writeForumPage(int n) throws IOException {
+    StringBuilder html = new StringBuilder();
+    html.append("<html><head><title>Profile user").append(n)
+        .append(" | Benchmark Market</title>")
+        .append("<link rel=\"stylesheet\" href=\"/css/site.css\"></head><body>")
+        .append("<div class=\"nav\"><a href=\"/\">Home</a> <a href=\"/forum.php\">Forum</a></div><table>");
+    for (int j = 0; j < links; j++) {
+      int user = (n * 7 + j) % (links * 4);
+      html.append("<tr><td><a href=\"/members/user").append(user)
+          .append("\">user").append(user).append("</a></td><td><a href=\"/users/user")
+          .append(user).append("\">profile</a></td><td><a href=\"/members/profile.php?u=")
+          .append(user).append("\">edit</a></td><td>Posts: ").append(j * 3)
+          .append("</td></tr>");
+    }
+    html.append("</table></body></html>");
+    File page = new File(getWorkDir(), "forum-" + n + ".html");
+    FileUtils.writeStringToFile(page, html.toString(), "UTF-8");
+    return page;
+  }
+
+  private File writePatterns(int numPatterns) throws IOException {
+    Properties props = new Properties();
+    for (int i = 0; i < numPatterns; i++) {
+      props.setProperty(hostKey(i), "//*[contains(@href,'members" + i + "')]");
+    }
+    File config = new File(getWorkDir(), "patterns-" + numPatterns
+        + ".properties");
+    OutputStream out = new FileOutputStream(config);
+    try {
+      props.store(out, "synthetic benchmark patterns");
+    } finally {
+      out.close();
+    }
+    return config;
+  }
+
+  private File writePage(int numPatterns) throws IOException {
+    StringBuilder html = new StringBuilder();
+    html.append("<html><head><title>Members | Benchmark Forum</title></head><body>");
+    for (int i = 0; i < numPatterns; i++) {
+      html.append("<ul>");
+      for (int j = 0; j < links; j++) {
+        html.append("<li><a href=\"/members").append(i).append("/user")
+            .append(j).append("\">user").append(j).append("</a></li>");
+      }
+      html.append("</ul>");
+    }
+    html.append("</body></html>");
+    File page = new File(getWorkDir(), "page-" + numPatterns + ".html");
+    FileUtils.writeStringToFile(page, html.toString(), "UTF-8");
+    return page;
+  }
+
+  private Node read(ExtractionEngine engine, WebClient webClient,
+      Input input, File page) throws IOException {
+    switch (input) {
+    case URL:
+      HtmlPage html = webClient.getPage(page.toURI().toURL());
+      // as HtmlUnitEngine does, or the window history fills the heap
+      webClient.getCurrentWindow().getHistory().removeCurrent();
+      return html;
+    case HEAP:
+      return engine.parse(FileUtils.readFileToByteArray(page),
+          page.toURI().toString());
+    default:
+      return engine.parse(page);
+    }
+  }
+
+  private File writeSizedPage(int size) throws IOException {
+    StringBuilder html = new StringBuilder(size + 256);
+    html.append("<html><head><meta charset=\"utf-8\"><title>Thread")
+        .append(" | Benchmark Market</title></head><body><table>");
+    for (int j = 0; html.length() < size; j++) {
+      int user = j % (links * 4);
+      html.append("<tr><td><a href=\"/members/user").append(user)
+          .append("\">user").append(user).append("</a></td><td>Posts: ")
+          .append(j).append("</td><td>Re: thread ").append(j)
+          .append(" &mdash; caf\u00e9 talk</td></tr>\n");
+    }
+    html.append("</table></body></html>");
+    File page = new File(getWorkDir(), "sized-" + size + ".html");
+    FileUtils.writeStringToFile(page, html.toString(), "UTF-8");
+    return page;
+  }
+
+  private byte[] padPage(byte[] page, int size) {
+    if (page.length >= size) {
+      return page;
+    }
+    byte[] padded = new byte[size];
+    System.arraycopy(page, 0, padded, 0, page.length);
+    // trailing whitespace after </html>
+    Arrays.fill(padded, page.length, size, (byte) ' ');
+    return padded;
+  }
+
+  private Iterator<String> docIds(int count) {
+    List<String> ids = new ArrayList<String>(count);
+    for (int i = 0; i < count; i++) {
+      ids.add(String.format("%08d", i));
+    }
+    return ids.iterator();
+  }
+
+  private String hostKey(int i) {
+    return "www.host" + i + ".example.com";
+  }
+
+  private File getWorkDir() throws IOException {
+    if (this.workDir == null) {
+      this.workDir = File.createTempFile("persona-bench", "");
+      this.workDir.delete();
+      this.workDir.mkdirs();
+      LOG.fine("Benchmark work dir: [" + this.workDir.getAbsolutePath() + "]");
+    }
+    return this.workDir;
+  }
+
+  private void cleanUp() throws IOException {
+    if (this.workDir != null) {
+      FileUtils.deleteDirectory(this.workDir);
+    }
+  }
+
+  private void processArgs(String[] args) throws CmdLineException {
+    CmdLineParser parser = new CmdLineParser(this);
+    try {
+      parser.parseArgument(args);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      parser.printUsage(System.err);
+      throw e;
+    }
+  }
+
+}
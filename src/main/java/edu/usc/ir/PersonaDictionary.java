@@ -0,0 +1,463 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A run wide dictionary of the usernames extracted, shared by every
+ * extractor. Each username gets a compact integer id and one canonical
+ * {@link String}, so the same username found on many pages is held once
+ * rather than once per page, and the dictionary counts the pages each
+ * username was found on. This is the one way usernames are shared across
+ * pages.
+ * <p>
+ * Memory is bounded: at most <code>maxUsernames</code> usernames are kept,
+ * and the least recently seen one is evicted to make room. The
+ * {@link #RETAINED} evicted usernames found on the most pages keep their id
+ * and count, and pick up where they left off if seen again, so the most
+ * frequent usernames are counted across evictions; any other username seen
+ * again after eviction starts over with a new id and count.
+ * <p>
+ * Usernames are spread over {@link #STRIPES} independently locked parts of
+ * the dictionary by hash, so extractor threads rarely wait on each other.
+ * <p>
+ * Optionally the dictionary writes a persona to pages summary, a tab
+ * separated UTF-8 file with lines of
+ * <code>username&lt;tab&gt;id&lt;tab&gt;pageId&lt;tab&gt;pageId...</code>.
+ * Page ids are written out as a username is evicted, every
+ * {@link #SUMMARY_CHUNK} pages, and on {@link #close()}, so the summary costs
+ * bounded memory too; a username may span several lines, to be concatenated.
+ * Thread-safe.
+ */
+public class PersonaDictionary implements Closeable {
+
+  /** Page ids held per username before they are written to the summary. */
+  static final int SUMMARY_CHUNK = 1024;
+
+  /** Evicted usernames whose id and page count are kept. */
+  static final int RETAINED = 1024;
+
+  /** Independently locked parts of the dictionary. */
+  static final int STRIPES = 16;
+
+  private static final int TOP_USERNAMES = 10;
+
+  private static Logger LOG = Logger
+      .getLogger(PersonaDictionary.class.getName());
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static class Entry {
+
+    final String username;
+
+    final int id;
+
+    long pages = 0;
+
+    // page ids not yet written to the summary, null without one
+    List<String> pageIds;
+
+    Entry(String username, int id, List<String> pageIds) {
+      this.username = username;
+      this.id = id;
+      this.pageIds = pageIds;
+    }
+
+    // the page ids so far, to be written without holding the stripe, which
+    // carries on with an empty list
+    Entry detachPageIds() {
+      Entry detached = new Entry(this.username, this.id, this.pageIds);
+      this.pageIds = new ArrayList<String>();
+      return detached;
+    }
+
+  }
+
+  // one lock's worth of the dictionary
+  private static class Stripe {
+
+    // access order: the eldest entry is the least recently seen username
+    final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16,
+        0.75f, true);
+
+    final int maxUsernames;
+
+    long lookups = 0;
+
+    long hits = 0;
+
+    long evictions = 0;
+
+    Stripe(int maxUsernames) {
+      this.maxUsernames = maxUsernames;
+    }
+
+  }
+
+  private final int maxUsernames;
+
+  private final File summaryFile;
+
+  private final Stripe[] stripes;
+
+  // the most frequent evicted usernames, and the same ordered by page count
+  // (then id, so entries are distinct)
+  private final Map<String, Entry> retired = new ConcurrentHashMap<String, Entry>();
+
+  private final TreeSet<Entry> retiredByPages = new TreeSet<Entry>(
+      new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+          return a.pages < b.pages ? -1 : a.pages > b.pages ? 1
+              : a.id < b.id ? -1 : a.id > b.id ? 1 : 0;
+        }
+      });
+
+  // page ids of evicted usernames, still to be written
+  private final Queue<Entry> evicted = new ConcurrentLinkedQueue<Entry>();
+
+  private final Object summaryLock = new Object();
+
+  private Writer summary;
+
+  private final AtomicInteger nextId = new AtomicInteger();
+
+  /**
+   * @param maxUsernames
+   *          Most usernames to keep at once.
+   * @param summaryFile
+   *          Where to write the persona to pages summary, or null for none.
+   * @throws IOException
+   *           If the summary file cannot be created.
+   */
+  public PersonaDictionary(int maxUsernames, File summaryFile)
+      throws IOException {
+    if (maxUsernames < 1) {
+      throw new IllegalArgumentException(
+          "maxUsernames: [" + maxUsernames + "]: must be at least 1");
+    }
+    this.maxUsernames = maxUsernames;
+    this.summaryFile = summaryFile;
+    int count = Math.min(STRIPES, maxUsernames);
+    this.stripes = new Stripe[count];
+    for (int i = 0; i < count; i++) {
+      // the remainder goes to the first stripes, so they add up exactly
+      this.stripes[i] = new Stripe(
+          maxUsernames / count + (i < maxUsernames % count ? 1 : 0));
+    }
+    if (summaryFile != null) {
+      this.summary = new BufferedWriter(new OutputStreamWriter(
+          new FileOutputStream(summaryFile), UTF_8));
+    }
+  }
+
+  /**
+   * @param username
+   *          A username just extracted.
+   * @return the canonical instance of <code>username</code>, to hold on to
+   *         instead of it
+   */
+  public String intern(String username) {
+    Stripe stripe = stripe(username);
+    synchronized (stripe) {
+      stripe.lookups++;
+      return entry(stripe, username, true).username;
+    }
+  }
+
+  /**
+   * Counts a page for each of its usernames and, with a summary, remembers
+   * the page id against them. Usernames are not counted as lookups again,
+   * they were when {@link #intern(String) interned}.
+   *
+   * @param pageId
+   *          The page the usernames were extracted from.
+   * @param usernames
+   *          The page's unique usernames.
+   * @throws IOException
+   *           If the summary cannot be written.
+   */
+  public void recordPage(String pageId, Collection<String> usernames)
+      throws IOException {
+    for (String username : usernames) {
+      Stripe stripe = stripe(username);
+      Entry full = null;
+      synchronized (stripe) {
+        Entry entry = entry(stripe, username, false);
+        entry.pages++;
+        if (entry.pageIds != null) {
+          entry.pageIds.add(pageId);
+          if (entry.pageIds.size() >= SUMMARY_CHUNK) {
+            full = entry.detachPageIds();
+          }
+        }
+      }
+      if (full != null) {
+        writeSummary(full);
+      }
+    }
+    writeEvicted();
+  }
+
+  /**
+   * @param username
+   *          A username.
+   * @return the number of pages <code>username</code> was found on, 0 if it
+   *         is neither in the dictionary nor retained
+   */
+  public long getPages(String username) {
+    Stripe stripe = stripe(username);
+    synchronized (stripe) {
+      Entry entry = stripe.entries.get(username);
+      if (entry == null) {
+        entry = this.retired.get(username);
+      }
+      return entry != null ? entry.pages : 0;
+    }
+  }
+
+  /**
+   * @param count
+   *          How many usernames to return.
+   * @return the usernames found on the most pages, most first, with their
+   *         page counts, evicted usernames retained included
+   */
+  public Map<String, Long> getTopUsernames(int count) {
+    List<Object[]> top = new ArrayList<Object[]>();
+    for (Stripe stripe : this.stripes) {
+      synchronized (stripe) {
+        for (Entry entry : stripe.entries.values()) {
+          top.add(new Object[] { entry.username, entry.pages });
+        }
+      }
+    }
+    synchronized (this.retiredByPages) {
+      for (Entry entry : this.retiredByPages) {
+        top.add(new Object[] { entry.username, entry.pages });
+      }
+    }
+    Collections.sort(top, new Comparator<Object[]>() {
+      @Override
+      public int compare(Object[] a, Object[] b) {
+        return ((Long) b[1]).compareTo((Long) a[1]);
+      }
+    });
+    Map<String, Long> counts = new LinkedHashMap<String, Long>();
+    for (Object[] entry : top.subList(0, Math.min(count, top.size()))) {
+      counts.put((String) entry[0], (Long) entry[1]);
+    }
+    return counts;
+  }
+
+  /**
+   * @return the number of usernames in the dictionary
+   */
+  public int size() {
+    int size = 0;
+    for (Stripe stripe : this.stripes) {
+      synchronized (stripe) {
+        size += stripe.entries.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * @return the number of usernames evicted to stay within the budget
+   */
+  public long getEvictions() {
+    long evictions = 0;
+    for (Stripe stripe : this.stripes) {
+      synchronized (stripe) {
+        evictions += stripe.evictions;
+      }
+    }
+    return evictions;
+  }
+
+  /**
+   * @return the fraction of usernames interned that were already present
+   */
+  public double getHitRate() {
+    long lookups = 0;
+    long hits = 0;
+    for (Stripe stripe : this.stripes) {
+      synchronized (stripe) {
+        lookups += stripe.lookups;
+        hits += stripe.hits;
+      }
+    }
+    return lookups > 0 ? (double) hits / lookups : 0;
+  }
+
+  /**
+   * @return the maxUsernames
+   */
+  public int getMaxUsernames() {
+    return maxUsernames;
+  }
+
+  /**
+   * @return the summaryFile, or null
+   */
+  public File getSummaryFile() {
+    return summaryFile;
+  }
+
+  /**
+   * Logs the dictionary statistics and writes out the rest of the summary.
+   *
+   * @throws IOException
+   *           If the summary cannot be written.
+   */
+  @Override
+  public void close() throws IOException {
+    LOG.info("Persona dictionary: [" + size() + "] usernames of ["
+        + this.nextId.get() + "] seen: evicted: [" + getEvictions()
+        + "]: hit rate: [" + String.format("%.3f", getHitRate())
+        + "]: most pages: " + getTopUsernames(TOP_USERNAMES));
+    synchronized (this.summaryLock) {
+      if (this.summary == null) {
+        return;
+      }
+      try {
+        writeEvicted();
+        for (Stripe stripe : this.stripes) {
+          synchronized (stripe) {
+            for (Entry entry : stripe.entries.values()) {
+              writeSummary(entry);
+            }
+          }
+        }
+      } finally {
+        this.summary.close();
+        this.summary = null;
+      }
+    }
+    LOG.info("Wrote persona summary: [" + this.summaryFile.getAbsolutePath()
+        + "]");
+  }
+
+  private Stripe stripe(String username) {
+    int hash = username.hashCode();
+    hash ^= hash >>> 16;
+    return this.stripes[(hash & 0x7fffffff) % this.stripes.length];
+  }
+
+  // with the stripe held; a lookup counts towards the hit rate
+  private Entry entry(Stripe stripe, String username, boolean lookup) {
+    Entry entry = stripe.entries.get(username);
+    if (entry != null) {
+      if (lookup) {
+        stripe.hits++;
+      }
+      return entry;
+    }
+    entry = this.retired.isEmpty() ? null : unretire(username);
+    if (entry == null) {
+      entry = new Entry(username, this.nextId.getAndIncrement(),
+          this.summaryFile != null ? new ArrayList<String>() : null);
+    }
+    stripe.entries.put(username, entry);
+    if (stripe.entries.size() > stripe.maxUsernames) {
+      Iterator<Entry> eldest = stripe.entries.values().iterator();
+      Entry victim = eldest.next();
+      eldest.remove();
+      stripe.evictions++;
+      if (victim.pageIds != null && !victim.pageIds.isEmpty()) {
+        // written from recordPage or close, which may throw
+        this.evicted.add(victim.detachPageIds());
+      }
+      retire(victim);
+    }
+    return entry;
+  }
+
+  private Entry unretire(String username) {
+    Entry entry = this.retired.remove(username);
+    if (entry != null) {
+      synchronized (this.retiredByPages) {
+        this.retiredByPages.remove(entry);
+      }
+    }
+    return entry;
+  }
+
+  // keeps the entry if it is among the RETAINED found on the most pages
+  private void retire(Entry entry) {
+    synchronized (this.retiredByPages) {
+      if (this.retiredByPages.size() >= RETAINED) {
+        if (this.retiredByPages.first().pages >= entry.pages) {
+          return;
+        }
+        this.retired.remove(this.retiredByPages.pollFirst().username);
+      }
+      this.retiredByPages.add(entry);
+      this.retired.put(entry.username, entry);
+    }
+  }
+
+  private void writeEvicted() throws IOException {
+    for (Entry entry = this.evicted.poll(); entry != null; entry = this.evicted
+        .poll()) {
+      writeSummary(entry);
+    }
+  }
+
+  private void writeSummary(Entry entry) throws IOException {
+    synchronized (this.summaryLock) {
+      if (this.summary == null || entry.pageIds.isEmpty()) {
+        return;
+      }
+      // text selectors can pick up tabs and line breaks
+      this.summary.write(entry.username.replaceAll("[\\t\\r\\n]", " "));
+      this.summary.write('\t');
+      this.summary.write(Integer.toString(entry.id));
+      for (String pageId : entry.pageIds) {
+        this.summary.write('\t');
+        this.summary.write(pageId);
+      }
+      this.summary.write('\n');
+      entry.pageIds.clear();
+    }
+  }
+
+}
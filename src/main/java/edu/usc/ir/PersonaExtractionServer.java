@@ -0,0 +1,659 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Localizable;
+import org.kohsuke.args4j.Option;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Resident extraction service, for classifying pages one at a time on
+ * demand without paying for a JVM, pattern compilation and a fresh parser
+ * per page.
+ * <p>
+ * Patterns are compiled once at start up and a pool of
+ * {@link PersonaExtractor}s, each holding its own parsing engine, is warmed
+ * by extracting from a generated forum thread. Each request borrows one
+ * extractor:
+ * <ul>
+ * <li><code>POST /extract?host=KEY&amp;url=URL</code> with the page's HTML as
+ * the body extracts personas with host pattern <code>KEY</code>, or every
+ * pattern when <code>host</code> is left out (or, with <code>-rt</code>,
+ * those {@link HostRouter} picks for the page). <code>url</code> is used as
+ * the page id and to resolve relative links. The response is JSON:
+ * <code>{"pageId":URL,"patternVersion":V,"millis":1.2,"personas":{KEY:[USERNAME,...],...}}</code>,
+ * listing only patterns that matched, with <code>"truncated":true</code>
+ * after <code>millis</code> when the page reached one of the
+ * {@link PageLimits} (<code>-lk</code>, <code>-ln</code>, <code>-lu</code>,
+ * <code>-lt</code>). An unknown <code>host</code> gets a 404, and one whose
+ * selector failed to compile a 503.</li>
+ * <li><code>GET /status</code> reports the pool size, requests served and
+ * failed, and the number of patterns.</li>
+ * </ul>
+ */
+public class PersonaExtractionServer {
+
+  @Option(name = "-c", usage = "Config File with Xpath selectors", aliases = {
+      "--configFile" }, required = true)
+  private File configFile = null;
+
+  @Option(name = "-e", usage = "Parsing engine: HTMLUNIT (default) or NEKO", aliases = {
+      "--engine" }, required = false)
+  private ExtractionEngine.Type engineType = ExtractionEngine.Type.HTMLUNIT;
+
+  @Option(name = "-b", usage = "Address to listen on, default 127.0.0.1", aliases = {
+      "--bind" }, required = false)
+  private String bindAddress = "127.0.0.1";
+
+  @Option(name = "-pt", usage = "Port to listen on, default 8990", aliases = {
+      "--port" }, required = false)
+  private int port = 8990;
+
+  @Option(name = "-t", usage = "Extractors (and request threads), default the number of processors", aliases = {
+      "--threads" }, required = false)
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  @Option(name = "-w", usage = "Warmup extractions per extractor at start up, default 20", aliases = {
+      "--warmup" }, required = false)
+  private int warmup = 20;
+
+  @Option(name = "-mb", usage = "Largest page accepted in KB, default 10240", aliases = {
+      "--maxPageKB" }, required = false)
+  private int maxPageKB = 10240;
+
+  private final ExtractionOptions options = new ExtractionOptions();
+
+  // receives other command line parameters than options
+  @Argument
+  private List<String> arguments = new ArrayList<String>();
+
+  private static final String USAGE = "java PersonaExtractionServer [options...] arguments...";
+
+  private static Logger LOG = Logger
+      .getLogger(PersonaExtractionServer.class.getName());
+
+  // page id for requests that do not give a url
+  private static final String DEFAULT_PAGE_URL = "http://localhost/page.html";
+
+  // posts on the generated warmup page, about 12KB
+  private static final int WARMUP_POSTS = 40;
+
+  private PatternRegistry patterns = null;
+
+  private PatternWatcher watcher = null;
+
+  private PersonaDictionary dictionary = null;
+
+  private BlockingQueue<PersonaExtractor> pool = null;
+
+  private List<PersonaExtractor> extractors = null;
+
+  private HttpServer server = null;
+
+  private ExecutorService requestThreads = null;
+
+  private final AtomicLong served = new AtomicLong();
+
+  private final AtomicLong failed = new AtomicLong();
+
+  /**
+   * Default constructor.
+   */
+  public PersonaExtractionServer() {
+  }
+
+  /**
+   * Compiles the patterns, warms the extractor pool and starts listening.
+   * Returns once the server is accepting requests.
+   *
+   * @throws IOException
+   *           If the patterns cannot be read or the port cannot be bound.
+   */
+  public void start() throws IOException {
+    long started = System.currentTimeMillis();
+    this.patterns = PatternRegistry.getInstance(this.configFile);
+    this.watcher = this.options.newPatternWatcher(this.configFile);
+    int numExtractors = Math.max(1, this.threads);
+    this.pool = new ArrayBlockingQueue<PersonaExtractor>(numExtractors);
+    this.extractors = new ArrayList<PersonaExtractor>(numExtractors);
+    this.dictionary = this.options.newDictionary();
+    byte[] warmupPage = warmupPage(WARMUP_POSTS);
+    for (int i = 0; i < numExtractors; i++) {
+      PersonaExtractor extractor = new PersonaExtractor();
+      extractor.setPatternRegistry(this.patterns);
+      extractor.setPatternWatcher(this.watcher);
+      extractor.setEngineType(this.engineType);
+      extractor.setDictionary(this.dictionary);
+      this.options.configure(extractor);
+      extractor.setPage(warmupPage, DEFAULT_PAGE_URL);
+      for (int j = 0; j < this.warmup; j++) {
+        extractor.obtainPersonasForAllHosts();
+      }
+      this.extractors.add(extractor);
+      this.pool.add(extractor);
+    }
+
+    this.server = HttpServer.create(
+        new InetSocketAddress(this.bindAddress, this.port), 0);
+    this.requestThreads = Executors.newFixedThreadPool(numExtractors);
+    this.server.setExecutor(this.requestThreads);
+    this.server.createContext("/extract", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          extract(exchange);
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    this.server.createContext("/status", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        try {
+          respond(exchange, 200, "{\"extractors\":" + extractors.size()
+              + ",\"idle\":" + pool.size() + ",\"patterns\":"
+              + currentPatterns().size() + ",\"patternVersion\":\""
+              + currentPatterns().getVersion() + "\",\"served\":" + served.get()
+              + ",\"failed\":" + failed.get() + "}");
+        } finally {
+          exchange.close();
+        }
+      }
+    });
+    this.server.start();
+    LOG.info("Listening on: [" + this.bindAddress + ":" + getPort()
+        + "]: engine: [" + this.engineType + "]: extractors: ["
+        + numExtractors + "]: patterns: [" + this.patterns.size()
+        + "]: started in [" + (System.currentTimeMillis() - started) / 1000.0
+        + "] secs");
+  }
+
+  /**
+   * Stops accepting requests, waits up to <code>delaySeconds</code> for the
+   * ones in progress and releases the extractors.
+   *
+   * @param delaySeconds
+   *          Seconds to let requests in progress finish.
+   */
+  public void stop(int delaySeconds) {
+    if (this.server == null) {
+      return;
+    }
+    this.server.stop(delaySeconds);
+    this.requestThreads.shutdown();
+    try {
+      this.requestThreads.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (PersonaExtractor extractor : this.extractors) {
+      extractor.close();
+    }
+    if (this.watcher != null) {
+      try {
+        this.watcher.close();
+      } catch (IOException e) {
+        LOG.warning("Unable to stop watching: [" + this.configFile + "]: "
+            + e.getMessage());
+      }
+      this.watcher = null;
+    }
+    if (this.dictionary != null) {
+      try {
+        this.dictionary.close();
+      } catch (IOException e) {
+        LOG.warning("Unable to close the persona dictionary: "
+            + e.getMessage());
+      }
+      this.dictionary = null;
+    }
+    this.server = null;
+    LOG.info("Stopped: served: [" + this.served.get() + "]: failed: ["
+        + this.failed.get() + "]");
+  }
+
+  public static void main(String[] args) throws IOException {
+    final PersonaExtractionServer server = new PersonaExtractionServer();
+    try {
+      server.processArgs(args);
+      server.options.installLogging();
+      server.start();
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          server.stop(5);
+          LoggingMode.uninstall();
+        }
+      });
+    } catch (CmdLineException e) {
+      // don't start
+    }
+  }
+
+  /**
+   * @return the port the server listens on, once started
+   */
+  public int getPort() {
+    return this.server != null ? this.server.getAddress().getPort()
+        : this.port;
+  }
+
+  /**
+   * @param port
+   *          the port to set, 0 for any free port
+   */
+  public void setPort(int port) {
+    this.port = port;
+  }
+
+  /**
+   * @return the configFile
+   */
+  public File getConfigFile() {
+    return configFile;
+  }
+
+  /**
+   * @param configFile
+   *          the configFile to set
+   */
+  public void setConfigFile(File configFile) {
+    this.configFile = configFile;
+  }
+
+  /**
+   * @return the engineType
+   */
+  public ExtractionEngine.Type getEngineType() {
+    return engineType;
+  }
+
+  /**
+   * @param engineType
+   *          the engineType to set
+   */
+  public void setEngineType(ExtractionEngine.Type engineType) {
+    this.engineType = engineType;
+  }
+
+  /**
+   * @return the threads
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * @param threads
+   *          the threads to set
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * @return the warmup
+   */
+  public int getWarmup() {
+    return warmup;
+  }
+
+  /**
+   * @param warmup
+   *          the warmup to set
+   */
+  public void setWarmup(int warmup) {
+    this.warmup = warmup;
+  }
+
+  /**
+   * @return the number of requests answered with personas
+   */
+  public long getServed() {
+    return served.get();
+  }
+
+  /**
+   * @return the number of requests that failed
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+  private void extract(HttpExchange exchange) throws IOException {
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      exchange.getResponseHeaders().set("Allow", "POST");
+      error(exchange, 405, "POST the page to extract from");
+      return;
+    }
+    Map<String, String> params = parseQuery(
+        exchange.getRequestURI().getRawQuery());
+    String host = params.get("host");
+    if (host != null && currentPatterns().getPattern(host) == null) {
+      if (currentPatterns().getHostKeys().contains(host)) {
+        // until a fixed config is loaded (with -wp)
+        error(exchange, 503, "Host pattern does not compile: " + host);
+      } else {
+        error(exchange, 404, "No host pattern: " + host);
+      }
+      return;
+    }
+    String url = params.containsKey("url") ? params.get("url")
+        : DEFAULT_PAGE_URL;
+    try {
+      new URL(url);
+    } catch (MalformedURLException e) {
+      error(exchange, 400, "Bad url: " + url);
+      return;
+    }
+    byte[] page = readBody(exchange.getRequestBody(), this.maxPageKB * 1024);
+    if (page == null) {
+      error(exchange, 413, "Page larger than " + this.maxPageKB + " KB");
+      return;
+    }
+
+    long start = System.nanoTime();
+    Map<String, Persona> personas;
+    PersonaExtractor extractor = borrow();
+    try {
+      extractor.setPage(page, url, CharsetSniffer.fromContentType(
+          exchange.getRequestHeaders().getFirst("Content-Type")));
+      if (host != null) {
+        personas = new HashMap<String, Persona>();
+        personas.put(host, extractor.obtainPersonas(host));
+      } else {
+        personas = extractor.obtainPersonasForAllHosts();
+      }
+    } catch (Exception e) {
+      LOG.log(Level.WARNING, "Unable to extract: [" + url + "]", e);
+      error(exchange, 500, "Unable to extract: " + e.getMessage());
+      return;
+    } finally {
+      // don't keep the page alive while the extractor is idle
+      extractor.setPage(null, null);
+      this.pool.add(extractor);
+    }
+    double millis = (System.nanoTime() - start) / 1e6;
+    recordPage(url, personas);
+
+    StringBuilder json = new StringBuilder();
+    json.append("{\"pageId\":");
+    quote(json, url);
+    String version = null;
+    boolean truncated = false;
+    for (Persona persona : personas.values()) {
+      version = persona.getPatternVersion();
+      truncated |= persona.isTruncated();
+    }
+    if (version != null) {
+      json.append(",\"patternVersion\":");
+      quote(json, version);
+    }
+    json.append(",\"millis\":")
+        .append(String.format(Locale.ROOT, "%.3f", millis));
+    if (truncated) {
+      json.append(",\"truncated\":true");
+    }
+    json.append(",\"personas\":{");
+    boolean first = true;
+    for (Map.Entry<String, Persona> entry : personas.entrySet()) {
+      List<String> usernames = entry.getValue().getUsernames();
+      if (usernames.isEmpty()) {
+        continue;
+      }
+      if (!first) {
+        json.append(',');
+      }
+      first = false;
+      quote(json, entry.getKey());
+      json.append(":[");
+      for (int i = 0; i < usernames.size(); i++) {
+        if (i > 0) {
+          json.append(',');
+        }
+        quote(json, usernames.get(i));
+      }
+      json.append(']');
+    }
+    json.append("}}");
+    this.served.incrementAndGet();
+    respond(exchange, 200, json.toString());
+  }
+
+  // counts the page towards its usernames' popularity, and with -ps keeps
+  // its url for the summary
+  private void recordPage(String url, Map<String, Persona> personas) {
+    if (this.dictionary == null) {
+      return;
+    }
+    Set<String> usernames = new LinkedHashSet<String>();
+    for (Persona persona : personas.values()) {
+      usernames.addAll(persona.getUsernames());
+    }
+    if (usernames.isEmpty()) {
+      return;
+    }
+    try {
+      this.dictionary.recordPage(url, usernames);
+    } catch (IOException e) {
+      LOG.warning("Unable to write the persona summary: " + e.getMessage());
+    }
+  }
+
+  /**
+   * A forum thread of <code>posts</code> posts in the shape crawled pages
+   * have: a title in the "Profile NAME | Market" form, and for each post its
+   * poster's profile link, in turn in the member, user, profile and
+   * <code>php</code> forms forums use, a quote link and some non-ASCII text,
+   * so warmup runs the parser and every kind of selector over realistic
+   * markup rather than a handful of elements.
+   */
+  static byte[] warmupPage(int posts) {
+    String[] profiles = { "/forums/members/", "/users/", "/profile/",
+        "/member.php?u=" };
+    StringBuilder html = new StringBuilder(posts * 300 + 512);
+    html.append("<html><head><meta charset=\"utf-8\">")
+        .append("<title>Profile vendor1 | Market</title>")
+        .append("<link rel=\"stylesheet\" href=\"/css/style.css\"></head>")
+        .append("<body><div id=\"nav\"><a href=\"/\">Home</a>")
+        .append("<a href=\"/search.php?q=\">Search</a></div><table>\n");
+    for (int i = 0; i < posts; i++) {
+      String user = "user" + (i % Math.max(1, posts / 2));
+      html.append("<tr><td class=\"poster\"><a href=\"")
+          .append(profiles[i % profiles.length]).append(user).append("\">")
+          .append(user).append("</a></td><td class=\"post\">Post ").append(i)
+          .append(": caf\u00e9 talk about optics, mounts and the range.")
+          .append(" <a href=\"/showthread.php?p=").append(i)
+          .append("\">Quote</a></td></tr>\n");
+    }
+    html.append("</table></body></html>");
+    return html.toString().getBytes(Charset.forName("UTF-8"));
+  }
+
+  private PatternRegistry currentPatterns() {
+    return this.watcher != null ? this.watcher.get() : this.patterns;
+  }
+
+  private PersonaExtractor borrow() throws IOException {
+    try {
+      // there are as many extractors as request threads, so never waits long
+      return this.pool.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted waiting for an extractor");
+    }
+  }
+
+  private void error(HttpExchange exchange, int status, String message)
+      throws IOException {
+    this.failed.incrementAndGet();
+    StringBuilder json = new StringBuilder("{\"error\":");
+    quote(json, message);
+    respond(exchange, status, json.append('}').toString());
+  }
+
+  private static void respond(HttpExchange exchange, int status, String json)
+      throws IOException {
+    byte[] body = json.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type",
+        "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(status, body.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(body);
+    out.close();
+  }
+
+  /**
+   * @return the body, or null if it is longer than <code>limit</code> bytes
+   */
+  private static byte[] readBody(InputStream in, int limit)
+      throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream(8192);
+    byte[] buffer = new byte[8192];
+    for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+      if (body.size() + n > limit) {
+        return null;
+      }
+      body.write(buffer, 0, n);
+    }
+    return body.toByteArray();
+  }
+
+  private static Map<String, String> parseQuery(String query)
+      throws IOException {
+    Map<String, String> params = new HashMap<String, String>();
+    if (query == null) {
+      return params;
+    }
+    for (String param : query.split("&")) {
+      int eq = param.indexOf('=');
+      if (eq > 0) {
+        params.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+            URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+      }
+    }
+    return params;
+  }
+
+  private static void quote(StringBuilder json, String value) {
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+      case '"':
+        json.append("\\\"");
+        break;
+      case '\\':
+        json.append("\\\\");
+        break;
+      case '\n':
+        json.append("\\n");
+        break;
+      case '\r':
+        json.append("\\r");
+        break;
+      case '\t':
+        json.append("\\t");
+        break;
+      default:
+        if (c < 0x20) {
+          json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+        } else {
+          json.append(c);
+        }
+      }
+    }
+    json.append('"');
+  }
+
+  /**
+   * Usage errors found after args4j has parsed the command line.
+   */
+  private enum UsageError implements Localizable {
+    /** An extraction option the service has no use for. */
+    UNSUPPORTED_OPTION("{0} is not supported by the extraction service");
+
+    private final String pattern;
+
+    UsageError(String pattern) {
+      this.pattern = pattern;
+    }
+
+    @Override
+    public String formatWithLocale(Locale locale, Object... args) {
+      return new MessageFormat(this.pattern, locale).format(args);
+    }
+
+    @Override
+    public String format(Object... args) {
+      return formatWithLocale(Locale.getDefault(), args);
+    }
+  }
+
+  private void processArgs(String[] args) throws CmdLineException {
+    CmdLineParser parser = new CmdLineParser(this);
+    this.options.addTo(parser);
+    try {
+      parser.parseArgument(args);
+      if (this.options.getDedupSize() > 0) {
+        throw new CmdLineException(parser, UsageError.UNSUPPORTED_OPTION,
+            "-dc");
+      }
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      parser.printUsage(System.err);
+      throw e;
+    }
+  }
+
+}
@@ -18,31 +18,35 @@
 package edu.usc.ir;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.xml.xpath.XPathExpressionException;
+
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
 import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
-import com.gargoylesoftware.htmlunit.WebClient;
-import com.gargoylesoftware.htmlunit.html.DomNode;
-import com.gargoylesoftware.htmlunit.html.HtmlAnchor;
-import com.gargoylesoftware.htmlunit.html.HtmlPage;
 
 public class PersonaExtractor {
 
-  private Map<String, String> patterns = new HashMap<String, String>();
+  private PatternRegistry patterns = null;
 
   @Option(name = "-p", usage = "Web Page", aliases = {
       "--webPage" }, required = true)
@@ -56,6 +60,49 @@ public class PersonaExtractor {
       "--hostPatterns" }, required = false)
   private String host;
 
+  @Option(name = "-e", usage = "Parsing engine: HTMLUNIT (default) or NEKO", aliases = {
+      "--engine" }, required = false)
+  private ExtractionEngine.Type engineType = ExtractionEngine.Type.HTMLUNIT;
+
+  @Option(name = "-rt", usage = "Only run the host patterns for the site each page is from, when that can be told", aliases = {
+      "--route" }, required = false)
+  private boolean route = false;
+
+  private ExtractionEngine engine = null;
+
+  private PageLimits limits = PageLimits.NONE;
+
+  // the limits the current page has reached, and when its time budget ends
+  private final EnumSet<PageLimits.Limit> limitsHit = EnumSet
+      .noneOf(PageLimits.Limit.class);
+
+  private long deadline = Long.MAX_VALUE;
+
+  private HostRouter router = null;
+
+  // the patterns the router was built for
+  private PatternRegistry routerPatterns = null;
+
+  // the source of the current patterns when they are reloaded as they change
+  private PatternWatcher patternWatcher = null;
+
+  // canonicalizes usernames across pages, when set
+  private PersonaDictionary dictionary = null;
+
+  // reused by the username normalizers for each username they build
+  private final StringBuilder scratch = new StringBuilder();
+
+  // an in-memory page, used instead of {@link #page} when set
+  private byte[] pageContent = null;
+
+  private String pageUri = null;
+
+  // the charset the in-memory page was served with, or null to sniff it
+  private Charset pageCharset = null;
+
+  // the current page as read by {@link #readPage()}, parsed from when set
+  private ByteBuffer pageBuffer = null;
+
   // receives other command line parameters than options
   @Argument
   private List<String> arguments = new ArrayList<String>();
@@ -71,33 +118,67 @@ public class PersonaExtractor {
   public PersonaExtractor() {
   }
 
+  /**
+   * Extracts personas from {@link #page} for every configured host pattern
+   * (or only {@link #host}, if set, or with {@link #route} only those the
+   * {@link HostRouter} picks for the page). The page is parsed exactly once
+   * and each XPath selector is evaluated against that single DOM, so the
+   * cost of parsing does not grow with the number of patterns. All of them
+   * are evaluated from one snapshot of the patterns, even if a
+   * {@link PatternWatcher} swaps in a new one meanwhile. A page that reaches
+   * one of the {@link PageLimits} gets truncated personas rather than
+   * failing.
+   * 
+   * @return A map of host pattern key to the {@link Persona} it extracted.
+   * @throws IOException
+   *           If there is an error reading the pattern config file.
+   */
   public Map<String, Persona> obtainPersonasForAllHosts()
       throws FailingHttpStatusCodeException, MalformedURLException,
       IOException {
-    if (this.patterns == null
-        || (this.patterns != null && this.patterns.isEmpty()))
-      initPatterns();
-
+    PatternRegistry patterns = getPatterns();
     Map<String, Persona> personaMap = new HashMap<String, Persona>();
-    LOG.info(
-        "Scanning patterns: Num Patterns: [" + this.patterns.keySet().size()
-            + "]: Config File: [" + this.configFile.getAbsolutePath() + "]");
-    for (String patternKey : this.patterns.keySet()) {
+    String pageId = getPageId();
+    boolean logged = LoggingMode.isPageLogged(LOG, Level.INFO, pageId);
+    if (logged) {
+      LOG.info(
+          "Scanning patterns: Num Patterns: [" + patterns.size()
+              + "]: Config File: [" + patterns.getConfigFile().getAbsolutePath() + "]");
+    }
+    Node document = parsePage();
+    Collection<String> hostKeys = patterns.getHostKeys();
+    if (this.route && this.host == null) {
+      if (this.routerPatterns != patterns) {
+        this.router = new HostRouter(patterns);
+        this.routerPatterns = patterns;
+      }
+      List<String> routed = this.router.route(pageId, document);
+      ExtractionMetrics.get().recordRoute(routed != null);
+      if (routed != null) {
+        hostKeys = routed;
+      }
+    }
+    for (String patternKey : hostKeys) {
       boolean skipPattern = false;
       if (this.host != null && !patternKey.equals(host)) skipPattern = true;
         if (!skipPattern){
-          LOG.info("Extracting persons for pattern: [" + this.patterns.get(host)
-              + "]: hostPatternKey: [" + patternKey + "]");
-          Persona persona = obtainPersonas(patternKey);
-          LOG.info("Extracted persona: " + persona);
+          if (logged) {
+            LOG.info("Extracting persons for pattern: [" + patterns.getPattern(patternKey)
+                + "]: hostPatternKey: [" + patternKey + "]");
+          }
+          Persona persona = extractPersona(document, patternKey, patterns);
+          if (logged) {
+            LOG.info("Extracted persona: " + persona);
+          }
           personaMap.put(patternKey, persona);
         }
-        else{
+        else if (LoggingMode.isPageLogged(LOG, Level.WARNING, pageId)) {
           LOG.warning("Filtering patternKey: [" + patternKey
               + "]: selected host patterns: [" + this.host
               + "]: skipping persona extraction.");
         }
     }
+    recordLimits(pageId);
 
     return personaMap;
   }
@@ -105,61 +186,190 @@ public class PersonaExtractor {
   public Persona obtainPersonas(String host)
       throws FailingHttpStatusCodeException, MalformedURLException,
       IOException {
-    if (this.patterns == null
-        || (this.patterns != null && this.patterns.isEmpty()))
-      initPatterns();
-
-    WebClient webClient = new WebClient();
-    webClient.getOptions().setJavaScriptEnabled(false);
-    webClient.getOptions().setThrowExceptionOnFailingStatusCode(false);
-    webClient.getOptions().setThrowExceptionOnScriptError(false);
-    HtmlPage htmlPage = null;
-    Persona persona = new Persona();
-    persona.setHostPatternKey(host);
-    ;
-    persona.setPageId(page.toURI().toString());
+    PatternRegistry patterns = getPatterns();
+    Persona persona = extractPersona(parsePage(), host, patterns);
+    recordLimits(getPageId());
+    return persona;
+  }
+
+  /**
+   * Releases the parsing engine. The extractor may still be used afterwards,
+   * a new engine is created on demand.
+   */
+  public void close() {
+    if (this.engine != null) {
+      this.engine.close();
+      this.engine = null;
+    }
+  }
 
+  /**
+   * Reads the current page through the parsing engine, so its bytes can be
+   * hashed without reading the file onto the heap. The page is then parsed
+   * from the same buffer rather than read again.
+   *
+   * @return the page bytes up to the byte limit, as they will be parsed;
+   *         only valid until the page is extracted or changed
+   * @throws IOException
+   *           If the page cannot be read.
+   */
+  public ByteBuffer readPage() throws IOException {
+    ByteBuffer content = readWholePage();
+    if (this.limits.exceedsBytes(content.remaining())) {
+      content.limit(content.position() + (int) this.limits.getMaxBytes());
+    }
+    return content;
+  }
+
+  /**
+   * Reads the current page like {@link #readPage()}, but all of it, whatever
+   * the byte limit.
+   *
+   * @return all the page bytes; only valid until the page is extracted or
+   *         changed
+   * @throws IOException
+   *           If the page cannot be read.
+   */
+  public ByteBuffer readWholePage() throws IOException {
+    if (this.pageBuffer == null) {
+      this.pageBuffer = this.pageContent != null
+          ? ByteBuffer.wrap(this.pageContent) : engine().read(this.page);
+    }
+    return this.pageBuffer.duplicate();
+  }
+
+  private ExtractionEngine engine() {
+    if (this.engine == null) {
+      this.engine = this.engineType.newEngine();
+      this.engine.setLimits(this.limits);
+    }
+    return this.engine;
+  }
+
+  private Node parsePage() {
+    engine();
+    ByteBuffer buffer = this.pageBuffer;
+    this.pageBuffer = null;
+    long start = System.nanoTime();
+    this.limitsHit.clear();
+    this.deadline = this.limits.deadline(start);
+    long length = this.pageContent != null ? this.pageContent.length
+        : this.page.length();
+    if (this.limits.exceedsBytes(length)) {
+      this.limitsHit.add(PageLimits.Limit.BYTES);
+    }
     try {
-      htmlPage = webClient.getPage(page.toURL());
+      Node document;
+      if (buffer != null) {
+        document = this.engine.parse(buffer, getPageId(), this.pageCharset);
+      } else if (this.pageContent != null) {
+        document = this.engine.parse(ByteBuffer.wrap(this.pageContent),
+            this.pageUri, this.pageCharset);
+      } else {
+        document = this.engine.parse(page);
+      }
+      ExtractionMetrics.get().recordParse(System.nanoTime() - start);
+      PageLimits.Limit reached = this.engine.getLimitReached();
+      if (reached != null) {
+        this.limitsHit.add(reached);
+      }
+      return document;
     } catch (Exception e) {
-      e.printStackTrace(System.out);
-      webClient.close();
+      ExtractionMetrics.get().parseFailed();
+      LOG.log(Level.WARNING, "Unable to parse page: [" + getPageId() + "]: "
+          + e.getMessage(), e);
+      return null;
+    }
+  }
+
+  private Persona extractPersona(Node document, String host,
+      PatternRegistry patterns) {
+    HostPattern pattern = patterns.getPattern(host);
+    UsernameNormalizer normalizer = patterns.getNormalizer(host);
+    Persona persona = new Persona();
+    persona.setHostPatternKey(host);
+    persona.setPageId(getPageId());
+    persona.setPatternVersion(patterns.getVersion());
+    if (!this.limitsHit.isEmpty()) {
+      // cut short while reading or parsing
+      persona.setTruncated(true);
+    }
+    if (document == null || pattern == null) {
+      return persona;
+    }
+    if (System.nanoTime() > this.deadline) {
+      this.limitsHit.add(PageLimits.Limit.TIME);
+      persona.setTruncated(true);
       return persona;
     }
 
-    String pattern = patterns.get(host);
-    boolean isAnchor = false;
-    if (pattern.contains("@href")) {
-      isAnchor = true;
+    Iterator<Object> elements = null;
+    long start = System.nanoTime();
+    try {
+      // lazily, so the loop below stops the evaluation at a limit
+      elements = pattern.iterate(document);
+    } catch (XPathExpressionException e) {
+      ExtractionMetrics.get().patternFailed();
+      LOG.warning("Unable to evaluate pattern: [" + pattern.getExpression()
+          + "]: hostPatternKey: [" + host + "]: " + e.getMessage());
+      return persona;
     }
 
-    List<?> elements = htmlPage.getByXPath(patterns.get(host));
-    for (int i = 0; i < elements.size(); i++) {
+    int maxUsernames = this.limits.getMaxUsernames();
+    while (elements.hasNext()) {
+      if (System.nanoTime() > this.deadline) {
+        this.limitsHit.add(PageLimits.Limit.TIME);
+        persona.setTruncated(true);
+        break;
+      }
+      Object element = elements.next();
       String username = null;
-      if (isAnchor) {
-        String link = ((HtmlAnchor) elements.get(i)).getHrefAttribute();
-        if (isUserLink(link)) {
-          int index = link.lastIndexOf('/');
-          username = link.substring(index + 1);
+      if (pattern.getResultType() == HostPattern.ResultType.ANCHOR) {
+        // selectors like //*[contains(@href,...)] also match <link> etc.
+        if (element instanceof Element) {
+          username = normalizer.fromLink(
+              ((Element) element).getAttribute("href"), this.scratch);
         }
       } else {
-        if (elements.get(i) instanceof String) {
-          username = ((String) elements.get(i)).trim();
-        } else {
-          username = ((DomNode) elements.get(i)).asText();
+        if (element instanceof String) {
+          username = normalizer.fromText((String) element, this.scratch);
+        } else if (element instanceof Node) {
+          username = normalizer.fromText(this.engine.getText((Node) element),
+              this.scratch);
         }
       }
 
-      if (username != null && !username.equals("")) {
-        persona.getUsernames().add(username);
+      if (username != null) {
+        if (this.dictionary != null) {
+          username = this.dictionary.intern(username);
+        }
+        List<String> usernames = persona.getUsernames();
+        if (maxUsernames > 0 && usernames.size() >= maxUsernames
+            && !usernames.contains(username)) {
+          this.limitsHit.add(PageLimits.Limit.USERNAMES);
+          persona.setTruncated(true);
+          break;
+        }
+        usernames.add(username);
       }
 
     }
+    ExtractionMetrics.get().recordPattern(host, System.nanoTime() - start);
 
-    webClient.close();
     return persona;
   }
 
+  private void recordLimits(String pageId) {
+    if (this.limitsHit.isEmpty()) {
+      return;
+    }
+    ExtractionMetrics.get().recordTruncated(this.limitsHit);
+    if (LoggingMode.isPageLogged(LOG, Level.WARNING, pageId)) {
+      LOG.warning("Page: [" + pageId + "]: reached limits: " + this.limitsHit
+          + " " + this.limits + ": personas truncated.");
+    }
+  }
+
   public static void main(String[] args) throws FailingHttpStatusCodeException,
       MalformedURLException, IOException {
     PersonaExtractor extractor = new PersonaExtractor();
@@ -174,7 +384,7 @@ public class PersonaExtractor {
 
         for (String personaHost : personas.keySet()) {
           LOG.info("Host: [" + personaHost + "]: Personas: "
-              + personas.get(host).getUsernames());
+              + personas.get(personaHost).getUsernames());
         }
       } else {
         persona = extractor.obtainPersonas(extractor.getHost());
@@ -183,6 +393,8 @@ public class PersonaExtractor {
 
     } catch (CmdLineException e) {
       // don't move on
+    } finally {
+      extractor.close();
     }
   }
 
@@ -202,27 +414,19 @@ public class PersonaExtractor {
     }
   }
 
-  private void initPatterns() throws FileNotFoundException, IOException {
-    if (this.configFile != null) {
-      Properties props = new Properties();
-      props.load(new FileInputStream(this.configFile));
-      for (Object prop : props.keySet()) {
-        String propString = (String) prop;
-        LOG.finest("Adding pattern: [" + props.getProperty(propString)
-            + "] for host: [" + propString + "]");
-        this.patterns.put(propString, props.getProperty(propString));
-      }
+  /**
+   * @return the patterns the next page will be extracted with
+   * @throws IOException
+   *           If the pattern config file cannot be read.
+   */
+  public PatternRegistry getPatterns() throws IOException {
+    if (this.patternWatcher != null) {
+      return this.patternWatcher.get();
     }
-  }
-
-  private boolean isUserLink(String link) {
-    if (link.toLowerCase().contains("php")) {
-      return false;
-    } else if (link.toLowerCase().contains("?")) {
-      return false;
-    } else
-      return true;
-
+    if (this.patterns == null) {
+      this.patterns = PatternRegistry.getInstance(this.configFile);
+    }
+    return this.patterns;
   }
 
   /**
@@ -238,6 +442,62 @@ public class PersonaExtractor {
    */
   public void setPage(File page) {
     this.page = page;
+    this.pageContent = null;
+    this.pageUri = null;
+    this.pageCharset = null;
+    this.pageBuffer = null;
+  }
+
+  /**
+   * Extracts from a page held in memory rather than a local file, e.g. one
+   * just fetched. Its personas get <code>uri</code> as their page id.
+   *
+   * @param content
+   *          the raw page bytes
+   * @param uri
+   *          the address the page was fetched from
+   */
+  public void setPage(byte[] content, String uri) {
+    setPage(content, uri, null);
+  }
+
+  /**
+   * @param content
+   *          the raw page bytes
+   * @param uri
+   *          the address the page was fetched from
+   * @param charset
+   *          the charset the page was served with, or null to sniff it
+   */
+  public void setPage(byte[] content, String uri, Charset charset) {
+    this.page = null;
+    this.pageContent = content;
+    this.pageUri = uri;
+    this.pageCharset = charset;
+    this.pageBuffer = null;
+  }
+
+  /**
+   * @param record
+   *          the page to extract from, a local file or an in-memory record
+   */
+  public void setPage(PageRecord record) {
+    if (record.getFile() != null) {
+      setPage(record.getFile());
+    } else {
+      setPage(record.getContent(), record.getUri(), record.getCharset());
+    }
+  }
+
+  /**
+   * @return the id personas from the current page get: its URI, or the
+   *         address it was fetched from
+   */
+  public String getPageId() {
+    if (this.pageContent != null) {
+      return this.pageUri;
+    }
+    return this.page != null ? this.page.toURI().toString() : null;
   }
 
   /**
@@ -253,6 +513,26 @@ public class PersonaExtractor {
    */
   public void setConfigFile(File configFile) {
     this.configFile = configFile;
+    this.patterns = null;
+  }
+
+  /**
+   * @param patterns
+   *          the pattern registry to extract with, overriding
+   *          {@link #configFile}
+   */
+  public void setPatternRegistry(PatternRegistry patterns) {
+    this.patterns = patterns;
+  }
+
+  /**
+   * @param patternWatcher
+   *          the watcher to take the current patterns from for each page,
+   *          overriding {@link #configFile} and any pattern registry set, or
+   *          null
+   */
+  public void setPatternWatcher(PatternWatcher patternWatcher) {
+    this.patternWatcher = patternWatcher;
   }
 
   /**
@@ -269,4 +549,70 @@ public class PersonaExtractor {
   public void setHost(String host) {
     this.host = host;
   }
+
+  /**
+   * @return the engineType
+   */
+  public ExtractionEngine.Type getEngineType() {
+    return engineType;
+  }
+
+  /**
+   * @param engineType
+   *          the engineType to set
+   */
+  public void setEngineType(ExtractionEngine.Type engineType) {
+    close();
+    this.engineType = engineType;
+  }
+
+  /**
+   * @return the route
+   */
+  public boolean isRoute() {
+    return route;
+  }
+
+  /**
+   * @param route
+   *          whether to only run the host patterns routed to for each page
+   */
+  public void setRoute(boolean route) {
+    this.route = route;
+  }
+
+  /**
+   * @return the limits
+   */
+  public PageLimits getLimits() {
+    return limits;
+  }
+
+  /**
+   * @param limits
+   *          the per-page limits to extract within, {@link PageLimits#NONE}
+   *          for none
+   */
+  public void setLimits(PageLimits limits) {
+    this.limits = limits;
+    if (this.engine != null) {
+      this.engine.setLimits(limits);
+    }
+  }
+
+  /**
+   * @return the dictionary, or null
+   */
+  public PersonaDictionary getDictionary() {
+    return dictionary;
+  }
+
+  /**
+   * @param dictionary
+   *          the run wide dictionary to canonicalize usernames through, or
+   *          null for none
+   */
+  public void setDictionary(PersonaDictionary dictionary) {
+    this.dictionary = dictionary;
+  }
 }
@@ -18,16 +18,21 @@
 package edu.usc.ir;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.http.auth.AuthScope;
@@ -48,9 +53,7 @@ import com.gargoylesoftware.htmlunit.FailingHttpStatusCodeException;
 
 public class PersonaIndexer {
 
-  private Map<String, String> patterns = new HashMap<String, String>();
-
-  @Option(name = "-d", usage = "Web Page Directory", aliases = {
+  @Option(name = "-d", usage = "Web Page Directory, or a .zip, .tar(.gz) or .warc(.gz) archive of pages", aliases = {
       "--webPageDir" }, required = true)
   private File pageDir = null;
 
@@ -62,6 +65,18 @@ public class PersonaIndexer {
       "--hostPatterns" }, required = false)
   private String host;
 
+  @Option(name = "-in", usage = "Glob of pages to index relative to the page directory, e.g. **/*.html (repeatable)", aliases = {
+      "--include" }, required = false)
+  private List<String> includes = new ArrayList<String>();
+
+  @Option(name = "-ex", usage = "Glob of pages or directories to skip relative to the page directory (repeatable)", aliases = {
+      "--exclude" }, required = false)
+  private List<String> excludes = new ArrayList<String>();
+
+  @Option(name = "-e", usage = "Parsing engine: HTMLUNIT (default) or NEKO", aliases = {
+      "--engine" }, required = false)
+  private ExtractionEngine.Type engineType = ExtractionEngine.Type.HTMLUNIT;
+
   @Option(name = "-u", usage = "Solr Username", aliases = { "--user" })
   private String username = null;
 
@@ -72,83 +87,496 @@ public class PersonaIndexer {
       "--solrUrl" }, required = true)
   private URL solrUrl = null;
 
+  @Option(name = "-t", usage = "Number of extraction threads, default 1", aliases = {
+      "--threads" }, required = false)
+  private int threads = 1;
+
+  @Option(name = "-ce", usage = "Commit every N documents, default only at the end", aliases = {
+      "--commitEvery" }, required = false)
+  private long commitEvery = 0;
+
+  @Option(name = "-ci", usage = "Commit every T seconds, default only at the end", aliases = {
+      "--commitInterval" }, required = false)
+  private long commitInterval = 0;
+
+  @Option(name = "-cw", usage = "Solr commitWithin in milliseconds sent with each document", aliases = {
+      "--commitWithin" }, required = false)
+  private int commitWithin = 0;
+
+  @Option(name = "-bs", usage = "Documents per Solr add request, default 100", aliases = {
+      "--batchSize" }, required = false)
+  private int batchSize = 100;
+
+  @Option(name = "-bt", usage = "Maximum milliseconds a document waits for its batch, default 5000", aliases = {
+      "--batchTime" }, required = false)
+  private long batchTime = 5000;
+
+  @Option(name = "-mi", usage = "Seconds between metrics summaries, default 0 (only at the end)", aliases = {
+      "--metricsInterval" }, required = false)
+  private long metricsInterval = 0;
+
+  @Option(name = "-mf", usage = "CSV file to append the metrics summaries to", aliases = {
+      "--metricsFile" }, required = false)
+  private File metricsFile = null;
+
+  @Option(name = "-st", usage = "Background Solr sender threads, default 0 (send on the extraction thread)", aliases = {
+      "--senderThreads" }, required = false)
+  private int senderThreads = 0;
+
+  @Option(name = "-ck", usage = "Checkpoint log of indexed pages and their content hashes; unchanged pages are skipped", aliases = {
+      "--checkpoint" }, required = false)
+  private File checkpointFile = null;
+
+  private final AtomicLong pagesIndexed = new AtomicLong();
+
+  private final AtomicLong pagesSkipped = new AtomicLong();
+
+  private CheckpointStore checkpoint = null;
+
+  private ExtractionOptions options = new ExtractionOptions();
+
+  private PersonaDictionary dictionary = null;
+
+  private PageDedupCache dedupCache = null;
+
+  // content hashes of pages submitted but not yet acknowledged by Solr
+  private final ConcurrentMap<String, String> pendingHashes = new ConcurrentHashMap<String, String>();
+
+  private CommitPolicy commitPolicy = null;
+
+  private SolrBatchSubmitter submitter = null;
+
+  private SolrServer server = null;
+
+  private CloseableHttpClient httpClient = null;
+
   // receives other command line parameters than options
   @Argument
   private List<String> arguments = new ArrayList<String>();
 
   private static final String USAGE = "java PersonaIndexer [options...] arguments...";
 
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
   private Logger LOG = Logger.getLogger(PersonaIndexer.class.getName());
 
   public void indexAllPersonas() throws FailingHttpStatusCodeException,
       MalformedURLException, IOException, SolrServerException {
-    PersonaExtractor extractor = new PersonaExtractor();
-    extractor.setConfigFile(this.configFile);
-    extractor.setHost(this.host);
-
-    if (this.pageDir.exists() && this.pageDir.isDirectory()) {
-      for (File page : this.pageDir.listFiles()) {
-        extractor.setPage(page);
-
-        if (this.host != null && !this.host.equals("")) {
-          Persona persona = extractor.obtainPersonas(this.host);
-          LOG.info("Obtained personas: [" + persona.toString()
-              + "]: for page: [" + persona.getPageId() + "] indexing.");
-          indexPersona(persona);
-        } else {
-          Map<String, Persona> personas = extractor.obtainPersonasForAllHosts();
-          Persona aggregate = collect(personas);
-          if (!aggregate.getUsernames().isEmpty()) {
-            LOG.info("Obtained personas: [" + aggregate.toString()
-                + "]: for page: [" + aggregate.getPageId() + "] indexing.");
-            indexPersona(aggregate);
+    final PatternRegistry patterns = PatternRegistry.getInstance(this.configFile);
+    final PatternWatcher watcher = this.options
+        .newPatternWatcher(this.configFile);
+    final PersonaDictionary dictionary = getDictionary();
+    final List<PersonaExtractor> extractors = Collections
+        .synchronizedList(new ArrayList<PersonaExtractor>());
+    // each worker thread gets its own extractor (and parsing engine)
+    final ThreadLocal<PersonaExtractor> workerExtractor = new ThreadLocal<PersonaExtractor>() {
+      @Override
+      protected PersonaExtractor initialValue() {
+        PersonaExtractor extractor = new PersonaExtractor();
+        extractor.setPatternRegistry(patterns);
+        extractor.setPatternWatcher(watcher);
+        extractor.setHost(host);
+        extractor.setEngineType(engineType);
+        options.configure(extractor);
+        extractor.setDictionary(dictionary);
+        extractors.add(extractor);
+        return extractor;
+      }
+    };
+
+    this.pagesIndexed.set(0);
+    this.pagesSkipped.set(0);
+    if (this.checkpointFile != null) {
+      this.checkpoint = new CheckpointStore(this.checkpointFile);
+    }
+    MetricsReporter reporter = new MetricsReporter(ExtractionMetrics.get(),
+        this.metricsInterval, this.metricsFile);
+    long start = System.currentTimeMillis();
+    try {
+      if (this.pageDir.exists()) {
+        PageSource source = PageSource.open(this.pageDir, this.includes,
+            this.excludes, this.options.getLimits().getMaxBytes());
+        try {
+          if (this.threads <= 1) {
+            PageRecord page;
+            while ((page = source.next()) != null) {
+              indexPage(workerExtractor.get(), page);
+            }
+          } else {
+            indexPagesInParallel(source, workerExtractor);
+          }
+        } finally {
+          source.close();
+        }
+      }
+    } finally {
+      for (PersonaExtractor extractor : extractors) {
+        extractor.close();
+      }
+      if (watcher != null) {
+        watcher.close();
+      }
+      try {
+        close();
+      } finally {
+        try {
+          if (this.checkpoint != null) {
+            this.checkpoint.close();
+            this.checkpoint = null;
           }
+        } finally {
+          reporter.close();
+        }
+      }
+    }
 
+    long elapsed = Math.max(1, System.currentTimeMillis() - start);
+    LOG.info("Processed [" + this.pagesIndexed.get() + "] pages in ["
+        + elapsed / 1000.0 + "] secs with [" + Math.max(1, this.threads)
+        + "] threads: [" + String.format("%.2f",
+            this.pagesIndexed.get() * 1000.0 / elapsed)
+        + "] pages/sec: skipped (unchanged): [" + this.pagesSkipped.get()
+        + "]");
+  }
+
+  private void indexPagesInParallel(PageSource pages,
+      final ThreadLocal<PersonaExtractor> workerExtractor)
+      throws IOException, SolrServerException {
+    // bounded queue: block the directory walk instead of queueing every page
+    BoundedExecutor executor = new BoundedExecutor(this.threads,
+        this.threads * 4, "extractor");
+    final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+    try {
+      PageRecord next;
+      while ((next = pages.next()) != null) {
+        if (failure.get() != null) {
+          break;
         }
+        final PageRecord page = next;
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            if (failure.get() != null) {
+              return;
+            }
+            try {
+              indexPage(workerExtractor.get(), page);
+            } catch (Exception e) {
+              failure.compareAndSet(null, e);
+            }
+          }
+        });
+      }
+    } finally {
+      executor.shutdownAndWait();
+    }
+
+    Exception e = failure.get();
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    } else if (e instanceof SolrServerException) {
+      throw (SolrServerException) e;
+    } else if (e != null) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Extracts personas from one page and submits them to Solr, unless the
+   * checkpoint shows the page unchanged since it was indexed. With a dedup
+   * cache, a page with the same content as one already extracted reuses
+   * that result instead of being parsed.
+   *
+   * @param extractor
+   *          The extractor to use, not shared with other threads.
+   * @param page
+   *          The page.
+   * @throws IOException
+   *           If the page or patterns cannot be read.
+   * @throws SolrServerException
+   *           If there is a Solr error.
+   */
+  void indexPage(PersonaExtractor extractor, PageRecord page)
+      throws IOException, SolrServerException {
+    String pageId = page.getUri();
+    PageDedupCache cache = getDedupCache();
+    extractor.setPage(page);
+    ByteBuffer parsed = null;
+    PageDedupCache.Fingerprint fingerprint = null;
+    if (cache != null) {
+      // hashes the engine's own (mapped or direct) buffer, up to the byte
+      // limit, which the page is then parsed from
+      parsed = extractor.readPage();
+      fingerprint = cache.fingerprint(parsed);
+    }
+    String hash = null;
+    if (this.checkpoint != null) {
+      hash = checkpointHash(extractor, parsed, fingerprint);
+      if (this.checkpoint.isIndexed(pageId, hash)) {
+        this.pagesSkipped.incrementAndGet();
+        return;
+      }
+      // recorded once Solr accepts the batch, see checkpointListener()
+      this.pendingHashes.put(pageId, hash);
+    }
+    Persona persona = cache != null ? cache.get(fingerprint, pageId,
+        extractor.getPatterns().getVersion()) : null;
+    if (persona == null) {
+      long start = System.nanoTime();
+      persona = extract(extractor);
+      if (cache != null) {
+        cache.put(fingerprint, persona, System.nanoTime() - start);
+      }
+    }
+    index(persona);
+    if (hash != null && persona.getUsernames().isEmpty()) {
+      // nothing was sent, so nothing to wait for
+      this.pendingHashes.remove(pageId);
+      this.checkpoint.recordIndexed(pageId, hash);
+    }
+  }
+
+  /**
+   * @return a hash of everything the page's personas depend on: all of the
+   *         page's bytes, whatever the byte limit, the version of the
+   *         patterns, which of them are run and the page limits, so a change
+   *         to any of these has the page extracted again
+   */
+  String checkpointHash(PersonaExtractor extractor, ByteBuffer parsed,
+      PageDedupCache.Fingerprint fingerprint) throws IOException {
+    ByteBuffer whole = extractor.readWholePage();
+    // the dedup fingerprint already hashed the page, unless the limit cut it
+    String content = fingerprint != null
+        && parsed.remaining() == whole.remaining() ? fingerprint.getSha1()
+            : ContentHash.sha1(whole);
+    String hostKeys = this.host != null && !this.host.equals("")
+        ? "host:" + this.host : this.options.isRoute() ? "routed" : "all";
+    String key = content + "\t" + extractor.getPatterns().getVersion() + "\t"
+        + hostKeys + "\t" + this.options.getLimits();
+    return ContentHash.sha1(key.getBytes(UTF_8));
+  }
+
+  /**
+   * Extracts personas from the page <code>extractor</code> is set to, for
+   * {@link #host}, or every host pattern, merged.
+   */
+  private Persona extract(PersonaExtractor extractor) throws IOException {
+    if (this.host != null && !this.host.equals("")) {
+      return extractor.obtainPersonas(this.host);
+    }
+    return collect(extractor.obtainPersonasForAllHosts());
+  }
 
+  /**
+   * Submits <code>persona</code> to Solr, if there is anything to send, and
+   * counts the page.
+   */
+  private void index(Persona persona)
+      throws IOException, SolrServerException {
+    // with every host pattern, pages without personas are not sent
+    if (this.host != null && !this.host.equals("")
+        || !persona.getUsernames().isEmpty()) {
+      if (LoggingMode.isPageLogged(LOG, Level.INFO, persona.getPageId())) {
+        LOG.info("Obtained personas: [" + persona.toString()
+            + "]: for page: [" + persona.getPageId() + "] indexing.");
       }
+      indexPersona(persona);
     }
 
+    ExtractionMetrics.get().recordPage(persona.getUsernames().size());
+    if (this.dictionary != null && !persona.getUsernames().isEmpty()) {
+      this.dictionary.recordPage(persona.getPageId(), persona.getUsernames());
+    }
+
+    long processed = this.pagesIndexed.incrementAndGet();
+    if (processed % 1000 == 0) {
+      LOG.info("Processed [" + processed + "] pages.");
+    }
   }
 
-  @SuppressWarnings("deprecation")
   public void indexPersona(Persona persona)
       throws FileNotFoundException, IOException, SolrServerException {
 
     String pageId = persona.getPageId();
-    SolrServer server = null;
-    if (this.username != null && this.password != null) {
-      BasicCredentialsProvider provider = new BasicCredentialsProvider();
-      UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(
-          this.username, this.password);
-      provider.setCredentials(AuthScope.ANY, credentials);
-      CloseableHttpClient client = HttpClientBuilder.create()
-          .setDefaultCredentialsProvider(provider).build();
-      server = new HttpSolrServer(solrUrl.toString(), client);
-    } else {
-      server = new HttpSolrServer(solrUrl.toString());
+    boolean logged = LoggingMode.isPageLogged(LOG, Level.INFO, pageId);
+    if (persona.getUsernames().size() > 0) {
+      getSubmitter().submit(toSolrDocument(persona));
+      if (logged) {
+        LOG.info("Indexing: Page Id: [" + pageId + "]: Host: [" + host
+            + "]: Personas: " + persona.getUsernames() + " to Solr: ["
+            + this.solrUrl.toString() + "]");
+      }
+    } else if (logged) {
+      LOG.info("Page Id: [" + pageId + "]: No persons extracted.");
+    }
+  }
+
+  /**
+   * Builds the Solr document for a persona with at least one username.
+   *
+   * @param persona
+   *          The persona to index.
+   * @return Its <code>id</code>, <code>persons</code>, <code>host</code>
+   *         and <code>pattern_version</code> fields, and
+   *         <code>truncated</code> if a page limit was reached.
+   */
+  static SolrInputDocument toSolrDocument(Persona persona) {
+    SolrInputDocument doc = new SolrInputDocument();
+    doc.addField("id", persona.getPageId());
+    doc.addField("persons", persona.getUsernames());
+    doc.addField("host", persona.getHostPatternKey());
+    if (persona.getPatternVersion() != null) {
+      doc.addField("pattern_version", persona.getPatternVersion());
     }
+    if (persona.isTruncated()) {
+      doc.addField("truncated", true);
+    }
+    return doc;
+  }
 
-    if (this.patterns == null
-        || (this.patterns != null && this.patterns.isEmpty()))
-      initPatterns();
+  /**
+   * Commits any documents sent since the last commit. Documents still
+   * buffered for a batch are not included.
+   *
+   * @throws IOException
+   *           If there is an error talking to Solr.
+   * @throws SolrServerException
+   *           If Solr fails the commit.
+   */
+  public void commit() throws IOException, SolrServerException {
+    getSubmitter().commit();
+  }
 
-    if (persona.getUsernames().size() > 0) {
-      String hostPatternKey = persona.getHostPatternKey();
-      SolrInputDocument doc = new SolrInputDocument();
-      List<String> users = persona.getUsernames();
-      doc.addField("id", pageId);
-      doc.addField("persons", users);
-      doc.addField("host", hostPatternKey);
-      server.add(doc);
-      LOG.info("Indexing: Page Id: [" + pageId + "]: Host: [" + host
-          + "]: Personas: " + users + " to Solr: [" + this.solrUrl.toString()
-          + "]");
-    } else {
-      LOG.info("Page Id: [" + pageId + "]: No persons extracted.");
+  /**
+   * Sends any buffered documents, commits and releases the Solr connection
+   * pool.
+   *
+   * @throws IOException
+   *           If there is an error talking to Solr.
+   * @throws SolrServerException
+   *           If Solr fails the final commit.
+   */
+  public synchronized void close() throws IOException, SolrServerException {
+    try {
+      if (this.submitter != null) {
+        try {
+          this.submitter.close();
+        } finally {
+          this.server.shutdown();
+          this.httpClient.close();
+          this.submitter = null;
+          this.server = null;
+          this.httpClient = null;
+        }
+      }
+    } finally {
+      try {
+        if (this.dictionary != null) {
+          this.dictionary.close();
+          this.dictionary = null;
+        }
+      } finally {
+        if (this.dedupCache != null) {
+          this.dedupCache.close();
+          this.dedupCache = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the persona dictionary for this run, opened on first use, or
+   *         null if the options ask for none
+   * @throws IOException
+   *           If the summary file cannot be created.
+   */
+  synchronized PersonaDictionary getDictionary() throws IOException {
+    if (this.dictionary == null) {
+      this.dictionary = this.options.newDictionary();
+    }
+    return this.dictionary;
+  }
+
+  /**
+   * @return the page dedup cache for this run, created on first use, or null
+   *         if the options ask for none
+   * @throws IOException
+   *           If the spill file cannot be created.
+   */
+  synchronized PageDedupCache getDedupCache() throws IOException {
+    if (this.dedupCache == null) {
+      this.dedupCache = this.options.newDedupCache();
+    }
+    return this.dedupCache;
+  }
+
+  private synchronized SolrBatchSubmitter getSubmitter() {
+    if (this.submitter == null) {
+      int connections = Math.max(2, (this.threads + this.senderThreads) * 2);
+      HttpClientBuilder builder = HttpClientBuilder.create()
+          .setMaxConnTotal(connections).setMaxConnPerRoute(connections);
+      if (this.username != null && this.password != null) {
+        BasicCredentialsProvider provider = new BasicCredentialsProvider();
+        UsernamePasswordCredentials credentials = new UsernamePasswordCredentials(
+            this.username, this.password);
+        provider.setCredentials(AuthScope.ANY, credentials);
+        builder.setDefaultCredentialsProvider(provider);
+      }
+      this.httpClient = builder.build();
+      this.server = new HttpSolrServer(solrUrl.toString(), this.httpClient);
+      this.submitter = new SolrBatchSubmitter(this.server, getCommitPolicy(),
+          this.batchSize, this.batchTime, this.senderThreads);
+      if (this.checkpoint != null) {
+        this.submitter.addListener(checkpointListener());
+      }
+      LOG.info("Connected to Solr: [" + solrUrl.toString()
+          + "]: max connections: [" + connections + "]: commit policy: "
+          + getCommitPolicy() + ": batch size: [" + this.batchSize
+          + "]: batch time: [" + this.batchTime + "] ms: sender threads: ["
+          + this.senderThreads + "]");
     }
+    return this.submitter;
+  }
+
+  /**
+   * Checkpoints pages once their batch is accepted by Solr; pages in failed
+   * batches are left out so the next run retries them.
+   */
+  private SolrBatchSubmitter.BatchListener checkpointListener() {
+    return new SolrBatchSubmitter.BatchListener() {
+      @Override
+      public void batchSent(List<SolrInputDocument> batch) {
+        for (SolrInputDocument doc : batch) {
+          String pageId = String.valueOf(doc.getFieldValue("id"));
+          String hash = pendingHashes.remove(pageId);
+          if (hash != null) {
+            try {
+              checkpoint.recordIndexed(pageId, hash);
+            } catch (IOException e) {
+              LOG.log(Level.SEVERE, "Unable to checkpoint page: [" + pageId
+                  + "]: " + e.getMessage(), e);
+            }
+          }
+        }
+      }
+
+      @Override
+      public void batchFailed(List<SolrInputDocument> batch, Exception cause) {
+        for (SolrInputDocument doc : batch) {
+          pendingHashes.remove(String.valueOf(doc.getFieldValue("id")));
+        }
+      }
+    };
+  }
 
-    server.commit();
+
+  private CommitPolicy getCommitPolicy() {
+    if (this.commitPolicy == null) {
+      this.commitPolicy = new CommitPolicy(this.commitEvery,
+          this.commitInterval * 1000L, this.commitWithin);
+    }
+    return this.commitPolicy;
   }
 
   public static void main(String[] args) throws FailingHttpStatusCodeException,
@@ -156,9 +584,12 @@ public class PersonaIndexer {
     PersonaIndexer indexer = new PersonaIndexer();
     try {
       indexer.processArgs(args);
+      indexer.options.installLogging();
       indexer.indexAllPersonas();
     } catch (CmdLineException e) {
       // don't go on
+    } finally {
+      LoggingMode.uninstall();
     }
   }
 
@@ -252,8 +683,96 @@ public class PersonaIndexer {
     this.solrUrl = solrUrl;
   }
 
+  /**
+   * @return the threads
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * @param threads
+   *          the number of extraction threads to set
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * @param commitPolicy
+   *          the commit policy to set, overriding the command line options
+   */
+  public void setCommitPolicy(CommitPolicy commitPolicy) {
+    this.commitPolicy = commitPolicy;
+  }
+
+  /**
+   * @param batchSize
+   *          the number of documents per Solr add request
+   */
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * @param senderThreads
+   *          the number of background Solr sender threads, 0 to send on the
+   *          extraction threads
+   */
+  public void setSenderThreads(int senderThreads) {
+    this.senderThreads = senderThreads;
+  }
+
+  /**
+   * @param batchTime
+   *          the maximum milliseconds a document waits for its batch, 0 to
+   *          only send full batches
+   */
+  public void setBatchTime(long batchTime) {
+    this.batchTime = batchTime;
+  }
+
+  /**
+   * @return the shared extraction options
+   */
+  public ExtractionOptions getOptions() {
+    return options;
+  }
+
+  /**
+   * @param options
+   *          the shared extraction options to set, overriding the command
+   *          line
+   */
+  public void setOptions(ExtractionOptions options) {
+    this.options = options;
+  }
+
+  /**
+   * @return the number of pages extracted so far
+   */
+  public long getPagesIndexed() {
+    return pagesIndexed.get();
+  }
+
+  /**
+   * @return the checkpointFile
+   */
+  public File getCheckpointFile() {
+    return checkpointFile;
+  }
+
+  /**
+   * @param checkpointFile
+   *          the checkpoint log of indexed pages, or null for none
+   */
+  public void setCheckpointFile(File checkpointFile) {
+    this.checkpointFile = checkpointFile;
+  }
+
   private void processArgs(String[] args) throws CmdLineException {
     CmdLineParser parser = new CmdLineParser(this);
+    this.options.addTo(parser);
     try {
       parser.parseArgument(args);
       if (arguments.isEmpty()
@@ -269,18 +788,32 @@ public class PersonaIndexer {
     }
   }
 
-  private Persona collect(Map<String, Persona> personas) {
+  /**
+   * Merges the personas extracted for each host pattern from one page into a
+   * single persona, with the matching host pattern keys space separated.
+   *
+   * @param personas
+   *          Host pattern key to the persona it extracted.
+   * @return The merged persona.
+   */
+  Persona collect(Map<String, Persona> personas) {
     Persona aggregate = new Persona();
 
     for (String hostPatternKey : personas.keySet()) {
       Persona persona = personas.get(hostPatternKey);
       if (aggregate.getPageId() == null) {
         aggregate.setPageId(persona.getPageId()); // only once
+        aggregate.setPatternVersion(persona.getPatternVersion());
+      }
+      if (persona.isTruncated()) {
+        aggregate.setTruncated(true);
       }
       if (!persona.getUsernames().isEmpty()) {
-        LOG.info("Obtained personas: [" + persona.toString() + "]: for page: ["
-            + persona.getPageId() + "]: host pattern: [" + hostPatternKey
-            + "] collecting.");
+        if (LoggingMode.isPageLogged(LOG, Level.INFO, persona.getPageId())) {
+          LOG.info("Obtained personas: [" + persona.toString() + "]: for page: ["
+              + persona.getPageId() + "]: host pattern: [" + hostPatternKey
+              + "] collecting.");
+        }
         String existingHostPattern = aggregate.getHostPatternKey() != null
             && !aggregate.getHostPatternKey().equals("")
                 ? aggregate.getHostPatternKey() : "";
@@ -288,7 +821,8 @@ public class PersonaIndexer {
             + persona.getHostPatternKey();
         aggregate.setHostPatternKey(newHostPattern);
         aggregate.getUsernames().addAll(persona.getUsernames());
-      } else {
+      } else if (LoggingMode.isPageLogged(LOG, Level.WARNING,
+          persona.getPageId())) {
         LOG.warning(
             "Page Id: [" + persona.getPageId() + "]: No personas extracted.");
       }
@@ -298,17 +832,4 @@ public class PersonaIndexer {
 
   }
 
-  private void initPatterns() throws FileNotFoundException, IOException {
-    if (this.configFile != null) {
-      Properties props = new Properties();
-      props.load(new FileInputStream(this.configFile));
-      for (Object prop : props.keySet()) {
-        String propString = (String) prop;
-        LOG.finest("Adding pattern: [" + props.getProperty(propString)
-            + "] for host: [" + propString + "]");
-        this.patterns.put(propString, props.getProperty(propString));
-      }
-    }
-  }
-
 }
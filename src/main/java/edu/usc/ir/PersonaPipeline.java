@@ -0,0 +1,437 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.HttpSolrServer;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Grabs pages from the JPL ImageCat web mount, extracts personas from them in
+ * memory and indexes them into Solr in one run, without writing the corpus
+ * to disk and reading it back.
+ * <p>
+ * The stages overlap: {@link PageFetcher} threads download pages into a
+ * bounded queue, extraction threads (each with its own
+ * {@link PersonaExtractor}) take pages off it, and documents go to Solr
+ * through the {@link PersonaIndexer}'s {@link SolrBatchSubmitter}. A full
+ * queue holds the fetchers back until extraction catches up. Pages can also
+ * be teed to <code>-o</code> as they are fetched.
+ */
+public class PersonaPipeline {
+
+  @Option(name = "-i", usage = "Imagecat URL", aliases = { "--imagecatUrl" }, required = true)
+  private URL imagecatUrl = null;
+
+  @Option(name = "-iu", usage = "Imagecat Username", aliases = { "--imagecatUser" })
+  private String username = null;
+
+  @Option(name = "-ip", usage = "Imagecat Password", aliases = { "--imagecatPass" })
+  private String password = null;
+
+  @Option(name = "-hp", usage = "Host Part (e.g., slickguns)", aliases = { "--hostPart" }, required = true)
+  private String hostPart = null;
+
+  @Option(name = "-pp", usage = "Page Prefix (e.g., http://somehost/webmount/", aliases = { "--pagePrefix" }, required = true)
+  private String pagePrefix = null;
+
+  @Option(name = "-rs", usage = "Starting Solr Row e.g., 0, default 0", aliases = { "--rowStart" }, required = false)
+  private int start = 0;
+
+  @Option(name = "-r", usage = "Rows in Solr, e.g., 10, default 10 (rows per Solr request with --all)", aliases = { "--numRows" }, required = false)
+  private int rows = 10;
+
+  @Option(name = "-a", usage = "Process every page for the host, paging through Solr in id order", aliases = { "--all" }, required = false)
+  private boolean allPages = false;
+
+  @Option(name = "-t", usage = "Page requests in flight, default 4", aliases = { "--threads" }, required = false)
+  private int fetchThreads = 4;
+
+  @Option(name = "-rl", usage = "Maximum page requests started per second per host, default 0 (no limit)", aliases = { "--rateLimit" }, required = false)
+  private double rateLimit = 0;
+
+  @Option(name = "-mr", usage = "Retries for a page after a transient failure, default 3", aliases = { "--maxRetries" }, required = false)
+  private int maxRetries = 3;
+
+  @Option(name = "-rd", usage = "Delay before the first retry in ms, doubled for each further retry, default 500", aliases = { "--retryDelay" }, required = false)
+  private long retryDelay = 500;
+
+  @Option(name = "-q", usage = "Fetched pages waiting for extraction, default 64", aliases = { "--queueSize" }, required = false)
+  private int queueSize = 64;
+
+  @Option(name = "-o", usage = "Also write each fetched page to this directory", aliases = { "--outputDir" }, required = false)
+  private File teeDir = null;
+
+  @Option(name = "-c", usage = "Config File with Xpath selectors", aliases = { "--configFile" }, required = true)
+  private File configFile = null;
+
+  @Option(name = "-h", usage = "Hostname patterns to use to parse the pages", aliases = { "--hostPatterns" }, required = false)
+  private String host;
+
+  @Option(name = "-e", usage = "Parsing engine: HTMLUNIT (default) or NEKO", aliases = { "--engine" }, required = false)
+  private ExtractionEngine.Type engineType = ExtractionEngine.Type.HTMLUNIT;
+
+  @Option(name = "-xt", usage = "Number of extraction threads, default 1", aliases = { "--extractThreads" }, required = false)
+  private int extractThreads = 1;
+
+  @Option(name = "-s", usage = "Solr URL to index personas into (full url including corename)", aliases = { "--solrUrl" }, required = true)
+  private URL solrUrl = null;
+
+  @Option(name = "-u", usage = "Solr Username", aliases = { "--user" })
+  private String solrUsername = null;
+
+  @Option(name = "-p", usage = "Solr Password", aliases = { "--pass" })
+  private String solrPassword = null;
+
+  @Option(name = "-ce", usage = "Commit every N documents, default only at the end", aliases = { "--commitEvery" }, required = false)
+  private long commitEvery = 0;
+
+  @Option(name = "-ci", usage = "Commit every T seconds, default only at the end", aliases = { "--commitInterval" }, required = false)
+  private long commitInterval = 0;
+
+  @Option(name = "-cw", usage = "Solr commitWithin in milliseconds sent with each document", aliases = { "--commitWithin" }, required = false)
+  private int commitWithin = 0;
+
+  @Option(name = "-bs", usage = "Documents per Solr add request, default 100", aliases = { "--batchSize" }, required = false)
+  private int batchSize = 100;
+
+  @Option(name = "-bt", usage = "Maximum milliseconds a document waits for its batch, default 5000", aliases = { "--batchTime" }, required = false)
+  private long batchTime = 5000;
+
+  @Option(name = "-mi", usage = "Seconds between metrics summaries, default 0 (only at the end)", aliases = { "--metricsInterval" }, required = false)
+  private long metricsInterval = 0;
+
+  @Option(name = "-mf", usage = "CSV file to append the metrics summaries to", aliases = { "--metricsFile" }, required = false)
+  private File metricsFile = null;
+
+  @Option(name = "-st", usage = "Background Solr sender threads, default 0 (send on the extraction thread)", aliases = { "--senderThreads" }, required = false)
+  private int senderThreads = 0;
+
+  private final ExtractionOptions options = new ExtractionOptions();
+
+  // receives other command line parameters than options
+  @Argument
+  private List<String> arguments = new ArrayList<String>();
+
+  private static final String USAGE = "java PersonaPipeline [options...] arguments...";
+
+  private static Logger LOG = Logger.getLogger(PersonaPipeline.class.getName());
+
+  // tells an extraction thread there are no more pages
+  private static final PageRecord END = new PageRecord(null, (byte[]) null);
+
+  // how long a full queue is waited on before checking for failed extractors
+  private static final long OFFER_WAIT_MILLIS = 1000;
+
+  /**
+   * Default constructor.
+   */
+  public PersonaPipeline() {
+  }
+
+  /**
+   * Runs the pipeline over the ImageCat pages for {@link #hostPart} (see
+   * {@link ImageCatPageGrabber#grabPages()}) and returns once every page has
+   * been fetched, extracted and sent to Solr, and the final commit made.
+   *
+   * @throws IOException
+   *           If the patterns cannot be read, or a page cannot be extracted.
+   * @throws SolrServerException
+   *           If there is a Solr error.
+   */
+  public void run() throws IOException, SolrServerException {
+    final PatternRegistry patterns = PatternRegistry
+        .getInstance(this.configFile);
+    final PatternWatcher watcher = this.options
+        .newPatternWatcher(this.configFile);
+    final PersonaIndexer indexer = newIndexer();
+    final PersonaDictionary dictionary = indexer.getDictionary();
+    final BlockingQueue<PageRecord> queue = new ArrayBlockingQueue<PageRecord>(
+        Math.max(1, this.queueSize));
+    final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+    final AtomicLong extracted = new AtomicLong();
+
+    int numExtractors = Math.max(1, this.extractThreads);
+    List<Thread> extractors = new ArrayList<Thread>(numExtractors);
+    for (int i = 0; i < numExtractors; i++) {
+      Thread extractor = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          PersonaExtractor extractor = new PersonaExtractor();
+          extractor.setPatternRegistry(patterns);
+          extractor.setPatternWatcher(watcher);
+          extractor.setHost(host);
+          extractor.setEngineType(engineType);
+          options.configure(extractor);
+          extractor.setDictionary(dictionary);
+          try {
+            for (PageRecord page = take(queue); page != END; page = take(queue)) {
+              if (failure.get() != null) {
+                // keep draining so the fetchers are not left blocked
+                continue;
+              }
+              try {
+                indexer.indexPage(extractor, page);
+                extracted.incrementAndGet();
+              } catch (Exception e) {
+                failure.compareAndSet(null, e);
+              }
+            }
+          } catch (Error e) {
+            // flag it, so the fetchers stop rather than fill the queue
+            failure.compareAndSet(null, new RuntimeException(
+                "Extraction thread died: " + e, e));
+            throw e;
+          } finally {
+            extractor.close();
+          }
+        }
+      }, "extractor-" + i);
+      extractor.setDaemon(true);
+      extractor.start();
+      extractors.add(extractor);
+    }
+
+    HttpClientBuilder builder = HttpClientBuilder.create();
+    if (this.username != null && this.password != null) {
+      BasicCredentialsProvider provider = new BasicCredentialsProvider();
+      provider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(
+          this.username, this.password));
+      builder.setDefaultCredentialsProvider(provider);
+    }
+    final CloseableHttpClient imagecatClient = builder.build();
+    HttpSolrServer imagecat = new HttpSolrServer(this.imagecatUrl.toString(),
+        imagecatClient);
+    LOG.info("Host: [" + hostPart + "]: pagePrefix: [" + pagePrefix
+        + "]: start: [" + start + "]: rows: [" + rows + "]: all: [" + allPages
+        + "]: fetch threads: [" + fetchThreads + "]: extract threads: ["
+        + numExtractors + "]: queue: [" + queueSize + "]: tee: ["
+        + (teeDir != null ? teeDir.getAbsolutePath() : "none") + "]");
+    ImageCatDocIdIterator docIds = new ImageCatDocIdIterator(imagecat,
+        "host:" + hostPart, start, rows, allPages);
+    PageFetcher fetcher = new PageFetcher(fetchThreads, rateLimit, maxRetries,
+        retryDelay, username, password);
+    MetricsReporter reporter = new MetricsReporter(ExtractionMetrics.get(),
+        metricsInterval, metricsFile);
+
+    long started = System.currentTimeMillis();
+    try {
+      fetcher.fetchAll(untilFailed(docIds, failure),
+          pagePrefix + ImageCatPageGrabber.hostToReversePath(hostPart),
+          new PageFetcher.PageHandler() {
+            @Override
+            public void pageFetched(String docId, String url,
+                String contentType, InputStream content) throws IOException {
+              byte[] bytes = IOUtils.toByteArray(content);
+              if (teeDir != null) {
+                ImageCatPageGrabber.streamToFile(
+                    new ByteArrayInputStream(bytes), new File(teeDir, docId));
+              }
+              PageRecord page = new PageRecord(url, bytes,
+                  CharsetSniffer.fromContentType(contentType));
+              try {
+                // never wait on extractors that have stopped taking pages
+                while (!queue.offer(page, OFFER_WAIT_MILLIS,
+                    TimeUnit.MILLISECONDS)) {
+                  if (failure.get() != null) {
+                    throw new IOException("Extraction failed, not queueing: ["
+                        + url + "]");
+                  }
+                }
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted queueing: [" + url + "]");
+              }
+            }
+          });
+    } finally {
+      fetcher.close();
+      imagecat.shutdown();
+      imagecatClient.close();
+      for (int i = 0; i < extractors.size(); i++) {
+        putQuietly(queue, END, extractors);
+      }
+      for (Thread extractor : extractors) {
+        joinQuietly(extractor);
+      }
+      if (watcher != null) {
+        watcher.close();
+      }
+      try {
+        indexer.close();
+      } finally {
+        reporter.close();
+      }
+    }
+
+    long elapsed = Math.max(1, System.currentTimeMillis() - started);
+    LOG.info("Fetched [" + fetcher.getFetched() + "] of ["
+        + docIds.getFetched() + "] pages for host: [" + hostPart
+        + "]: failed: [" + fetcher.getFailed() + "]: extracted: ["
+        + extracted.get() + "] in [" + elapsed / 1000.0 + "] secs: ["
+        + String.format("%.2f", extracted.get() * 1000.0 / elapsed)
+        + "] pages/sec");
+
+    Exception e = failure.get();
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    } else if (e instanceof SolrServerException) {
+      throw (SolrServerException) e;
+    } else if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    } else if (e != null) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public static void main(String[] args) throws IOException,
+      SolrServerException {
+    PersonaPipeline pipeline = new PersonaPipeline();
+    try {
+      pipeline.processArgs(args);
+      pipeline.options.installLogging();
+      pipeline.run();
+    } catch (CmdLineException e) {
+      // don't proceed
+    } finally {
+      LoggingMode.uninstall();
+    }
+  }
+
+  PersonaIndexer newIndexer() {
+    PersonaIndexer indexer = new PersonaIndexer();
+    indexer.setConfigFile(this.configFile);
+    indexer.setHost(this.host);
+    indexer.setSolrUrl(this.solrUrl);
+    indexer.setUsername(this.solrUsername);
+    indexer.setPassword(this.solrPassword);
+    // sizes the Solr connection pool
+    indexer.setThreads(Math.max(1, this.extractThreads));
+    indexer.setCommitPolicy(new CommitPolicy(this.commitEvery,
+        this.commitInterval * 1000L, this.commitWithin));
+    indexer.setBatchSize(this.batchSize);
+    indexer.setBatchTime(this.batchTime);
+    indexer.setSenderThreads(this.senderThreads);
+    indexer.setOptions(this.options);
+    return indexer;
+  }
+
+  /**
+   * Stops handing out doc ids once extraction has failed.
+   */
+  private Iterator<String> untilFailed(final Iterator<String> docIds,
+      final AtomicReference<Exception> failure) {
+    return new Iterator<String>() {
+      @Override
+      public boolean hasNext() {
+        return failure.get() == null && docIds.hasNext();
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return docIds.next();
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  private static PageRecord take(BlockingQueue<PageRecord> queue) {
+    while (true) {
+      try {
+        return queue.take();
+      } catch (InterruptedException e) {
+        // only the end marker stops an extractor
+      }
+    }
+  }
+
+  /**
+   * Queues <code>page</code> unless every extractor has exited, so a full
+   * queue nobody takes from does not block the caller.
+   */
+  private static void putQuietly(BlockingQueue<PageRecord> queue,
+      PageRecord page, List<Thread> extractors) {
+    try {
+      while (!queue.offer(page, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+        boolean alive = false;
+        for (Thread extractor : extractors) {
+          alive |= extractor.isAlive();
+        }
+        if (!alive) {
+          return;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void joinQuietly(Thread thread) {
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  void processArgs(String[] args) throws CmdLineException {
+    CmdLineParser parser = new CmdLineParser(this);
+    this.options.addTo(parser);
+    try {
+      parser.parseArgument(args);
+    } catch (CmdLineException e) {
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      parser.printUsage(System.err);
+      throw e;
+    }
+  }
+
+}
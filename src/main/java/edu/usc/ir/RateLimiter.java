@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spaces out requests so that no more than a fixed number start per second,
+ * however many threads are asking. Thread-safe.
+ */
+public class RateLimiter {
+
+  private final long intervalNanos;
+
+  private long nextSlot = System.nanoTime();
+
+  /**
+   * @param permitsPerSecond
+   *          Maximum request starts per second; zero or less for no limit.
+   */
+  public RateLimiter(double permitsPerSecond) {
+    this.intervalNanos = permitsPerSecond > 0
+        ? (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond) : 0;
+  }
+
+  /**
+   * Blocks until the caller may start its next request.
+   *
+   * @throws InterruptedException
+   *           If interrupted while waiting.
+   */
+  public void acquire() throws InterruptedException {
+    if (this.intervalNanos == 0) {
+      return;
+    }
+    long slot;
+    synchronized (this) {
+      long now = System.nanoTime();
+      slot = Math.max(now, this.nextSlot);
+      this.nextSlot = slot + this.intervalNanos;
+    }
+    long wait = slot - System.nanoTime();
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+}
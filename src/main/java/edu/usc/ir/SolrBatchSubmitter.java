@@ -0,0 +1,331 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+
+/**
+ * Buffers {@link SolrInputDocument}s and sends them to Solr in batches of up
+ * to {@link #batchSize} documents, or whatever has accumulated after
+ * {@link #maxDelayMillis}. With sender threads, batches are sent in the
+ * background through a bounded queue, so {@link #submit(SolrInputDocument)}
+ * blocks (back pressure on extraction) when Solr falls behind. A failed batch
+ * is reported to the {@link BatchListener} and logged, and the run carries
+ * on. Thread-safe.
+ */
+public class SolrBatchSubmitter {
+
+  /**
+   * Notified once per batch, from whichever thread sent it.
+   */
+  public interface BatchListener {
+
+    void batchSent(List<SolrInputDocument> batch);
+
+    void batchFailed(List<SolrInputDocument> batch, Exception cause);
+
+  }
+
+  private static Logger LOG = Logger
+      .getLogger(SolrBatchSubmitter.class.getName());
+
+  private final SolrServer server;
+
+  private final CommitPolicy commitPolicy;
+
+  private final int batchSize;
+
+  private final long maxDelayMillis;
+
+  private final BoundedExecutor senders;
+
+  private final ScheduledExecutorService flusher;
+
+  private final List<BatchListener> listeners = new ArrayList<BatchListener>();
+
+  private List<SolrInputDocument> buffer;
+
+  private long bufferStarted = 0;
+
+  private final Object commitLock = new Object();
+
+  private long uncommittedDocs = 0;
+
+  private long lastCommit = System.currentTimeMillis();
+
+  private final AtomicLong docsSent = new AtomicLong();
+
+  private final AtomicLong batchesSent = new AtomicLong();
+
+  private final AtomicLong docsFailed = new AtomicLong();
+
+  private final AtomicLong batchesFailed = new AtomicLong();
+
+  /**
+   * @param server
+   *          The (thread-safe) Solr client to send to.
+   * @param commitPolicy
+   *          When to commit.
+   * @param batchSize
+   *          Maximum documents per add request.
+   * @param maxDelayMillis
+   *          Maximum time a document waits in the buffer, or 0 to only send
+   *          full batches.
+   * @param senderThreads
+   *          Background sender threads, or 0 to send on the submitting
+   *          thread.
+   */
+  public SolrBatchSubmitter(SolrServer server, CommitPolicy commitPolicy,
+      int batchSize, long maxDelayMillis, int senderThreads) {
+    this.server = server;
+    this.commitPolicy = commitPolicy;
+    this.batchSize = Math.max(1, batchSize);
+    this.maxDelayMillis = maxDelayMillis;
+    this.buffer = new ArrayList<SolrInputDocument>(this.batchSize);
+    this.senders = senderThreads > 0
+        ? new BoundedExecutor(senderThreads, senderThreads * 2, "solr-sender")
+        : null;
+    if (maxDelayMillis > 0) {
+      this.flusher = Executors
+          .newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+              Thread thread = new Thread(task, "solr-flusher");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+      long period = Math.max(1, maxDelayMillis / 2);
+      this.flusher.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          flushIfStale();
+        }
+      }, period, period, TimeUnit.MILLISECONDS);
+    } else {
+      this.flusher = null;
+    }
+  }
+
+  /**
+   * @param listener
+   *          Listener to notify of each sent or failed batch.
+   */
+  public void addListener(BatchListener listener) {
+    this.listeners.add(listener);
+  }
+
+  /**
+   * Buffers <code>doc</code>, sending the buffer if it is full.
+   *
+   * @param doc
+   *          The document to index.
+   */
+  public void submit(SolrInputDocument doc) {
+    List<SolrInputDocument> full = null;
+    synchronized (this) {
+      if (this.buffer.isEmpty()) {
+        this.bufferStarted = System.currentTimeMillis();
+      }
+      this.buffer.add(doc);
+      if (this.buffer.size() >= this.batchSize) {
+        full = takeBuffer();
+      }
+    }
+    if (full != null) {
+      dispatch(full);
+    }
+  }
+
+  /**
+   * Flushes, waits for the background senders to drain and makes the final
+   * commit.
+   *
+   * @throws IOException
+   *           If there is an error talking to Solr.
+   * @throws SolrServerException
+   *           If Solr fails the final commit.
+   */
+  public void close() throws IOException, SolrServerException {
+    if (this.flusher != null) {
+      this.flusher.shutdown();
+      try {
+        this.flusher.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    List<SolrInputDocument> rest;
+    synchronized (this) {
+      rest = takeBuffer();
+    }
+    if (!rest.isEmpty()) {
+      dispatch(rest);
+    }
+    if (this.senders != null) {
+      this.senders.shutdownAndWait();
+    }
+    commit();
+    LOG.info("Sent [" + docsSent.get() + "] documents in ["
+        + batchesSent.get() + "] batches: failed [" + docsFailed.get()
+        + "] documents in [" + batchesFailed.get() + "] batches.");
+  }
+
+  /**
+   * Commits if any documents were added since the last commit.
+   *
+   * @throws IOException
+   *           If there is an error talking to Solr.
+   * @throws SolrServerException
+   *           If Solr fails the commit.
+   */
+  public void commit() throws IOException, SolrServerException {
+    synchronized (this.commitLock) {
+      if (this.uncommittedDocs > 0) {
+        LOG.info("Committing [" + this.uncommittedDocs + "] documents.");
+        long start = System.nanoTime();
+        boolean committed = false;
+        try {
+          this.server.commit();
+          committed = true;
+        } finally {
+          if (committed) {
+            ExtractionMetrics.get().recordSolrCommit(System.nanoTime() - start);
+          } else {
+            ExtractionMetrics.get().solrCommitFailed();
+          }
+        }
+        this.uncommittedDocs = 0;
+      }
+      this.lastCommit = System.currentTimeMillis();
+    }
+  }
+
+  /**
+   * @return the number of documents successfully sent
+   */
+  public long getDocsSent() {
+    return docsSent.get();
+  }
+
+  /**
+   * @return the number of documents in failed batches
+   */
+  public long getDocsFailed() {
+    return docsFailed.get();
+  }
+
+  /**
+   * @return the number of failed batches
+   */
+  public long getBatchesFailed() {
+    return batchesFailed.get();
+  }
+
+  private List<SolrInputDocument> takeBuffer() {
+    List<SolrInputDocument> taken = this.buffer;
+    this.buffer = new ArrayList<SolrInputDocument>(this.batchSize);
+    return taken;
+  }
+
+  private void flushIfStale() {
+    List<SolrInputDocument> stale = null;
+    synchronized (this) {
+      if (!this.buffer.isEmpty() && System.currentTimeMillis()
+          - this.bufferStarted >= this.maxDelayMillis) {
+        stale = takeBuffer();
+      }
+    }
+    if (stale != null) {
+      dispatch(stale);
+    }
+  }
+
+  private void dispatch(final List<SolrInputDocument> batch) {
+    if (this.senders == null) {
+      send(batch);
+    } else {
+      this.senders.execute(new Runnable() {
+        @Override
+        public void run() {
+          send(batch);
+        }
+      });
+    }
+  }
+
+  private void send(List<SolrInputDocument> batch) {
+    long start = System.nanoTime();
+    try {
+      this.server.add(batch, this.commitPolicy.getCommitWithin());
+      ExtractionMetrics.get().recordSolrAdd(batch.size(),
+          System.nanoTime() - start);
+    } catch (Exception e) {
+      ExtractionMetrics.get().solrAddFailed(batch.size());
+      this.batchesFailed.incrementAndGet();
+      this.docsFailed.addAndGet(batch.size());
+      LOG.log(Level.SEVERE, "Failed to index batch of [" + batch.size()
+          + "] documents: ids: " + ids(batch) + ": " + e.getMessage(), e);
+      for (BatchListener listener : this.listeners) {
+        listener.batchFailed(batch, e);
+      }
+      return;
+    }
+
+    this.batchesSent.incrementAndGet();
+    this.docsSent.addAndGet(batch.size());
+    for (BatchListener listener : this.listeners) {
+      listener.batchSent(batch);
+    }
+
+    try {
+      synchronized (this.commitLock) {
+        this.uncommittedDocs += batch.size();
+        if (this.commitPolicy.shouldCommit(this.uncommittedDocs,
+            System.currentTimeMillis() - this.lastCommit)) {
+          commit();
+        }
+      }
+    } catch (Exception e) {
+      LOG.log(Level.SEVERE, "Commit failed: " + e.getMessage()
+          + ": will retry at the next commit point.", e);
+    }
+  }
+
+  private List<Object> ids(List<SolrInputDocument> batch) {
+    List<Object> ids = new ArrayList<Object>(batch.size());
+    for (SolrInputDocument doc : batch) {
+      ids.add(doc.getFieldValue("id"));
+    }
+    return ids;
+  }
+
+}
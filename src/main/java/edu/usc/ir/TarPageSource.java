@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+/**
+ * {@link PageSource} streaming the regular file entries of a (possibly
+ * gzipped) tar archive in order. Each page's URI is the archive's URI,
+ * <code>!/</code> and the entry name, e.g.
+ * <code>file:/crawl/pages.tar.gz!/com/slickguns/123</code>.
+ */
+public class TarPageSource extends PageSource {
+
+  private final String archiveUri;
+
+  private final TarArchiveInputStream tar;
+
+  /**
+   * @param archive
+   *          The tar file, for page URIs.
+   * @param in
+   *          The (decompressed) tar stream.
+   * @param includes
+   *          Globs for the entries to read.
+   * @param excludes
+   *          Globs for entries to skip.
+   * @param maxBytes
+   *          Bytes of each page that will be parsed, 0 for whole pages.
+   */
+  public TarPageSource(File archive, InputStream in, List<String> includes,
+      List<String> excludes, long maxBytes) {
+    super(includes, excludes, maxBytes);
+    this.archiveUri = archive.toURI().toString();
+    this.tar = new TarArchiveInputStream(in);
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.PageSource#next()
+   */
+  @Override
+  public PageRecord next() throws IOException {
+    TarArchiveEntry entry;
+    while ((entry = this.tar.getNextTarEntry()) != null) {
+      if (entry.isFile() && accept(entry.getName())) {
+        // the rest of the entry is skipped by the next getNextTarEntry
+        return new PageRecord(entryUri(this.archiveUri, entry.getName()),
+            readPage(this.tar, entry.getSize()));
+      }
+    }
+    return null;
+  }
+
+  /* (non-Javadoc)
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() throws IOException {
+    this.tar.close();
+  }
+
+}
@@ -0,0 +1,207 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * An insertion ordered list of unique usernames: adding a username that is
+ * already present leaves the list unchanged and returns false, exactly like
+ * the commons-collections <code>SetUniqueList</code> it replaces, so the
+ * order is that in which each username was first seen.
+ * <p>
+ * Usernames live in one array and are found through an open addressing table
+ * of indexes into it, so an add is a single probe sequence over ints with no
+ * per-entry objects, and {@link #addAll(Collection)} from another
+ * {@link UsernameList} reuses the stored hashes. To hold a username seen on
+ * many pages once, add it through a {@link PersonaDictionary}.
+ * <p>
+ * The list only grows: positional inserts, <code>set</code> and removal other
+ * than {@link #clear()} are not supported. Null usernames are rejected. Not
+ * thread-safe.
+ */
+public class UsernameList extends AbstractList<String> implements RandomAccess {
+
+  private static final int MIN_CAPACITY = 8;
+
+  private String[] usernames;
+
+  private int[] hashes;
+
+  // index + 1 into usernames, 0 for a free slot; at most half full
+  private int[] table;
+
+  private int size = 0;
+
+  /**
+   * An empty list.
+   */
+  public UsernameList() {
+    this.usernames = new String[MIN_CAPACITY];
+    this.hashes = new int[MIN_CAPACITY];
+    this.table = new int[MIN_CAPACITY * 2];
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.AbstractList#get(int)
+   */
+  @Override
+  public String get(int index) {
+    if (index < 0 || index >= this.size) {
+      throw new IndexOutOfBoundsException(
+          "Index: " + index + ", Size: " + this.size);
+    }
+    return this.usernames[index];
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.AbstractCollection#size()
+   */
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.AbstractList#add(java.lang.Object)
+   */
+  @Override
+  public boolean add(String username) {
+    if (username == null) {
+      throw new NullPointerException("username");
+    }
+    return add(username, username.hashCode());
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.AbstractCollection#addAll(java.util.Collection)
+   */
+  @Override
+  public boolean addAll(Collection<? extends String> usernames) {
+    ensureCapacity(this.size + usernames.size());
+    boolean changed = false;
+    if (usernames instanceof UsernameList) {
+      UsernameList other = (UsernameList) usernames;
+      for (int i = 0; i < other.size; i++) {
+        changed |= add(other.usernames[i], other.hashes[i]);
+      }
+    } else {
+      for (String username : usernames) {
+        changed |= add(username);
+      }
+    }
+    return changed;
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.AbstractCollection#contains(java.lang.Object)
+   */
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.AbstractList#indexOf(java.lang.Object)
+   */
+  @Override
+  public int indexOf(Object o) {
+    if (!(o instanceof String)) {
+      return -1;
+    }
+    int hash = o.hashCode();
+    int mask = this.table.length - 1;
+    for (int slot = spread(hash) & mask;; slot = (slot + 1) & mask) {
+      int entry = this.table[slot];
+      if (entry == 0) {
+        return -1;
+      }
+      if (this.hashes[entry - 1] == hash
+          && this.usernames[entry - 1].equals(o)) {
+        return entry - 1;
+      }
+    }
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.AbstractList#lastIndexOf(java.lang.Object)
+   */
+  @Override
+  public int lastIndexOf(Object o) {
+    return indexOf(o);
+  }
+
+  /* (non-Javadoc)
+   * @see java.util.AbstractList#clear()
+   */
+  @Override
+  public void clear() {
+    Arrays.fill(this.usernames, 0, this.size, null);
+    Arrays.fill(this.table, 0);
+    this.size = 0;
+    this.modCount++;
+  }
+
+  private boolean add(String username, int hash) {
+    int mask = this.table.length - 1;
+    int slot = spread(hash) & mask;
+    for (int entry; (entry = this.table[slot]) != 0; slot = (slot + 1) & mask) {
+      if (this.hashes[entry - 1] == hash
+          && this.usernames[entry - 1].equals(username)) {
+        return false;
+      }
+    }
+    if (this.size == this.usernames.length) {
+      ensureCapacity(this.size + 1);
+      return add(username, hash);
+    }
+    this.usernames[this.size] = username;
+    this.hashes[this.size] = hash;
+    this.table[slot] = ++this.size;
+    this.modCount++;
+    return true;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= this.usernames.length) {
+      return;
+    }
+    int grown = Math.max(capacity, this.usernames.length * 2);
+    this.usernames = Arrays.copyOf(this.usernames, grown);
+    this.hashes = Arrays.copyOf(this.hashes, grown);
+    this.table = new int[Integer.highestOneBit(grown - 1) << 2];
+    int mask = this.table.length - 1;
+    for (int i = 0; i < this.size; i++) {
+      int slot = spread(this.hashes[i]) & mask;
+      while (this.table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      this.table[slot] = i + 1;
+    }
+  }
+
+  private static int spread(int hash) {
+    // usernames like user1, user2, ... differ only in their low bits
+    int h = hash * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+}
@@ -0,0 +1,310 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns what a {@link HostPattern} selected into a username: the last path
+ * segment of a profile link, or the trimmed text of a node. Which links are
+ * profile links, and how the username is cleaned up, is set per host pattern
+ * with a <code>KEY.filter</code> entry in the pattern config, a space
+ * separated list of rules:
+ * <ul>
+ * <li><code>reject:TEXT</code> skips links containing <code>TEXT</code>,
+ * ignoring case;</li>
+ * <li><code>lowercase</code> folds usernames to lower case;</li>
+ * <li><code>decode</code> decodes <code>%XX</code> (UTF-8) escapes;</li>
+ * <li><code>strip-id</code> drops a numeric id joined to the name with a
+ * <code>.</code> or <code>-</code>, as in <code>/members/alice.1234/</code>
+ * or <code>/members/1234-alice</code>.</li>
+ * </ul>
+ * Patterns without a filter use {@link #DEFAULT}, which rejects
+ * <code>php</code> and <code>?</code> links. Query strings, fragments and
+ * trailing slashes are always ignored.
+ * <p>
+ * Links are scanned in place, without lower case or other intermediate
+ * copies; the only allocation is the username returned. Normalizers are
+ * immutable and can be shared between threads, each passing its own scratch
+ * buffer.
+ */
+public final class UsernameNormalizer {
+
+  /** The rules for patterns without a filter of their own. */
+  public static final UsernameNormalizer DEFAULT = parse("reject:php reject:?");
+
+  private static final String REJECT = "reject:";
+
+  private final String rules;
+
+  private final String[] rejects;
+
+  // the first char of each reject, in both cases
+  private final char[] rejectLower;
+
+  private final char[] rejectUpper;
+
+  private final boolean lowercase;
+
+  private final boolean decode;
+
+  private final boolean stripId;
+
+  private UsernameNormalizer(String rules, List<String> rejects,
+      boolean lowercase, boolean decode, boolean stripId) {
+    this.rules = rules;
+    this.rejects = rejects.toArray(new String[rejects.size()]);
+    this.rejectLower = new char[this.rejects.length];
+    this.rejectUpper = new char[this.rejects.length];
+    for (int i = 0; i < this.rejects.length; i++) {
+      char first = this.rejects[i].charAt(0);
+      this.rejectLower[i] = Character.toLowerCase(first);
+      this.rejectUpper[i] = Character.toUpperCase(first);
+    }
+    this.lowercase = lowercase;
+    this.decode = decode;
+    this.stripId = stripId;
+  }
+
+  /**
+   * @param rules
+   *          Space separated filter rules, see the class comment.
+   * @return The normalizer applying them.
+   * @throws IllegalArgumentException
+   *           If a rule is not recognised.
+   */
+  public static UsernameNormalizer parse(String rules) {
+    List<String> rejects = new ArrayList<String>();
+    boolean lowercase = false;
+    boolean decode = false;
+    boolean stripId = false;
+    for (String rule : rules.trim().split("\\s+")) {
+      if (rule.isEmpty()) {
+        continue;
+      } else if (rule.startsWith(REJECT) && rule.length() > REJECT.length()) {
+        rejects.add(rule.substring(REJECT.length()));
+      } else if (rule.equals("lowercase")) {
+        lowercase = true;
+      } else if (rule.equals("decode")) {
+        decode = true;
+      } else if (rule.equals("strip-id")) {
+        stripId = true;
+      } else {
+        throw new IllegalArgumentException("Unknown filter rule: [" + rule
+            + "]");
+      }
+    }
+    return new UsernameNormalizer(rules.trim(), rejects, lowercase, decode,
+        stripId);
+  }
+
+  /**
+   * @param href
+   *          The href of a selected element.
+   * @param scratch
+   *          A buffer the caller reuses from call to call.
+   * @return The username the link is the profile of, or null if it is not
+   *         a profile link or has no username.
+   */
+  public String fromLink(String href, StringBuilder scratch) {
+    for (int i = 0; i < this.rejects.length; i++) {
+      if (containsIgnoreCase(href, i)) {
+        return null;
+      }
+    }
+    int end = href.length();
+    for (int i = 0; i < end; i++) {
+      char c = href.charAt(i);
+      if (c == '?' || c == '#') {
+        end = i;
+        break;
+      }
+    }
+    end = trimEnd(href, 0, end);
+    while (end > 0 && href.charAt(end - 1) == '/') {
+      end--;
+    }
+    int start = trimStart(href, href.lastIndexOf('/', end - 1) + 1, end);
+    if (this.stripId) {
+      int digits = end;
+      while (digits > start && isDigit(href.charAt(digits - 1))) {
+        digits--;
+      }
+      if (digits < end && digits - 1 > start
+          && isIdSeparator(href.charAt(digits - 1))) {
+        end = digits - 1;
+      } else {
+        digits = start;
+        while (digits < end && isDigit(href.charAt(digits))) {
+          digits++;
+        }
+        if (digits > start && digits + 1 < end
+            && isIdSeparator(href.charAt(digits))) {
+          start = digits + 1;
+        }
+      }
+    }
+    return username(href, start, end, this.decode, scratch);
+  }
+
+  /**
+   * @param text
+   *          The text of a selected node, or a selected string.
+   * @param scratch
+   *          A buffer the caller reuses from call to call.
+   * @return The text trimmed (and lower cased, with <code>lowercase</code>),
+   *         or null if that leaves nothing.
+   */
+  public String fromText(String text, StringBuilder scratch) {
+    int end = trimEnd(text, 0, text.length());
+    return username(text, trimStart(text, 0, end), end, false, scratch);
+  }
+
+  private String username(String source, int start, int end, boolean decode,
+      StringBuilder scratch) {
+    if (start >= end) {
+      return null;
+    }
+    int percent = decode ? source.indexOf('%', start) : -1;
+    boolean escaped = percent >= 0 && percent < end;
+    if (!escaped && (!this.lowercase || isLowerCase(source, start, end))) {
+      return source.substring(start, end);
+    }
+    scratch.setLength(0);
+    for (int i = start; i < end;) {
+      int b = escaped ? hexByte(source, i, end) : -1;
+      if (b >= 0) {
+        i = decodeUtf8(source, i, end, b, scratch);
+      } else {
+        int c = source.codePointAt(i);
+        i += Character.charCount(c);
+        scratch.appendCodePoint(fold(c));
+      }
+    }
+    return scratch.length() > 0 ? scratch.toString() : null;
+  }
+
+  // decodes the escaped UTF-8 sequence at i, whose first byte is lead, and
+  // returns the index after it; a malformed sequence is kept as is
+  private int decodeUtf8(String source, int i, int end, int lead,
+      StringBuilder scratch) {
+    int more;
+    int codePoint;
+    if (lead < 0x80) {
+      more = 0;
+      codePoint = lead;
+    } else if ((lead & 0xe0) == 0xc0) {
+      more = 1;
+      codePoint = lead & 0x1f;
+    } else if ((lead & 0xf0) == 0xe0) {
+      more = 2;
+      codePoint = lead & 0x0f;
+    } else if ((lead & 0xf8) == 0xf0) {
+      more = 3;
+      codePoint = lead & 0x07;
+    } else {
+      more = -1;
+      codePoint = 0;
+    }
+    int next = i + 3;
+    for (int n = 0; n < more; n++, next += 3) {
+      int b = hexByte(source, next, end);
+      if (b < 0 || (b & 0xc0) != 0x80) {
+        more = -1;
+        break;
+      }
+      codePoint = (codePoint << 6) | (b & 0x3f);
+    }
+    if (more < 0 || !Character.isValidCodePoint(codePoint)) {
+      scratch.append('%');
+      return i + 1;
+    }
+    scratch.appendCodePoint(fold(codePoint));
+    return next;
+  }
+
+  private int fold(int codePoint) {
+    return this.lowercase ? Character.toLowerCase(codePoint) : codePoint;
+  }
+
+  private boolean containsIgnoreCase(String href, int reject) {
+    String text = this.rejects[reject];
+    char lower = this.rejectLower[reject];
+    char upper = this.rejectUpper[reject];
+    for (int i = 0, last = href.length() - text.length(); i <= last; i++) {
+      char c = href.charAt(i);
+      if ((c == lower || c == upper)
+          && href.regionMatches(true, i, text, 0, text.length())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isLowerCase(String source, int start, int end) {
+    for (int i = start; i < end; i++) {
+      char c = source.charAt(i);
+      if (c != Character.toLowerCase(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // the byte escaped as %XX at i, or -1
+  private static int hexByte(String source, int i, int end) {
+    if (i + 2 >= end || source.charAt(i) != '%') {
+      return -1;
+    }
+    int high = Character.digit(source.charAt(i + 1), 16);
+    int low = Character.digit(source.charAt(i + 2), 16);
+    return high < 0 || low < 0 ? -1 : (high << 4) | low;
+  }
+
+  private static int trimStart(String source, int start, int end) {
+    while (start < end && Character.isWhitespace(source.charAt(start))) {
+      start++;
+    }
+    return start;
+  }
+
+  private static int trimEnd(String source, int start, int end) {
+    while (end > start && Character.isWhitespace(source.charAt(end - 1))) {
+      end--;
+    }
+    return end;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static boolean isIdSeparator(char c) {
+    return c == '.' || c == '-';
+  }
+
+  /* (non-Javadoc)
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return "[rules=" + rules + "]";
+  }
+
+}
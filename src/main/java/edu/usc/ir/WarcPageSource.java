@@ -0,0 +1,322 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usc.ir;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * {@link PageSource} streaming the HTML pages out of a (possibly gzipped)
+ * WARC file, one record at a time. <code>response</code> records with a 2xx
+ * HTML HTTP response and HTML <code>resource</code> records are returned,
+ * with the HTTP headers stripped and any chunked transfer or gzip/deflate
+ * content encoding undone as the body is streamed, so only the decoded page,
+ * up to the byte limit, is held in memory. Each page's URI is the record's
+ * <code>WARC-Target-URI</code>. Other records, and the rest of a page past
+ * the byte limit, are skipped without being read into memory.
+ */
+public class WarcPageSource extends PageSource {
+
+  private static Logger LOG = Logger.getLogger(WarcPageSource.class.getName());
+
+  private static final int MAX_LINE = 64 * 1024;
+
+  private final InputStream in;
+
+  /**
+   * @param in
+   *          The (decompressed) WARC stream.
+   * @param maxBytes
+   *          Bytes of each page that will be parsed, 0 for whole pages.
+   */
+  public WarcPageSource(InputStream in, long maxBytes) {
+    super(null, null, maxBytes);
+    // header lines are read a byte at a time
+    this.in = in instanceof BufferedInputStream ? in
+        : new BufferedInputStream(in, 64 * 1024);
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.PageSource#next()
+   */
+  @Override
+  public PageRecord next() throws IOException {
+    Map<String, String> headers;
+    while ((headers = readRecordHeaders()) != null) {
+      long length = Long.parseLong(required(headers, "content-length"));
+      String type = required(headers, "warc-type");
+      String uri = targetUri(headers.get("warc-target-uri"));
+
+      BoundedInputStream block = new BoundedInputStream(this.in, length);
+      block.setPropagateClose(false);
+      PageRecord page = null;
+      if (uri != null && "response".equals(type)
+          && String.valueOf(headers.get("content-type")).startsWith(
+              "application/http")) {
+        page = httpPayload(block, uri);
+      } else if (uri != null && "resource".equals(type)
+          && isHtml(headers.get("content-type"))) {
+        page = new PageRecord(uri, readPage(block, length),
+            CharsetSniffer.fromContentType(headers.get("content-type")));
+      }
+      // whatever of the record was not needed
+      IOUtils.skip(block, Long.MAX_VALUE);
+
+      if (page != null) {
+        return page;
+      }
+    }
+    return null;
+  }
+
+  /* (non-Javadoc)
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() throws IOException {
+    this.in.close();
+  }
+
+  /**
+   * Reads the next record's version line and named fields (with lower case
+   * names), or returns null at the end of the file.
+   */
+  private Map<String, String> readRecordHeaders() throws IOException {
+    String line;
+    // records are separated by blank lines
+    do {
+      line = readLine(this.in);
+      if (line == null) {
+        return null;
+      }
+    } while (line.isEmpty());
+    if (!line.startsWith("WARC/")) {
+      throw new IOException("Not a WARC record: [" + line + "]");
+    }
+
+    Map<String, String> headers = new HashMap<String, String>();
+    while ((line = readLine(this.in)) != null && !line.isEmpty()) {
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+            line.substring(colon + 1).trim());
+      }
+    }
+    return headers;
+  }
+
+  /**
+   * @return the decoded body of a 2xx HTML HTTP response, with the charset
+   *         from its Content-Type, otherwise null
+   */
+  private PageRecord httpPayload(InputStream http, String uri)
+      throws IOException {
+    String status = readLine(http);
+    String[] statusParts = status != null ? status.split(" ") : new String[0];
+    if (statusParts.length < 2 || !statusParts[1].startsWith("2")) {
+      return null;
+    }
+    Map<String, String> headers = readHttpHeaders(http);
+    String contentType = headers.get("content-type");
+    if (contentType != null && !isHtml(contentType)) {
+      return null;
+    }
+
+    InputStream body = http;
+    long length = -1;
+    try {
+      if ("chunked".equals(headers.get("transfer-encoding"))) {
+        body = dechunk(body);
+      }
+      String encoding = headers.get("content-encoding");
+      if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+        body = new GZIPInputStream(body);
+      } else if ("deflate".equals(encoding)) {
+        body = new InflaterInputStream(body);
+      } else if (body == http && headers.containsKey("content-length")) {
+        length = Long.parseLong(headers.get("content-length"));
+      }
+      return new PageRecord(uri, readPage(body, length),
+          CharsetSniffer.fromContentType(contentType));
+    } catch (NumberFormatException e) {
+      LOG.warning("Unable to decode WARC response: [" + uri
+          + "]: bad length: " + e.getMessage() + ": skipping.");
+      return null;
+    } catch (IOException e) {
+      LOG.warning("Unable to decode WARC response: [" + uri + "]: "
+          + e.getMessage() + ": skipping.");
+      return null;
+    }
+  }
+
+  /**
+   * Reads HTTP header fields up to the blank line ending them, with lower
+   * case names and values.
+   */
+  static Map<String, String> readHttpHeaders(InputStream http)
+      throws IOException {
+    Map<String, String> headers = new HashMap<String, String>();
+    String line;
+    while ((line = readLine(http)) != null && !line.isEmpty()) {
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+            line.substring(colon + 1).trim().toLowerCase(Locale.ROOT));
+      }
+    }
+    return headers;
+  }
+
+  /**
+   * @param chunks
+   *          A body with chunked transfer coding.
+   * @return the body, decoded chunk by chunk as it is read
+   */
+  static InputStream dechunk(InputStream chunks) {
+    return new ChunkedInputStream(chunks);
+  }
+
+  private static boolean isHtml(String contentType) {
+    return contentType != null
+        && contentType.toLowerCase(Locale.ROOT).contains("html");
+  }
+
+  private static String targetUri(String uri) {
+    // WARC 1.1 allows the URI in angle brackets
+    if (uri != null && uri.startsWith("<") && uri.endsWith(">")) {
+      return uri.substring(1, uri.length() - 1);
+    }
+    return uri;
+  }
+
+  private static String required(Map<String, String> headers, String name)
+      throws IOException {
+    String value = headers.get(name);
+    if (value == null) {
+      throw new IOException("WARC record without " + name + ": " + headers);
+    }
+    return value;
+  }
+
+  /**
+   * Reads an ISO-8859-1 line ended by LF or CRLF (not included), or returns
+   * null at the end of the stream.
+   */
+  private static String readLine(InputStream in) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int c;
+    while ((c = in.read()) != -1) {
+      if (c == '\n') {
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+          line.setLength(end - 1);
+        }
+        return line.toString();
+      }
+      if (line.length() >= MAX_LINE) {
+        throw new IOException("WARC header line longer than [" + MAX_LINE
+            + "] bytes");
+      }
+      line.append((char) c);
+    }
+    return line.length() > 0 ? line.toString() : null;
+  }
+
+  /**
+   * The data of a chunked transfer coded body. Chunk extensions and trailers
+   * are ignored.
+   */
+  private static class ChunkedInputStream extends InputStream {
+
+    private final InputStream chunks;
+
+    // bytes left in the current chunk
+    private long remaining = 0;
+
+    private boolean done = false;
+
+    ChunkedInputStream(InputStream chunks) {
+      this.chunks = chunks;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (this.remaining == 0 && !nextChunk()) {
+        return -1;
+      }
+      int b = this.chunks.read();
+      if (b == -1) {
+        throw new EOFException("Chunked body ended inside a chunk");
+      }
+      this.remaining--;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (this.remaining == 0 && !nextChunk()) {
+        return -1;
+      }
+      int count = this.chunks.read(bytes, offset,
+          (int) Math.min(length, this.remaining));
+      if (count < 0) {
+        throw new EOFException("Chunked body ended inside a chunk");
+      }
+      this.remaining -= count;
+      return count;
+    }
+
+    private boolean nextChunk() throws IOException {
+      String sizeLine;
+      // the line break ending the last chunk reads as an empty line
+      while (!this.done && (sizeLine = readLine(this.chunks)) != null) {
+        int semi = sizeLine.indexOf(';');
+        String hex = (semi >= 0 ? sizeLine.substring(0, semi) : sizeLine)
+            .trim();
+        if (hex.isEmpty()) {
+          continue;
+        }
+        try {
+          this.remaining = Long.parseLong(hex, 16);
+        } catch (NumberFormatException e) {
+          throw new IOException("Bad chunk size: [" + hex + "]");
+        }
+        if (this.remaining > 0) {
+          return true;
+        }
+        break;
+      }
+      this.done = true;
+      return false;
+    }
+  }
+
+}
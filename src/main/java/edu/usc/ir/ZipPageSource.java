@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.usc.ir;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * {@link PageSource} streaming the entries of a zip archive in order. Each
+ * page's URI is the archive's URI, <code>!/</code> and the entry name, e.g.
+ * <code>file:/crawl/pages.zip!/com/slickguns/123</code>.
+ */
+public class ZipPageSource extends PageSource {
+
+  private final String archiveUri;
+
+  private final ZipInputStream zip;
+
+  /**
+   * @param archive
+   *          The zip file.
+   * @param includes
+   *          Globs for the entries to read.
+   * @param excludes
+   *          Globs for entries to skip.
+   * @param maxBytes
+   *          Bytes of each page that will be parsed, 0 for whole pages.
+   * @throws IOException
+   *           If the archive cannot be opened.
+   */
+  public ZipPageSource(File archive, List<String> includes,
+      List<String> excludes, long maxBytes) throws IOException {
+    super(includes, excludes, maxBytes);
+    this.archiveUri = archive.toURI().toString();
+    this.zip = new ZipInputStream(new BufferedInputStream(
+        new FileInputStream(archive), 64 * 1024));
+  }
+
+  /* (non-Javadoc)
+   * @see edu.usc.ir.PageSource#next()
+   */
+  @Override
+  public PageRecord next() throws IOException {
+    ZipEntry entry;
+    while ((entry = this.zip.getNextEntry()) != null) {
+      if (!entry.isDirectory() && accept(entry.getName())) {
+        // the rest of the entry is skipped by the next getNextEntry
+        return new PageRecord(entryUri(this.archiveUri, entry.getName()),
+            readPage(this.zip, entry.getSize()));
+      }
+    }
+    return null;
+  }
+
+  /* (non-Javadoc)
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() throws IOException {
+    this.zip.close();
+  }
+
+}
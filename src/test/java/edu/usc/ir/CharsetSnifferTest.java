@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the charset detection order of {@link CharsetSniffer}.
+ */
+public class CharsetSnifferTest extends TestCase {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  public void testByteOrderMark() {
+    assertEquals(UTF_8, CharsetSniffer.detect(bytes(0xef, 0xbb, 0xbf, 'a'),
+        ISO_8859_1));
+    assertEquals(Charset.forName("UTF-16LE"), CharsetSniffer.detect(bytes(
+        0xff, 0xfe, 'a', 0), ISO_8859_1));
+    assertEquals(Charset.forName("UTF-16BE"), CharsetSniffer.detect(bytes(
+        0xfe, 0xff, 0, 'a'), ISO_8859_1));
+    assertEquals(3, CharsetSniffer.bomLength(bytes(0xef, 0xbb, 0xbf)));
+    assertEquals(2, CharsetSniffer.bomLength(bytes(0xff, 0xfe)));
+    assertEquals(0, CharsetSniffer.bomLength(bytes('<', 'p')));
+  }
+
+  public void testHint() {
+    assertEquals(ISO_8859_1, CharsetSniffer.detect(
+        page("<meta charset=\"utf-8\">"), ISO_8859_1));
+  }
+
+  public void testMetaCharset() {
+    assertEquals(UTF_8, CharsetSniffer.detect(
+        page("<html><head><META Charset = 'UTF-8'></head>")));
+    assertEquals(Charset.forName("windows-1251"), CharsetSniffer.detect(page(
+        "<meta http-equiv=\"Content-Type\" "
+            + "content=\"text/html; charset=windows-1251\">")));
+    // the first meta naming a supported charset wins
+    assertEquals(UTF_8, CharsetSniffer.detect(page(
+        "<meta charset=\"no-such-charset\"><meta charset=\"utf-8\">")));
+    // ASCII bytes cannot be UTF-16
+    assertEquals(UTF_8, CharsetSniffer.detect(page(
+        "<meta charset=\"utf-16\">")));
+  }
+
+  public void testDefault() {
+    assertEquals(CharsetSniffer.DEFAULT, CharsetSniffer.detect(page(
+        "<html><body>no meta</body></html>")));
+    assertEquals(CharsetSniffer.DEFAULT, CharsetSniffer.detect(page(
+        "<meta name=\"charset\">")));
+    assertEquals(CharsetSniffer.DEFAULT, CharsetSniffer.detect(
+        ByteBuffer.allocate(0)));
+  }
+
+  public void testPrescanLimit() {
+    char[] padding = new char[CharsetSniffer.PRESCAN_BYTES];
+    Arrays.fill(padding, ' ');
+    assertEquals(CharsetSniffer.DEFAULT, CharsetSniffer.detect(page(
+        new String(padding) + "<meta charset=\"utf-8\">")));
+  }
+
+  public void testPosition() {
+    ByteBuffer content = page("xx<meta charset=utf-8>");
+    content.position(2);
+    assertEquals(UTF_8, CharsetSniffer.detect(content));
+    // not modified
+    assertEquals(2, content.position());
+  }
+
+  public void testFromContentType() {
+    assertEquals(UTF_8, CharsetSniffer.fromContentType(
+        "text/html; charset=UTF-8"));
+    assertEquals(ISO_8859_1, CharsetSniffer.fromContentType(
+        "text/html;Charset=\"iso-8859-1\""));
+    assertNull(CharsetSniffer.fromContentType("text/html"));
+    assertNull(CharsetSniffer.fromContentType(
+        "text/html; charset=no-such-charset"));
+    assertNull(CharsetSniffer.fromContentType("text/html; charset=?"));
+    assertNull(CharsetSniffer.fromContentType(null));
+  }
+
+  private static ByteBuffer page(String html) {
+    return ByteBuffer.wrap(html.getBytes(ISO_8859_1));
+  }
+
+  private static ByteBuffer bytes(int... values) {
+    byte[] bytes = new byte[values.length];
+    for (int i = 0; i < values.length; i++) {
+      bytes[i] = (byte) values[i];
+    }
+    return ByteBuffer.wrap(bytes);
+  }
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests recording, replaying and torn record recovery in
+ * {@link CheckpointStore}.
+ */
+public class CheckpointStoreTest extends TestCase {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private File file;
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    this.file = File.createTempFile("checkpoint", ".tsv");
+    this.file.delete();
+  }
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    this.file.delete();
+  }
+
+  public void testRecord() throws IOException {
+    CheckpointStore store = new CheckpointStore(this.file);
+    try {
+      assertFalse(store.isFetched("doc1"));
+      store.recordFetched("doc1");
+      assertTrue(store.isFetched("doc1"));
+      assertFalse(store.isFetched("doc2"));
+
+      assertFalse(store.isIndexed("page1", "abc"));
+      store.recordIndexed("page1", "abc");
+      assertTrue(store.isIndexed("page1", "abc"));
+      assertFalse(store.isIndexed("page1", "def"));
+      assertEquals(1, store.getFetchedCount());
+      assertEquals(1, store.getIndexedCount());
+    } finally {
+      store.close();
+    }
+  }
+
+  public void testReopen() throws IOException {
+    CheckpointStore store = new CheckpointStore(this.file);
+    store.recordFetched("doc1");
+    store.recordFetched("doc1");
+    store.recordFetched("doc\u00e9");
+    store.recordIndexed("page1", "abc");
+    store.recordIndexed("page1", "def");
+    store.recordIndexed("page2", "abc");
+    store.close();
+
+    store = new CheckpointStore(this.file);
+    try {
+      assertTrue(store.isFetched("doc1"));
+      assertTrue(store.isFetched("doc\u00e9"));
+      assertEquals(2, store.getFetchedCount());
+      // the later record wins
+      assertTrue(store.isIndexed("page1", "def"));
+      assertFalse(store.isIndexed("page1", "abc"));
+      assertTrue(store.isIndexed("page2", "abc"));
+      assertEquals(2, store.getIndexedCount());
+    } finally {
+      store.close();
+    }
+  }
+
+  public void testTornRecord() throws IOException {
+    FileUtils.writeStringToFile(this.file,
+        "F\tdoc1\nI\tpage1\tabc\nbogus\nI\tpage2\tde", UTF_8);
+    CheckpointStore store = new CheckpointStore(this.file);
+    try {
+      assertTrue(store.isFetched("doc1"));
+      assertTrue(store.isIndexed("page1", "abc"));
+      assertFalse(store.isIndexed("page2", "de"));
+      assertEquals(1, store.getIndexedCount());
+      // appended after the last whole record, not joined to the torn one
+      store.recordFetched("doc2");
+    } finally {
+      store.close();
+    }
+    assertEquals("F\tdoc1\nI\tpage1\tabc\nbogus\nF\tdoc2\n",
+        FileUtils.readFileToString(this.file, UTF_8));
+  }
+
+  public void testBadField() throws IOException {
+    CheckpointStore store = new CheckpointStore(this.file);
+    try {
+      store.recordIndexed("page\t1", "abc");
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    try {
+      store.recordFetched("doc\n1");
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    } finally {
+      store.close();
+    }
+    assertEquals(0, this.file.length());
+  }
+
+  public void testClosed() throws IOException {
+    CheckpointStore store = new CheckpointStore(this.file);
+    store.close();
+    store.close();
+    try {
+      store.recordFetched("doc1");
+      fail("Expected IOException");
+    } catch (IOException e) {
+      // expected
+    }
+    assertFalse(store.isFetched("doc1"));
+  }
+
+}
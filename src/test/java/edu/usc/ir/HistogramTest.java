@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the bucketing and percentiles of {@link Histogram}.
+ */
+public class HistogramTest extends TestCase {
+
+  public void testExactBuckets() {
+    for (long value = 0; value < 16; value++) {
+      assertEquals(value, Histogram.bucket(value));
+      assertEquals(value, Histogram.upperBound((int) value));
+    }
+  }
+
+  public void testBucketBounds() {
+    long[] values = { 16, 17, 31, 32, 100, 1000, 123456789L,
+        1L << 40, (1L << 40) + 1, Long.MAX_VALUE / 3, Long.MAX_VALUE };
+    for (long value : values) {
+      long upper = Histogram.upperBound(Histogram.bucket(value));
+      assertTrue(value + " <= " + upper, upper >= value);
+      assertTrue(value + " ~ " + upper, upper - value < value / 8.0);
+    }
+    assertEquals(Long.MAX_VALUE, Histogram.upperBound(Histogram.bucket(
+        Long.MAX_VALUE)));
+  }
+
+  public void testBucketsAreContiguous() {
+    int last = Histogram.bucket(Long.MAX_VALUE);
+    for (int bucket = 0; bucket < last; bucket++) {
+      long upper = Histogram.upperBound(bucket);
+      assertEquals(bucket, Histogram.bucket(upper));
+      assertEquals(bucket + 1, Histogram.bucket(upper + 1));
+    }
+  }
+
+  public void testPercentiles() {
+    Histogram histogram = new Histogram("latency", "ms", 1);
+    assertEquals(0.0, histogram.getP50(), 0);
+    for (long value = 1; value <= 10; value++) {
+      histogram.record(value);
+    }
+    assertEquals(10, histogram.getCount());
+    assertEquals(5.5, histogram.getMean(), 1e-9);
+    assertEquals(5.0, histogram.getP50(), 0);
+    assertEquals(9.0, histogram.getP90(), 0);
+    assertEquals(10.0, histogram.getP99(), 0);
+    assertEquals(1.0, histogram.getPercentile(0), 0);
+    assertEquals(10.0, histogram.getMax(), 0);
+  }
+
+  public void testPercentilesCappedByMax() {
+    Histogram histogram = new Histogram("latency", "ms", 1e6);
+    histogram.record(1000000);
+    histogram.record(-5);
+    // 1000000 shares a bucket reaching 1032191, but is the largest value
+    assertEquals(1.0, histogram.getP99(), 0);
+    assertEquals(0.0, histogram.getP50(), 0);
+    assertEquals(0.5, histogram.getMean(), 1e-9);
+  }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.xpath.XPathExpressionException;
+
+import junit.framework.TestCase;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Node;
+
+/**
+ * Tests that {@link HostPattern}s select the same values from the DOM of
+ * either {@link ExtractionEngine}.
+ */
+public class HostPatternTest extends TestCase {
+
+  private static final File CONFIG = new File(
+      "src/main/resources/patterns.properties");
+
+  private static final String PAGE = "<html><head><title>Profile Bob | Market"
+      + "</title></head><body><div class=\"post\">"
+      + "<a href=\"/forums/members/Alice.12/\">Alice</a>"
+      + "<a href=\"/users/bob\">bob</a><A HREF=\"/search.php?q=1\">Search</A>"
+      + "<span>Carol</span></div></body></html>";
+
+  public void testResultTypes() throws XPathExpressionException {
+    assertEquals(HostPattern.ResultType.ANCHOR, new HostPattern("a",
+        "//a/@href").getResultType());
+    assertEquals(HostPattern.ResultType.TEXT, new HostPattern("a",
+        "//div[@class='post']/span").getResultType());
+    assertEquals(HostPattern.ResultType.STRING, new HostPattern("a",
+        "substring-after(/html/head/title, 'Profile')").getResultType());
+    try {
+      new HostPattern("a", "//*[contains(@href,x]");
+      fail("Expected XPathExpressionException");
+    } catch (XPathExpressionException e) {
+      // expected
+    }
+  }
+
+  public void testSelect() throws IOException, XPathExpressionException {
+    for (ExtractionEngine.Type type : ExtractionEngine.Type.values()) {
+      ExtractionEngine engine = type.newEngine();
+      try {
+        Node page = engine.parse(PAGE.getBytes("UTF-8"), "http://h/p");
+        assertEquals(type.name(), "[/forums/members/Alice.12/, /users/bob, "
+            + "/search.php?q=1]", values(engine, new HostPattern("a",
+            "//a/@href"), page).toString());
+        assertEquals(type.name(), "[Carol]", values(engine, new HostPattern(
+            "a", "//div[@class='post']/span"), page).toString());
+        assertEquals(type.name(), "[ Bob ]", values(engine, new HostPattern(
+            "a", "substring-before(substring-after(/html/head/title, "
+                + "'Profile'), '|')"), page).toString());
+      } finally {
+        engine.close();
+      }
+    }
+  }
+
+  public void testIterateStopsEarly() throws IOException,
+      XPathExpressionException {
+    for (ExtractionEngine.Type type : ExtractionEngine.Type.values()) {
+      ExtractionEngine engine = type.newEngine();
+      try {
+        Node page = engine.parse(PAGE.getBytes("UTF-8"), "http://h/p");
+        Iterator<Object> values = new HostPattern("a", "//a").iterate(page);
+        assertTrue(values.hasNext());
+        assertEquals(type.name(), "Alice", engine.getText((Node) values
+            .next()));
+      } finally {
+        engine.close();
+      }
+    }
+  }
+
+  public void testEngineParity() throws IOException {
+    byte[] page = PersonaExtractionServer.warmupPage(40);
+    String expected = null;
+    for (ExtractionEngine.Type type : ExtractionEngine.Type.values()) {
+      PersonaExtractor extractor = new PersonaExtractor();
+      try {
+        extractor.setPatternRegistry(PatternRegistry.getInstance(CONFIG));
+        extractor.setEngineType(type);
+        extractor.setPage(page, "http://www.hipointfirearmsforums.com/t/1",
+            Charset.forName("UTF-8"));
+        Map<String, Persona> personas = extractor.obtainPersonasForAllHosts();
+        StringBuilder output = new StringBuilder();
+        for (String hostKey : extractor.getPatterns().getHostKeys()) {
+          Persona persona = personas.get(hostKey);
+          output.append(hostKey).append('=')
+              .append(persona == null ? null : persona.getUsernames())
+              .append('\n');
+        }
+        if (expected == null) {
+          expected = output.toString();
+          assertTrue(expected, expected.contains("user0"));
+        } else {
+          assertEquals(type.name(), expected, output.toString());
+        }
+      } finally {
+        extractor.close();
+      }
+    }
+  }
+
+  private static List<String> values(ExtractionEngine engine,
+      HostPattern pattern, Node page) throws XPathExpressionException {
+    List<String> values = new ArrayList<String>();
+    for (Iterator<Object> i = pattern.iterate(page); i.hasNext();) {
+      Object value = i.next();
+      if (value instanceof Attr) {
+        values.add(((Attr) value).getValue());
+      } else if (value instanceof Node) {
+        values.add(engine.getText((Node) value));
+      } else {
+        values.add(String.valueOf(value));
+      }
+    }
+    return values;
+  }
+
+}
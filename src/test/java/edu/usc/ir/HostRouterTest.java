@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+import org.w3c.dom.Node;
+
+/**
+ * Tests routing pages to host patterns by URL host, declared host and
+ * reverse-domain path in {@link HostRouter}.
+ */
+public class HostRouterTest extends TestCase {
+
+  private HostRouter router;
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    File config = File.createTempFile("patterns", ".properties");
+    try {
+      FileUtils.writeStringToFile(config, "www.example.com=//a/@href\n"
+          + "example.org=//a/@href\n" + "forum.example.org=//a/@href\n",
+          "UTF-8");
+      this.router = new HostRouter(PatternRegistry.load(config));
+    } finally {
+      config.delete();
+    }
+  }
+
+  public void testUrlHost() {
+    assertEquals(keys("www.example.com"),
+        this.router.route("http://www.example.com/u/1", null));
+    // ignoring case and www.
+    assertEquals(keys("www.example.com"),
+        this.router.route("https://EXAMPLE.com/", null));
+    assertEquals(keys("example.org"),
+        this.router.route("http://www.example.org/", null));
+    assertNull(this.router.route("http://example.net/", null));
+    assertNull(this.router.route("not a uri", null));
+    assertNull(this.router.route(null, null));
+  }
+
+  public void testSubdomain() {
+    assertEquals(keys("www.example.com"),
+        this.router.route("http://a.b.example.com/", null));
+    // the closest parent with patterns
+    assertEquals(keys("forum.example.org"),
+        this.router.route("http://old.forum.example.org/", null));
+    assertEquals(keys("example.org"),
+        this.router.route("http://blog.example.org/", null));
+    // never a bare top level domain
+    assertNull(this.router.keysFor("org"));
+    assertNull(this.router.keysFor(null));
+  }
+
+  public void testReversePath() {
+    assertEquals(keys("www.example.com"), this.router
+        .route("file:/tmp/grab/com/example/www/doc1", null));
+    // the longest host first
+    assertEquals(keys("forum.example.org"),
+        this.router.route("file:/data/org/example/forum/doc1", null));
+    assertEquals(keys("example.org"),
+        this.router.route("file:/data/org/example/doc1", null));
+    // a URL host without patterns falls back to the path
+    assertEquals(keys("www.example.com"), this.router
+        .route("http://imagecat.local/webmount/com/example/www/doc1", null));
+    // labels must be adjacent
+    assertNull(this.router.route("file:/data/org//example/doc1", null));
+    assertNull(this.router.route("file:/tmp/grab/doc1", null));
+  }
+
+  public void testDeclaredHost() throws IOException {
+    ExtractionEngine engine = ExtractionEngine.Type.NEKO.newEngine();
+    try {
+      Node canonical = engine.parse(("<html><head><link rel='Canonical' "
+          + "href='http://forum.example.org/t/1'></head></html>").getBytes(
+              "UTF-8"), "file:/tmp/page1");
+      assertEquals(keys("forum.example.org"),
+          this.router.route("file:/tmp/page1", canonical));
+      // the base wins over the canonical link
+      Node base = engine.parse(("<html><head>"
+          + "<base href='http://www.example.com/'>"
+          + "<link rel=canonical href='http://forum.example.org/t/1'>"
+          + "</head></html>").getBytes("UTF-8"), "file:/tmp/page2");
+      assertEquals(keys("www.example.com"),
+          this.router.route("file:/tmp/page2", base));
+      // and the URL host over both
+      assertEquals(keys("example.org"),
+          this.router.route("http://example.org/t/1", base));
+    } finally {
+      engine.close();
+    }
+  }
+
+  private static List<String> keys(String... hostKeys) {
+    return Arrays.asList(hostKeys);
+  }
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * Tests single page and all pages iteration in
+ * {@link ImageCatDocIdIterator}, against a Solr server faked in memory.
+ */
+public class ImageCatDocIdIteratorTest extends TestCase {
+
+  private static final String RANGE = "{!cache=false}id:{";
+
+  // serves the ids in order, honouring start, rows and an id range filter
+  private static class IdServer extends SolrServer {
+
+    private static final long serialVersionUID = 1L;
+
+    final List<String> ids;
+
+    final List<SolrParams> requests = new ArrayList<SolrParams>();
+
+    IdServer(String... ids) {
+      this.ids = Arrays.asList(ids);
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.solr.client.solrj.SolrServer#request(org.apache.solr.client.solrj.SolrRequest)
+     */
+    @Override
+    public NamedList<Object> request(SolrRequest request)
+        throws SolrServerException, IOException {
+      SolrParams params = request.getParams();
+      this.requests.add(params);
+      String after = null;
+      String[] filters = params.getParams(CommonParams.FQ);
+      if (filters != null) {
+        assertEquals(1, filters.length);
+        assertTrue(filters[0], filters[0].startsWith(RANGE));
+        assertTrue(filters[0], filters[0].endsWith(" TO *]"));
+        after = filters[0]
+            .substring(RANGE.length(), filters[0].length() - 6)
+            .replaceAll("\\\\(.)", "$1");
+      }
+      List<String> matches = new ArrayList<String>();
+      for (String id : this.ids) {
+        if (after == null || id.compareTo(after) > 0) {
+          matches.add(id);
+        }
+      }
+      int start = params.getInt(CommonParams.START, 0);
+      int rows = params.getInt(CommonParams.ROWS, 10);
+      SolrDocumentList results = new SolrDocumentList();
+      results.setNumFound(matches.size());
+      for (int i = start; i < Math.min(start + rows, matches.size()); i++) {
+        SolrDocument doc = new SolrDocument();
+        doc.setField("id", matches.get(i));
+        results.add(doc);
+      }
+      NamedList<Object> response = new NamedList<Object>();
+      response.add("response", results);
+      return response;
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.solr.client.solrj.SolrServer#shutdown()
+     */
+    @Override
+    public void shutdown() {
+      // nothing to release
+    }
+
+  }
+
+  public void testSinglePage() {
+    IdServer server = new IdServer("/a/1", "/a/2", "/a/3", "/a/4");
+    ImageCatDocIdIterator ids = new ImageCatDocIdIterator(server,
+        "host:slickguns", 1, 2, false);
+    assertEquals(Arrays.asList("2", "3"), drain(ids));
+    assertEquals(1, server.requests.size());
+    SolrParams params = server.requests.get(0);
+    assertEquals("host:slickguns", params.get(CommonParams.Q));
+    assertNull(params.getParams(CommonParams.FQ));
+  }
+
+  public void testAllPages() {
+    IdServer server = new IdServer("/a/1", "/a/2", "/a/3", "/a/4", "/a/5",
+        "/b/x y:z");
+    ImageCatDocIdIterator ids = new ImageCatDocIdIterator(server,
+        "host:slickguns", 3, 2, true);
+    assertEquals(Arrays.asList("1", "2", "3", "4", "5", "x y:z"),
+        drain(ids));
+    assertEquals(6, ids.getFetched());
+    // the last page is full, so one more request finds nothing
+    assertEquals(4, server.requests.size());
+    for (SolrParams params : server.requests) {
+      // the query itself never changes, so its caches still hit
+      assertEquals("host:slickguns", params.get(CommonParams.Q));
+      assertNull(params.get(CommonParams.START));
+    }
+    assertNull(server.requests.get(0).getParams(CommonParams.FQ));
+  }
+
+  public void testAllPagesShortLastPage() {
+    IdServer server = new IdServer("/a/1", "/a/2", "/a/3");
+    ImageCatDocIdIterator ids = new ImageCatDocIdIterator(server, "*:*", 0,
+        2, true);
+    assertEquals(Arrays.asList("1", "2", "3"), drain(ids));
+    assertEquals(2, server.requests.size());
+    assertFalse(ids.hasNext());
+  }
+
+  private static List<String> drain(ImageCatDocIdIterator ids) {
+    List<String> drained = new ArrayList<String>();
+    while (ids.hasNext()) {
+      drained.add(ids.next());
+    }
+    return drained;
+  }
+
+}
@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests exact and near duplicate lookups, spilling and forgetting, and
+ * which results {@link PageDedupCache} does not reuse.
+ */
+public class PageDedupCacheTest extends TestCase {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private File dir;
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    this.dir = File.createTempFile("dedup", "");
+    this.dir.delete();
+    this.dir.mkdir();
+  }
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(this.dir);
+  }
+
+  public void testExactDuplicate() throws IOException {
+    PageDedupCache cache = new PageDedupCache(10, -1, this.dir);
+    try {
+      PageDedupCache.Fingerprint fingerprint = cache
+          .fingerprint(page("<a href='/u/alice'>alice</a>"));
+      assertNull(cache.get(fingerprint, "page1", "v1"));
+      cache.put(fingerprint, persona("page1", "v1", "alice", "bob"), 0);
+
+      Persona persona = cache.get(fingerprint, "page2", "v1");
+      assertEquals("page2", persona.getPageId());
+      assertEquals("v1", persona.getPatternVersion());
+      assertEquals("forum", persona.getHostPatternKey());
+      assertEquals(Arrays.asList("alice", "bob"), persona.getUsernames());
+      assertEquals(1, cache.getExactHits());
+
+      // other bytes, and identical bytes under other patterns, miss
+      assertNull(cache.get(cache.fingerprint(page("<a href='/u/bob'>")),
+          "page3", "v1"));
+      assertNull(cache.get(fingerprint, "page4", "v2"));
+      assertEquals(4, cache.getLookups());
+      assertEquals(1, cache.getExactHits());
+    } finally {
+      cache.close();
+    }
+  }
+
+  public void testTruncatedNotCached() throws IOException {
+    PageDedupCache cache = new PageDedupCache(10, 3, this.dir);
+    try {
+      PageDedupCache.Fingerprint fingerprint = cache
+          .fingerprint(page("<a href='/u/alice'>alice</a>"));
+      Persona truncated = persona("page1", "v1", "alice");
+      truncated.setTruncated(true);
+      cache.put(fingerprint, truncated, 0);
+      assertNull(cache.get(fingerprint, "page2", "v1"));
+      assertEquals(1, cache.getSkippedTruncated());
+
+      cache.put(fingerprint, persona("page2", "v1", "alice", "bob"), 0);
+      Persona persona = cache.get(fingerprint, "page3", "v1");
+      assertFalse(persona.isTruncated());
+      assertEquals(2, persona.getUsernames().size());
+    } finally {
+      cache.close();
+    }
+  }
+
+  public void testNearDuplicateBands() throws IOException {
+    PageDedupCache cache = new PageDedupCache(10, 3, this.dir);
+    try {
+      long simhash = 0x0123456789abcdefL;
+      cache.put(new PageDedupCache.Fingerprint("a", simhash, 7),
+          persona("page1", "v1", "alice"), 0);
+
+      // three bits off, one in each of three bands: the fourth still matches
+      long threeBands = simhash ^ 1L ^ (1L << 16) ^ (1L << 32);
+      assertEquals(Arrays.asList("alice"),
+          cache.get(new PageDedupCache.Fingerprint("b", threeBands, 7),
+              "page2", "v1").getUsernames());
+      // two bits off in one band
+      assertNotNull(cache.get(
+          new PageDedupCache.Fingerprint("c", simhash ^ 3L << 60, 7),
+          "page3", "v1"));
+      assertEquals(2, cache.getNearHits());
+
+      // four bits off, one in every band
+      assertNull(cache.get(new PageDedupCache.Fingerprint("d",
+          threeBands ^ (1L << 48), 7), "page4", "v1"));
+      // four bits off in one band
+      assertNull(cache.get(
+          new PageDedupCache.Fingerprint("e", simhash ^ 0xfL, 7), "page5",
+          "v1"));
+      // the same simhash with other links or title
+      assertNull(cache.get(new PageDedupCache.Fingerprint("f", simhash, 8),
+          "page6", "v1"));
+      // or under other patterns
+      assertNull(cache.get(new PageDedupCache.Fingerprint("g", simhash, 7),
+          "page7", "v2"));
+      assertEquals(2, cache.getNearHits());
+    } finally {
+      cache.close();
+    }
+  }
+
+  public void testNearDuplicatePages() throws IOException {
+    PageDedupCache cache = new PageDedupCache(10, 0, this.dir);
+    try {
+      String text = "<title>Members</title><p>Latest posts in the forum "
+          + "from our members this week</p><a href='/u/alice'>alice</a>";
+      PageDedupCache.Fingerprint fingerprint = cache.fingerprint(page(text));
+      cache.put(fingerprint, persona("page1", "v1", "alice"), 0);
+
+      // words are case folded; the links and title are not
+      PageDedupCache.Fingerprint upper = cache
+          .fingerprint(page(text.replace("Latest posts", "LATEST POSTS")));
+      assertFalse(fingerprint.getSha1().equals(upper.getSha1()));
+      assertEquals(fingerprint.getSimhash(), upper.getSimhash());
+      assertNotNull(cache.get(upper, "page2", "v1"));
+      assertNull(cache.get(
+          cache.fingerprint(page(text.replace("/u/alice", "/u/ALICE"))),
+          "page3", "v1"));
+      assertEquals(1, cache.getNearHits());
+    } finally {
+      cache.close();
+    }
+  }
+
+  public void testSpill() throws IOException {
+    PageDedupCache cache = new PageDedupCache(1, -1, this.dir);
+    try {
+      PageDedupCache.Fingerprint a = cache.fingerprint(page("a"));
+      PageDedupCache.Fingerprint b = cache.fingerprint(page("b"));
+      Persona persona = persona("page1", "v\t1", "al\tice", "b\\ob\n");
+      persona.setHostPatternKey(null);
+      cache.put(a, persona, 0);
+      // spills a
+      cache.put(b, persona("page2", "v\t1", "carol"), 0);
+
+      Persona spilled = cache.get(a, "page3", "v\t1");
+      assertEquals("v\t1", spilled.getPatternVersion());
+      assertNull(spilled.getHostPatternKey());
+      assertEquals(Arrays.asList("al\tice", "b\\ob\n"),
+          spilled.getUsernames());
+      // a moved back into memory and b spilled in its place
+      assertEquals(Arrays.asList("carol"),
+          cache.get(b, "page4", "v\t1").getUsernames());
+      assertEquals(Arrays.asList("al\tice", "b\\ob\n"),
+          cache.get(a, "page5", "v\t1").getUsernames());
+      assertTrue(cache.getReport(),
+          cache.getReport().contains("read back [3]"));
+    } finally {
+      cache.close();
+    }
+  }
+
+  public void testForget() throws IOException {
+    PageDedupCache cache = new PageDedupCache(1, 3, this.dir);
+    try {
+      int pages = 2 + PageDedupCache.SPILLED_PER_ENTRY;
+      PageDedupCache.Fingerprint[] fingerprints = new PageDedupCache.Fingerprint[pages];
+      for (int i = 0; i < pages; i++) {
+        fingerprints[i] = new PageDedupCache.Fingerprint("sha" + i, i, i);
+        cache.put(fingerprints[i], persona("page" + i, "v1", "user" + i), 0);
+      }
+      // the least recently used is forgotten, near hashes and all
+      assertNull(cache.get(fingerprints[0], "again", "v1"));
+      assertNull(cache.get(new PageDedupCache.Fingerprint("other", 0, 0),
+          "near", "v1"));
+      for (int i = 1; i < pages; i++) {
+        assertEquals(Arrays.asList("user" + i),
+            cache.get(fingerprints[i], "again", "v1").getUsernames());
+      }
+      assertTrue(cache.getReport(),
+          cache.getReport().contains("forgotten [1]"));
+    } finally {
+      cache.close();
+    }
+  }
+
+  private static ByteBuffer page(String html) {
+    return ByteBuffer.wrap(html.getBytes(UTF_8));
+  }
+
+  private static Persona persona(String pageId, String patternVersion,
+      String... usernames) {
+    Persona persona = new Persona();
+    persona.setPageId(pageId);
+    persona.setPatternVersion(patternVersion);
+    persona.setHostPatternKey("forum");
+    persona.getUsernames().addAll(Arrays.asList(usernames));
+    return persona;
+  }
+
+}
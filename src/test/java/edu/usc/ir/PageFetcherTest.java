@@ -0,0 +1,179 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests which {@link PageFetcher} failures are retried, against a local HTTP
+ * server.
+ */
+public class PageFetcherTest extends TestCase {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int RETRIES = 2;
+
+  private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+
+  private HttpServer server;
+
+  private String prefix;
+
+  private PageFetcher fetcher;
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    this.server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String docId = exchange.getRequestURI().getPath().substring(1);
+        AtomicInteger count = new AtomicInteger();
+        AtomicInteger existing = requests.putIfAbsent(docId, count);
+        int attempt = (existing != null ? existing : count).incrementAndGet();
+        byte[] body = ("<p>" + docId + "</p>").getBytes(UTF_8);
+        if (docId.startsWith("status")) {
+          exchange.sendResponseHeaders(Integer.parseInt(docId.substring(6)),
+              body.length);
+          exchange.getResponseBody().write(body);
+        } else if (docId.equals("truncated") && attempt == 1) {
+          // promises more than it sends, then drops the connection
+          exchange.sendResponseHeaders(200, body.length * 10);
+          exchange.getResponseBody().write(body);
+          exchange.getResponseBody().flush();
+          exchange.close();
+          return;
+        } else {
+          exchange.sendResponseHeaders(200, body.length);
+          exchange.getResponseBody().write(body);
+        }
+        exchange.close();
+      }
+    });
+    this.server.start();
+    this.prefix = "http://127.0.0.1:" + this.server.getAddress().getPort()
+        + "/";
+    this.fetcher = new PageFetcher(2, 0, RETRIES, 1, null, null);
+  }
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    this.fetcher.close();
+    this.server.stop(0);
+  }
+
+  public void testFetched() {
+    final Map<String, String> pages = new ConcurrentHashMap<String, String>();
+    this.fetcher.fetchAll(Arrays.asList("a", "b").iterator(), this.prefix,
+        new PageFetcher.PageHandler() {
+          @Override
+          public void pageFetched(String docId, String url,
+              String contentType, InputStream content) throws IOException {
+            pages.put(docId, IOUtils.toString(content, UTF_8));
+          }
+        });
+    assertEquals("<p>a</p>", pages.get("a"));
+    assertEquals("<p>b</p>", pages.get("b"));
+    assertEquals(2, this.fetcher.getFetched());
+    assertEquals(0, this.fetcher.getFailed());
+  }
+
+  public void testRetryableStatus() {
+    fetch("status503", null);
+    assertEquals(RETRIES + 1, requests("status503"));
+    assertEquals(RETRIES, this.fetcher.getRetries());
+    assertEquals(1, this.fetcher.getFailed());
+  }
+
+  public void testPermanentStatus() {
+    fetch("status404", null);
+    assertEquals(1, requests("status404"));
+    assertEquals(0, this.fetcher.getRetries());
+    assertEquals(1, this.fetcher.getFailed());
+  }
+
+  public void testBrokenBodyRetried() {
+    fetch("truncated", null);
+    assertEquals(2, requests("truncated"));
+    assertEquals(1, this.fetcher.getRetries());
+    assertEquals(1, this.fetcher.getFetched());
+    assertEquals(0, this.fetcher.getFailed());
+  }
+
+  public void testHandlerIOExceptionNotRetried() {
+    fetch("a", new IOException("queue full"));
+    assertEquals(1, requests("a"));
+    assertEquals(0, this.fetcher.getRetries());
+    assertEquals(1, this.fetcher.getFailed());
+  }
+
+  public void testHandlerRuntimeExceptionCounted() {
+    fetch("a", new IllegalStateException("disk full"));
+    assertEquals(1, requests("a"));
+    assertEquals(0, this.fetcher.getRetries());
+    assertEquals(0, this.fetcher.getFetched());
+    assertEquals(1, this.fetcher.getFailed());
+  }
+
+  // fetches docId with a handler that reads the body, then throws failure
+  private void fetch(String docId, final Exception failure) {
+    this.fetcher.fetchAll(Arrays.asList(docId).iterator(), this.prefix,
+        new PageFetcher.PageHandler() {
+          @Override
+          public void pageFetched(String docId, String url,
+              String contentType, InputStream content) throws IOException {
+            IOUtils.toByteArray(content);
+            if (failure instanceof IOException) {
+              throw (IOException) failure;
+            } else if (failure != null) {
+              throw (RuntimeException) failure;
+            }
+          }
+        });
+  }
+
+  private int requests(String docId) {
+    AtomicInteger count = this.requests.get(docId);
+    return count == null ? 0 : count.get();
+  }
+
+}
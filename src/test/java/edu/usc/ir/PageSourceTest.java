@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+/**
+ * Tests page ids, entry selection and the byte limit of the archive
+ * {@link PageSource}s.
+ */
+public class PageSourceTest extends TestCase {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String[] ENTRIES = { "com/slickguns/1.html",
+      "com/slickguns/img/2.png", "org/example/3.html" };
+
+  private File dir;
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    this.dir = File.createTempFile("pages", "");
+    this.dir.delete();
+    this.dir.mkdirs();
+  }
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    for (File file : this.dir.listFiles()) {
+      file.delete();
+    }
+    this.dir.delete();
+  }
+
+  public void testZipAndTarPageIds() throws IOException {
+    File zip = zip();
+    File tar = tar();
+    List<String> zipIds = ids(PageSource.open(zip, null, null, 0));
+    List<String> tarIds = ids(PageSource.open(tar, null, null, 0));
+    assertEquals(ENTRIES.length, zipIds.size());
+    for (int i = 0; i < ENTRIES.length; i++) {
+      assertEquals(zip.toURI() + "!/" + ENTRIES[i], zipIds.get(i));
+      assertEquals(tar.toURI() + "!/" + ENTRIES[i], tarIds.get(i));
+    }
+  }
+
+  public void testSelect() throws IOException {
+    List<String> includes = Collections.singletonList("**/*.html");
+    List<String> excludes = Collections.singletonList("org");
+    for (File archive : new File[] { zip(), tar() }) {
+      assertEquals(Arrays.asList(archive.toURI() + "!/" + ENTRIES[0]),
+          ids(PageSource.open(archive, includes, excludes, 0)));
+    }
+  }
+
+  public void testByteLimit() throws IOException {
+    for (File archive : new File[] { zip(), tar() }) {
+      PageSource source = PageSource.open(archive, null, null, 4);
+      try {
+        // one byte past the limit, so the page is known to be cut off
+        assertEquals("<p>co", new String(source.next().getContent(), UTF_8));
+      } finally {
+        source.close();
+      }
+    }
+  }
+
+  private static List<String> ids(PageSource source) throws IOException {
+    List<String> ids = new ArrayList<String>();
+    try {
+      PageRecord page;
+      while ((page = source.next()) != null) {
+        ids.add(page.getUri());
+      }
+    } finally {
+      source.close();
+    }
+    return ids;
+  }
+
+  private static byte[] content(String entry) {
+    return ("<p>" + entry + "</p>").getBytes(UTF_8);
+  }
+
+  private File zip() throws IOException {
+    File file = new File(this.dir, "pages.zip");
+    ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file));
+    try {
+      for (String entry : ENTRIES) {
+        zip.putNextEntry(new ZipEntry(entry));
+        zip.write(content(entry));
+        zip.closeEntry();
+      }
+    } finally {
+      zip.close();
+    }
+    return file;
+  }
+
+  private File tar() throws IOException {
+    File file = new File(this.dir, "pages.tar");
+    OutputStream out = new FileOutputStream(file);
+    TarArchiveOutputStream tar = new TarArchiveOutputStream(out);
+    try {
+      for (String entry : ENTRIES) {
+        byte[] content = content(entry);
+        TarArchiveEntry tarEntry = new TarArchiveEntry(entry);
+        tarEntry.setSize(content.length);
+        tar.putArchiveEntry(tarEntry);
+        tar.write(content);
+        tar.closeArchiveEntry();
+      }
+    } finally {
+      tar.close();
+    }
+    return file;
+  }
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests reloading and swapping pattern versions in {@link PatternWatcher}.
+ */
+public class PatternWatcherTest extends TestCase {
+
+  private static final String V1 = "www.example.com=//a/@href\n";
+
+  private static final String V2 = V1 + "example.org=//a/@href\n";
+
+  private File dir;
+
+  private File config;
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    this.dir = File.createTempFile("patterns", "");
+    this.dir.delete();
+    this.dir.mkdir();
+    this.config = new File(this.dir, "patterns.properties");
+    FileUtils.writeStringToFile(this.config, V1, "UTF-8");
+  }
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    FileUtils.deleteDirectory(this.dir);
+  }
+
+  public void testReload() throws IOException {
+    PatternWatcher watcher = new PatternWatcher(this.config);
+    try {
+      PatternRegistry first = watcher.get();
+      assertEquals(1, first.size());
+
+      // the same config, rewritten, is not a new version
+      FileUtils.writeStringToFile(this.config, V1, "UTF-8");
+      assertFalse(watcher.reload());
+      assertSame(first, watcher.get());
+
+      FileUtils.writeStringToFile(this.config, V2, "UTF-8");
+      // the watch thread may get there first; either way, one swap
+      watcher.reload();
+      assertFalse(watcher.reload());
+      PatternRegistry second = watcher.get();
+      assertFalse(first.getVersion().equals(second.getVersion()));
+      assertEquals(2, second.size());
+      assertEquals(1, watcher.getReloads());
+      // pages still extracting with the old snapshot keep it whole
+      assertEquals(1, first.size());
+      // and later extractors loading the file get the new one
+      assertSame(second, PatternRegistry.getInstance(this.config));
+    } finally {
+      watcher.close();
+    }
+  }
+
+  public void testUnreadableKeepsVersion() throws IOException {
+    PatternWatcher watcher = new PatternWatcher(this.config);
+    try {
+      PatternRegistry first = watcher.get();
+      assertTrue(this.config.delete());
+      assertFalse(watcher.reload());
+      assertSame(first, watcher.get());
+      assertEquals(0, watcher.getReloads());
+    } finally {
+      watcher.close();
+    }
+  }
+
+  public void testWatch() throws Exception {
+    PatternWatcher watcher = new PatternWatcher(this.config);
+    try {
+      String first = watcher.get().getVersion();
+      FileUtils.writeStringToFile(this.config, V2, "UTF-8");
+      long deadline = System.currentTimeMillis() + 10000;
+      while (watcher.get().getVersion().equals(first)
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+      assertEquals(2, watcher.get().size());
+      assertEquals(1, watcher.getReloads());
+    } finally {
+      watcher.close();
+    }
+    // closed, the last snapshot stays
+    assertEquals(2, watcher.get().size());
+  }
+
+}
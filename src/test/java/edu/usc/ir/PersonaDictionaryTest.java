@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests interning, page counts, eviction and retention, and the summary
+ * written by {@link PersonaDictionary}.
+ */
+public class PersonaDictionaryTest extends TestCase {
+
+  private File summaryFile;
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    this.summaryFile = File.createTempFile("personas", ".tsv");
+  }
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    this.summaryFile.delete();
+  }
+
+  public void testIntern() throws IOException {
+    PersonaDictionary dictionary = new PersonaDictionary(100, null);
+    try {
+      String alice = dictionary.intern(new String("alice"));
+      assertSame(alice, dictionary.intern(new String("alice")));
+      assertNotSame(alice, dictionary.intern("bob"));
+      assertEquals(2, dictionary.size());
+      assertEquals(1.0 / 3, dictionary.getHitRate(), 1e-9);
+
+      dictionary.recordPage("page1", Arrays.asList("alice", "bob"));
+      dictionary.recordPage("page2", Arrays.asList("alice"));
+      assertEquals(2, dictionary.getPages("alice"));
+      assertEquals(1, dictionary.getPages("bob"));
+      assertEquals(0, dictionary.getPages("carol"));
+      // recording is not a lookup
+      assertEquals(1.0 / 3, dictionary.getHitRate(), 1e-9);
+      Map<String, Long> top = dictionary.getTopUsernames(1);
+      assertEquals(Collections.singletonMap("alice", 2L), top);
+    } finally {
+      dictionary.close();
+    }
+  }
+
+  public void testEvictionKeepsCount() throws IOException {
+    // one stripe of one username
+    PersonaDictionary dictionary = new PersonaDictionary(1, null);
+    try {
+      dictionary.recordPage("page1", Arrays.asList(dictionary.intern("alice")));
+      dictionary.recordPage("page2", Arrays.asList("alice"));
+      dictionary.intern("bob");
+      assertEquals(1, dictionary.size());
+      assertEquals(1, dictionary.getEvictions());
+      // retained, so still counted
+      assertEquals(2, dictionary.getPages("alice"));
+
+      dictionary.recordPage("page3", Arrays.asList(dictionary.intern("alice")));
+      assertEquals(3, dictionary.getPages("alice"));
+      assertEquals(2, dictionary.getEvictions());
+    } finally {
+      dictionary.close();
+    }
+  }
+
+  public void testRetainsMostFrequent() throws IOException {
+    PersonaDictionary dictionary = new PersonaDictionary(1, null);
+    try {
+      for (int i = 0; i < PersonaDictionary.RETAINED + 10; i++) {
+        dictionary.recordPage("page" + i, Arrays.asList("once" + i));
+      }
+      // the first RETAINED evicted are kept; the rest, on no more pages, not
+      assertEquals(1, dictionary.getPages("once0"));
+      assertEquals(0, dictionary.getPages("once" + PersonaDictionary.RETAINED));
+
+      dictionary.recordPage("pageA", Arrays.asList("often"));
+      dictionary.recordPage("pageB", Arrays.asList("often"));
+      // evicts often, which takes the place of the oldest retained
+      dictionary.recordPage("pageC", Arrays.asList("new"));
+      assertEquals(2, dictionary.getPages("often"));
+      assertEquals(0, dictionary.getPages("once0"));
+      assertEquals(1, dictionary.getPages("once1"));
+      assertEquals(Collections.singletonMap("often", 2L),
+          dictionary.getTopUsernames(1));
+      assertEquals(PersonaDictionary.RETAINED + 11, dictionary.getEvictions());
+    } finally {
+      dictionary.close();
+    }
+  }
+
+  public void testSummary() throws IOException {
+    PersonaDictionary dictionary = new PersonaDictionary(1,
+        this.summaryFile);
+    dictionary.recordPage("page1", Arrays.asList("alice"));
+    dictionary.recordPage("page2", Arrays.asList("alice"));
+    // evicts alice, whose page ids are written by the next recordPage
+    dictionary.recordPage("page3", Arrays.asList("b\tob"));
+    dictionary.recordPage("page4", Arrays.asList("alice"));
+    dictionary.close();
+
+    Map<String, List<String>> pages = new LinkedHashMap<String, List<String>>();
+    Map<String, String> ids = new LinkedHashMap<String, String>();
+    for (String line : FileUtils.readLines(this.summaryFile, "UTF-8")) {
+      String[] fields = line.split("\t");
+      String previous = ids.put(fields[0], fields[1]);
+      assertTrue(line, previous == null || previous.equals(fields[1]));
+      if (!pages.containsKey(fields[0])) {
+        pages.put(fields[0], new ArrayList<String>());
+      }
+      pages.get(fields[0]).addAll(
+          Arrays.asList(fields).subList(2, fields.length));
+    }
+    assertEquals(Arrays.asList("page1", "page2", "page4"),
+        pages.get("alice"));
+    assertEquals(Arrays.asList("page3"), pages.get("b ob"));
+    assertEquals(2, pages.size());
+    assertFalse(ids.get("alice").equals(ids.get("b ob")));
+  }
+
+  public void testConcurrentIntern() throws Exception {
+    final PersonaDictionary dictionary = new PersonaDictionary(1000, null);
+    final String[][] interned = new String[4][200];
+    Thread[] threads = new Thread[interned.length];
+    for (int t = 0; t < threads.length; t++) {
+      final int thread = t;
+      threads[t] = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < interned[thread].length; i++) {
+            interned[thread][i] = dictionary.intern(new String("user" + i));
+          }
+        }
+      };
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    for (int i = 0; i < interned[0].length; i++) {
+      for (int t = 1; t < threads.length; t++) {
+        assertSame(interned[0][i], interned[t][i]);
+      }
+    }
+    assertEquals(interned[0].length, dictionary.size());
+    assertEquals(0, dictionary.getEvictions());
+    dictionary.close();
+  }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Tests what the checkpoint hash of {@link PersonaIndexer} depends on.
+ */
+public class PersonaIndexerTest extends TestCase {
+
+  private static final File CONFIG = new File(
+      "src/main/resources/patterns.properties");
+
+  private final byte[] page = PersonaExtractionServer.warmupPage(40);
+
+  public void testSameBytesInEveryMode() throws IOException {
+    PageLimits limits = new PageLimits(page.length * 2, 0, 0, 0);
+    assertEquals(hash(PageLimits.NONE, null, false, page, false),
+        hash(PageLimits.NONE, null, false, page, true));
+    assertEquals(hash(limits, null, false, page, false),
+        hash(limits, null, false, page, true));
+
+    PageLimits cut = new PageLimits(1024, 0, 0, 0);
+    assertEquals(hash(cut, null, false, page, false),
+        hash(cut, null, false, page, true));
+  }
+
+  public void testContentPastTheByteLimit() throws IOException {
+    PageLimits cut = new PageLimits(1024, 0, 0, 0);
+    byte[] changed = Arrays.copyOf(page, page.length);
+    changed[changed.length - 10] = 'X';
+    for (boolean dedup : new boolean[] { false, true }) {
+      assertFalse(hash(cut, null, false, page, dedup).equals(
+          hash(cut, null, false, changed, dedup)));
+    }
+  }
+
+  public void testSettings() throws IOException {
+    String base = hash(PageLimits.NONE, null, false, page, false);
+    assertFalse(base.equals(hash(PageLimits.NONE, "www.slickguns.com", false,
+        page, false)));
+    assertFalse(base.equals(hash(PageLimits.NONE, null, true, page, false)));
+    assertFalse(base.equals(hash(new PageLimits(0, 0, 10, 0), null, false,
+        page, false)));
+  }
+
+  public void testPatternVersion() throws IOException {
+    File config = File.createTempFile("patterns", ".properties");
+    try {
+      FileUtils.copyFile(CONFIG, config);
+      PatternRegistry before = PatternRegistry.load(config);
+      FileUtils.writeStringToFile(config, "\nwww.example.com=//a/@href\n",
+          "UTF-8", true);
+      PatternRegistry after = PatternRegistry.load(config);
+      assertFalse(hash(before, PageLimits.NONE, null, false, page, false)
+          .equals(hash(after, PageLimits.NONE, null, false, page, false)));
+    } finally {
+      config.delete();
+    }
+  }
+
+  private static String hash(PageLimits limits, String host, boolean route,
+      byte[] content, boolean dedup) throws IOException {
+    return hash(PatternRegistry.getInstance(CONFIG), limits, host, route,
+        content, dedup);
+  }
+
+  private static String hash(PatternRegistry patterns, PageLimits limits,
+      String host, boolean route, byte[] content, boolean dedup)
+      throws IOException {
+    ExtractionOptions options = new ExtractionOptions();
+    options.setLimits(limits);
+    options.setRoute(route);
+    PersonaIndexer indexer = new PersonaIndexer();
+    indexer.setOptions(options);
+    indexer.setHost(host);
+    PersonaExtractor extractor = new PersonaExtractor();
+    extractor.setPatternRegistry(patterns);
+    options.configure(extractor);
+    extractor.setPage(content, "http://h/p");
+    ByteBuffer parsed = null;
+    PageDedupCache.Fingerprint fingerprint = null;
+    if (dedup) {
+      parsed = extractor.readPage();
+      fingerprint = new PageDedupCache.Fingerprint(ContentHash.sha1(parsed),
+          0, 0);
+    }
+    return indexer.checkpointHash(extractor, parsed, fingerprint);
+  }
+
+}
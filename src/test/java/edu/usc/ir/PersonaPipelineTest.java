@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.util.JavaBinCodec;
+import org.apache.solr.common.util.NamedList;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests that {@link PersonaPipeline} drains and shuts down, rather than
+ * hangs, when extraction fails, against a local ImageCat and page server.
+ */
+public class PersonaPipelineTest extends TestCase {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final int PAGES = 40;
+
+  private final AtomicInteger pageRequests = new AtomicInteger();
+
+  private final AtomicInteger indexed = new AtomicInteger();
+
+  private HttpServer server;
+
+  private String url;
+
+  private ExecutorService runner;
+
+  // fails the third page it is given with whatever failPage() throws
+  private abstract class FailingPipeline extends PersonaPipeline {
+
+    abstract void failPage() throws IOException;
+
+    /* (non-Javadoc)
+     * @see edu.usc.ir.PersonaPipeline#newIndexer()
+     */
+    @Override
+    PersonaIndexer newIndexer() {
+      return new PersonaIndexer() {
+        @Override
+        void indexPage(PersonaExtractor extractor, PageRecord page)
+            throws IOException, SolrServerException {
+          if (indexed.incrementAndGet() == 3) {
+            failPage();
+          }
+        }
+      };
+    }
+
+  }
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#setUp()
+   */
+  @Override
+  protected void setUp() throws Exception {
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    // ImageCat's Solr, answering every query with all the doc ids
+    this.server.createContext("/imagecat/select", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        SolrDocumentList docs = new SolrDocumentList();
+        docs.setNumFound(PAGES);
+        for (int i = 0; i < PAGES; i++) {
+          SolrDocument doc = new SolrDocument();
+          doc.setField("id", "/com/example/www/doc" + i);
+          docs.add(doc);
+        }
+        NamedList<Object> response = new NamedList<Object>();
+        response.add("response", docs);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        new JavaBinCodec().marshal(response, body);
+        send(exchange, "application/octet-stream", body.toByteArray());
+      }
+    });
+    this.server.createContext("/pages/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        pageRequests.incrementAndGet();
+        send(exchange, "text/html; charset=UTF-8",
+            "<html><a href='/members/alice'>alice</a></html>"
+                .getBytes(UTF_8));
+      }
+    });
+    this.server.start();
+    this.url = "http://127.0.0.1:" + this.server.getAddress().getPort();
+    this.runner = Executors.newSingleThreadExecutor();
+  }
+
+  /* (non-Javadoc)
+   * @see junit.framework.TestCase#tearDown()
+   */
+  @Override
+  protected void tearDown() throws Exception {
+    this.runner.shutdownNow();
+    this.server.stop(0);
+  }
+
+  public void testCompletes() throws Exception {
+    run(new PersonaPipeline() {
+      @Override
+      PersonaIndexer newIndexer() {
+        return new PersonaIndexer() {
+          @Override
+          void indexPage(PersonaExtractor extractor, PageRecord page) {
+            indexed.incrementAndGet();
+          }
+        };
+      }
+    }, 2);
+    assertEquals(PAGES, this.indexed.get());
+    assertEquals(PAGES, this.pageRequests.get());
+  }
+
+  public void testExtractionFailure() throws Exception {
+    try {
+      run(new FailingPipeline() {
+        @Override
+        void failPage() throws IOException {
+          throw new IOException("Unable to extract");
+        }
+      }, 1);
+      fail("Expected the extraction failure");
+    } catch (IOException e) {
+      assertEquals("Unable to extract", e.getMessage());
+    }
+    // fetching stopped soon after, and nothing more was extracted
+    assertTrue(this.pageRequests.toString(), this.pageRequests.get() < PAGES);
+    assertEquals(3, this.indexed.get());
+  }
+
+  public void testExtractorDies() throws Exception {
+    try {
+      run(new FailingPipeline() {
+        @Override
+        void failPage() {
+          throw new OutOfMemoryError("Pretend");
+        }
+      }, 2);
+      fail("Expected the extractor to die");
+    } catch (RuntimeException e) {
+      assertTrue(e.getMessage(),
+          e.getMessage().startsWith("Extraction thread died"));
+      assertTrue(e.getCause() instanceof OutOfMemoryError);
+    }
+    assertTrue(this.pageRequests.toString(), this.pageRequests.get() < PAGES);
+  }
+
+  // runs the pipeline with a one page queue, failing if it does not return
+  private void run(final PersonaPipeline pipeline, int extractThreads)
+      throws Exception {
+    pipeline.processArgs(new String[] { "-i", this.url + "/imagecat",
+        "-hp", "example", "-pp", this.url + "/pages/", "-r",
+        Integer.toString(PAGES), "-t", "2", "-q", "1", "-xt",
+        Integer.toString(extractThreads), "-rd", "1", "-e", "NEKO", "-c",
+        "src/main/resources/patterns.properties", "-s",
+        this.url + "/solr" });
+    Future<Void> done = this.runner.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        pipeline.run();
+        return null;
+      }
+    });
+    try {
+      done.get(60, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static void send(HttpExchange exchange, String contentType,
+      byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", contentType);
+    exchange.sendResponseHeaders(200, body.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(body);
+    out.close();
+  }
+
+}
@@ -0,0 +1,247 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.usc.ir;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.params.UpdateParams;
+import org.apache.solr.common.util.NamedList;
+
+/**
+ * Tests batching, commit points, background sending and failure reporting
+ * in {@link SolrBatchSubmitter}, against a Solr server faked in memory.
+ */
+public class SolrBatchSubmitterTest extends TestCase {
+
+  // records the add and commit requests, failing the adds asked to
+  private static class RecordingServer extends SolrServer {
+
+    private static final long serialVersionUID = 1L;
+
+    final List<List<Object>> adds = Collections
+        .synchronizedList(new ArrayList<List<Object>>());
+
+    final List<Integer> commitWithins = Collections
+        .synchronizedList(new ArrayList<Integer>());
+
+    final List<Integer> commits = Collections
+        .synchronizedList(new ArrayList<Integer>());
+
+    // the add requests to fail, counting from 0
+    final List<Integer> failing = new ArrayList<Integer>();
+
+    private int requests = 0;
+
+    /* (non-Javadoc)
+     * @see org.apache.solr.client.solrj.SolrServer#request(org.apache.solr.client.solrj.SolrRequest)
+     */
+    @Override
+    public synchronized NamedList<Object> request(SolrRequest request)
+        throws SolrServerException, IOException {
+      UpdateRequest update = (UpdateRequest) request;
+      SolrParams params = update.getParams();
+      if (params != null && params.getBool(UpdateParams.COMMIT, false)) {
+        this.commits.add(this.adds.size());
+      }
+      if (update.getDocuments() != null) {
+        if (this.failing.contains(this.requests++)) {
+          throw new SolrServerException("add failed");
+        }
+        List<Object> ids = new ArrayList<Object>();
+        for (SolrInputDocument doc : update.getDocuments()) {
+          ids.add(doc.getFieldValue("id"));
+        }
+        this.adds.add(ids);
+        this.commitWithins.add(update.getCommitWithin());
+      }
+      return new NamedList<Object>();
+    }
+
+    /* (non-Javadoc)
+     * @see org.apache.solr.client.solrj.SolrServer#shutdown()
+     */
+    @Override
+    public void shutdown() {
+      // nothing to release
+    }
+
+  }
+
+  // records what each listener call was given
+  private static class RecordingListener
+      implements SolrBatchSubmitter.BatchListener {
+
+    final List<Integer> sent = Collections
+        .synchronizedList(new ArrayList<Integer>());
+
+    final List<Object> failed = Collections
+        .synchronizedList(new ArrayList<Object>());
+
+    Exception cause;
+
+    /* (non-Javadoc)
+     * @see edu.usc.ir.SolrBatchSubmitter.BatchListener#batchSent(java.util.List)
+     */
+    @Override
+    public void batchSent(List<SolrInputDocument> batch) {
+      this.sent.add(batch.size());
+    }
+
+    /* (non-Javadoc)
+     * @see edu.usc.ir.SolrBatchSubmitter.BatchListener#batchFailed(java.util.List, java.lang.Exception)
+     */
+    @Override
+    public void batchFailed(List<SolrInputDocument> batch, Exception cause) {
+      for (SolrInputDocument doc : batch) {
+        this.failed.add(doc.getFieldValue("id"));
+      }
+      this.cause = cause;
+    }
+
+  }
+
+  private final RecordingServer server = new RecordingServer();
+
+  private final RecordingListener listener = new RecordingListener();
+
+  public void testBatches() throws Exception {
+    SolrBatchSubmitter submitter = new SolrBatchSubmitter(this.server,
+        new CommitPolicy(0, 0, 0), 3, 0, 0);
+    submitter.addListener(this.listener);
+    submit(submitter, 0, 7);
+    // full batches go as they fill
+    assertEquals(2, this.server.adds.size());
+    submitter.close();
+
+    assertEquals(ids(0, 3), this.server.adds.get(0));
+    assertEquals(ids(3, 6), this.server.adds.get(1));
+    assertEquals(ids(6, 7), this.server.adds.get(2));
+    assertEquals(list(3, 3, 1), this.listener.sent);
+    assertEquals(-1, this.server.commitWithins.get(0).intValue());
+    // the final commit, after every add
+    assertEquals(list(3), this.server.commits);
+    assertEquals(7, submitter.getDocsSent());
+  }
+
+  public void testCommitPoints() throws Exception {
+    SolrBatchSubmitter submitter = new SolrBatchSubmitter(this.server,
+        new CommitPolicy(4, 0, 500), 2, 0, 0);
+    submit(submitter, 0, 8);
+    submitter.close();
+
+    assertEquals(list(2, 4), this.server.commits);
+    for (Integer commitWithin : this.server.commitWithins) {
+      assertEquals(500, commitWithin.intValue());
+    }
+    // nothing left to commit at close
+    submitter.commit();
+    assertEquals(2, this.server.commits.size());
+  }
+
+  public void testFailure() throws Exception {
+    this.server.failing.add(1);
+    SolrBatchSubmitter submitter = new SolrBatchSubmitter(this.server,
+        new CommitPolicy(0, 0, 0), 2, 0, 0);
+    submitter.addListener(this.listener);
+    submit(submitter, 0, 5);
+    submitter.close();
+
+    assertEquals(ids(2, 4), this.listener.failed);
+    assertEquals("add failed", this.listener.cause.getMessage());
+    assertEquals(list(2, 1), this.listener.sent);
+    assertEquals(3, submitter.getDocsSent());
+    assertEquals(2, submitter.getDocsFailed());
+    assertEquals(1, submitter.getBatchesFailed());
+    assertEquals(list(2), this.server.commits);
+  }
+
+  public void testMaxDelay() throws Exception {
+    SolrBatchSubmitter submitter = new SolrBatchSubmitter(this.server,
+        new CommitPolicy(0, 0, 0), 100, 20, 0);
+    try {
+      submit(submitter, 0, 1);
+      long deadline = System.currentTimeMillis() + 10000;
+      while (this.server.adds.isEmpty()
+          && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(ids(0, 1), this.server.adds.get(0));
+    } finally {
+      submitter.close();
+    }
+    assertEquals(1, this.server.adds.size());
+  }
+
+  public void testSenderThreads() throws Exception {
+    this.server.failing.add(3);
+    SolrBatchSubmitter submitter = new SolrBatchSubmitter(this.server,
+        new CommitPolicy(0, 0, 0), 2, 0, 3);
+    submitter.addListener(this.listener);
+    submit(submitter, 0, 41);
+    submitter.close();
+
+    List<Object> seen = new ArrayList<Object>(this.listener.failed);
+    for (List<Object> ids : this.server.adds) {
+      seen.addAll(ids);
+    }
+    // every document exactly once, in whichever order the senders ran
+    assertEquals(41, seen.size());
+    assertEquals(new HashSet<Object>(ids(0, 41)), new HashSet<Object>(seen));
+    assertEquals(2, this.listener.failed.size());
+    assertEquals(39, submitter.getDocsSent());
+    // close waits for every sender before the final commit
+    assertEquals(list(20), this.server.commits);
+  }
+
+  private static void submit(SolrBatchSubmitter submitter, int from,
+      int to) {
+    for (int i = from; i < to; i++) {
+      SolrInputDocument doc = new SolrInputDocument();
+      doc.setField("id", "doc" + i);
+      submitter.submit(doc);
+    }
+  }
+
+  private static List<Object> ids(int from, int to) {
+    List<Object> ids = new ArrayList<Object>();
+    for (int i = from; i < to; i++) {
+      ids.add("doc" + i);
+    }
+    return ids;
+  }
+
+  private static List<Integer> list(Integer... values) {
+    List<Integer> list = new ArrayList<Integer>();
+    Collections.addAll(list, values);
+    return list;
+  }
+
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the unique, insertion ordered {@link UsernameList}.
+ */
+public class UsernameListTest extends TestCase {
+
+  public void testAdd() {
+    UsernameList list = new UsernameList();
+    assertTrue(list.isEmpty());
+    assertTrue(list.add("bob"));
+    assertTrue(list.add("alice"));
+    assertFalse(list.add("bob"));
+    assertTrue(list.add("Bob"));
+    assertEquals(Arrays.asList("bob", "alice", "Bob"), list);
+    assertEquals(3, list.size());
+  }
+
+  public void testLookup() {
+    UsernameList list = new UsernameList();
+    list.add("bob");
+    list.add("alice");
+    assertTrue(list.contains("alice"));
+    assertFalse(list.contains("carol"));
+    assertFalse(list.contains(null));
+    assertFalse(list.contains(Integer.valueOf(1)));
+    assertEquals(1, list.indexOf("alice"));
+    assertEquals(1, list.lastIndexOf("alice"));
+    assertEquals(-1, list.indexOf("carol"));
+  }
+
+  public void testGrowth() {
+    UsernameList list = new UsernameList();
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(list.add("user" + i));
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertFalse(list.add("user" + i));
+      assertEquals("user" + i, list.get(i));
+      assertEquals(i, list.indexOf("user" + i));
+    }
+    assertEquals(1000, list.size());
+  }
+
+  public void testAddAll() {
+    UsernameList other = new UsernameList();
+    for (int i = 0; i < 20; i++) {
+      other.add("user" + i);
+    }
+    UsernameList list = new UsernameList();
+    list.add("user5");
+    list.add("carol");
+    assertTrue(list.addAll(other));
+    // user5 keeps its place
+    assertEquals(21, list.size());
+    assertEquals("user5", list.get(0));
+    assertEquals("user0", list.get(2));
+    assertEquals(20, list.indexOf("user19"));
+    assertFalse(list.addAll(other));
+    assertTrue(list.addAll(Arrays.asList("carol", "dave")));
+    assertEquals(22, list.size());
+  }
+
+  public void testClear() {
+    UsernameList list = new UsernameList();
+    list.add("bob");
+    list.add("alice");
+    list.clear();
+    assertTrue(list.isEmpty());
+    assertFalse(list.contains("bob"));
+    assertTrue(list.add("alice"));
+    assertEquals(0, list.indexOf("alice"));
+  }
+
+  public void testNull() {
+    UsernameList list = new UsernameList();
+    try {
+      list.add(null);
+      fail("Expected NullPointerException");
+    } catch (NullPointerException e) {
+      // expected
+    }
+    try {
+      list.addAll(Arrays.asList("bob", null));
+      fail("Expected NullPointerException");
+    } catch (NullPointerException e) {
+      // expected
+    }
+  }
+
+  public void testUnsupported() {
+    UsernameList list = new UsernameList();
+    list.add("bob");
+    try {
+      list.set(0, "alice");
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      list.remove(0);
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      list.add(0, "alice");
+      fail("Expected UnsupportedOperationException");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      list.get(1);
+      fail("Expected IndexOutOfBoundsException");
+    } catch (IndexOutOfBoundsException e) {
+      // expected
+    }
+  }
+
+}
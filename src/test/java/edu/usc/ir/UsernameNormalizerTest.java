@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the username filter rules of {@link UsernameNormalizer}.
+ */
+public class UsernameNormalizerTest extends TestCase {
+
+  private final StringBuilder scratch = new StringBuilder();
+
+  public void testDefault() {
+    UsernameNormalizer normalizer = UsernameNormalizer.DEFAULT;
+    assertEquals("Alice", normalizer.fromLink("/members/Alice", scratch));
+    assertEquals("Alice", normalizer.fromLink("/members/Alice/", scratch));
+    assertEquals("Alice", normalizer.fromLink(" /members/Alice// ", scratch));
+    assertEquals("Alice", normalizer.fromLink("Alice", scratch));
+    assertNull(normalizer.fromLink("/member.php?u=1", scratch));
+    assertNull(normalizer.fromLink("/MEMBER.PHP", scratch));
+    assertNull(normalizer.fromLink("/members/Alice?tab=posts", scratch));
+    assertNull(normalizer.fromLink("/", scratch));
+    assertNull(normalizer.fromLink("", scratch));
+  }
+
+  public void testQueryAndFragment() {
+    UsernameNormalizer normalizer = UsernameNormalizer.parse("");
+    assertEquals("bob", normalizer.fromLink("/users/bob?tab=posts", scratch));
+    assertEquals("bob", normalizer.fromLink("/users/bob/#about", scratch));
+    assertEquals("bob", normalizer.fromLink("/users/bob?a=/b#c/d", scratch));
+  }
+
+  public void testReject() {
+    UsernameNormalizer normalizer = UsernameNormalizer
+        .parse("reject:/login reject:Search");
+    assertNull(normalizer.fromLink("/LOGIN/bob", scratch));
+    assertNull(normalizer.fromLink("/search/bob", scratch));
+    assertEquals("bob", normalizer.fromLink("/users/bob", scratch));
+  }
+
+  public void testStripId() {
+    UsernameNormalizer normalizer = UsernameNormalizer.parse("strip-id");
+    assertEquals("alice", normalizer.fromLink("/members/alice.1234/",
+        scratch));
+    assertEquals("alice", normalizer.fromLink("/members/1234-alice",
+        scratch));
+    // nothing but the id, or no separator, is kept as it is
+    assertEquals("1234", normalizer.fromLink("/members/1234", scratch));
+    assertEquals("alice99", normalizer.fromLink("/members/alice99", scratch));
+    assertEquals(".1234", normalizer.fromLink("/members/.1234", scratch));
+  }
+
+  public void testDecodeLowercase() {
+    UsernameNormalizer normalizer = UsernameNormalizer
+        .parse("decode lowercase");
+    assertEquals("al\u00e9x", normalizer.fromLink("/members/Al%C3%A9x",
+        scratch));
+    assertEquals("john smith", normalizer.fromLink("/members/John%20Smith/",
+        scratch));
+    assertEquals("\ud83d\ude00", normalizer.fromLink("/u/%F0%9F%98%80",
+        scratch));
+    // malformed escapes are kept
+    assertEquals("a%zz", normalizer.fromLink("/u/A%zz", scratch));
+    assertEquals("a%c3", normalizer.fromLink("/u/a%C3", scratch));
+    assertEquals("bob", normalizer.fromLink("/u/bob", scratch));
+  }
+
+  public void testNoDecode() {
+    UsernameNormalizer normalizer = UsernameNormalizer.parse("lowercase");
+    assertEquals("al%c3%a9x", normalizer.fromLink("/members/Al%C3%A9x",
+        scratch));
+  }
+
+  public void testAllRules() {
+    UsernameNormalizer normalizer = UsernameNormalizer
+        .parse("reject:php reject:? lowercase decode strip-id");
+    assertEquals("j\u00f6rg", normalizer.fromLink(
+        "/forums/members/J%C3%B6rg.77/", scratch));
+    assertNull(normalizer.fromLink("/member.php?u=77", scratch));
+  }
+
+  public void testBundledPatternsKeepUsernames() throws IOException {
+    PatternRegistry patterns = PatternRegistry.load(new File(
+        "src/main/resources/patterns.properties"));
+    for (String hostKey : patterns.getHostKeys()) {
+      UsernameNormalizer normalizer = patterns.getNormalizer(hostKey);
+      assertEquals(hostKey, "Dave",
+          normalizer.fromLink("/members/Dave", scratch));
+      assertEquals(hostKey, "J%C3%B6rg.77",
+          normalizer.fromLink("/members/J%C3%B6rg.77/", scratch));
+    }
+  }
+
+  public void testFromText() {
+    assertEquals("Bob Smith", UsernameNormalizer.DEFAULT.fromText(
+        "  Bob Smith \n", scratch));
+    assertNull(UsernameNormalizer.DEFAULT.fromText(" \t ", scratch));
+    assertEquals("bob", UsernameNormalizer.parse("lowercase decode").fromText(
+        "BOB", scratch));
+    assertEquals("a%41", UsernameNormalizer.parse("decode").fromText("a%41",
+        scratch));
+  }
+
+  public void testParse() {
+    assertEquals("[rules=reject:x lowercase]", UsernameNormalizer.parse(
+        "  reject:x lowercase ").toString());
+    try {
+      UsernameNormalizer.parse("uppercase");
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("uppercase"));
+    }
+    try {
+      UsernameNormalizer.parse("reject:");
+      fail("Expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // an empty reject would match every link
+    }
+  }
+
+}
@@ -0,0 +1,185 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.usc.ir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Tests WARC record and HTTP response decoding in {@link WarcPageSource}.
+ */
+public class WarcPageSourceTest extends TestCase {
+
+  private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+  public void testDechunk() throws IOException {
+    assertEquals("Wikipedia", dechunk("4\r\nWiki\r\n5;ext=1\r\npedia\r\n0\r\n"
+        + "Trailer: x\r\n\r\n"));
+  }
+
+  public void testDechunkByteByByte() throws IOException {
+    InputStream body = WarcPageSource.dechunk(stream(
+        "4\r\nWiki\r\n5\r\npedia\r\n0\r\n\r\n"));
+    StringBuilder read = new StringBuilder();
+    int b;
+    while ((b = body.read()) != -1) {
+      read.append((char) b);
+    }
+    assertEquals("Wikipedia", read.toString());
+    assertEquals(-1, body.read());
+
+    body = WarcPageSource.dechunk(stream("4\r\nWi"));
+    assertEquals('W', body.read());
+    assertEquals('i', body.read());
+    try {
+      body.read();
+      fail("Expected EOFException");
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+
+  public void testDechunkEmpty() throws IOException {
+    assertEquals("", dechunk("0\r\n\r\n"));
+  }
+
+  public void testDechunkBadSize() {
+    try {
+      dechunk("zz\r\nabc\r\n0\r\n\r\n");
+      fail("Expected IOException");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("zz"));
+    }
+  }
+
+  public void testDechunkTruncated() throws IOException {
+    try {
+      dechunk("a\r\nabc");
+      fail("Expected EOFException");
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+
+  public void testReadHttpHeaders() throws IOException {
+    InputStream http = stream("Content-Type: Text/HTML; Charset=UTF-8\r\n"
+        + "Transfer-Encoding:chunked\r\n" + "no colon\r\n" + "\r\n" + "body");
+    Map<String, String> headers = WarcPageSource.readHttpHeaders(http);
+    assertEquals(2, headers.size());
+    assertEquals("text/html; charset=utf-8", headers.get("content-type"));
+    assertEquals("chunked", headers.get("transfer-encoding"));
+    // the body is left unread
+    assertEquals("body", new String(IOUtils.toByteArray(http), ISO_8859_1));
+  }
+
+  public void testResponses() throws IOException {
+    ByteArrayOutputStream warc = new ByteArrayOutputStream();
+    record(warc, "warcinfo", null, "application/warc-fields",
+        "software: test\r\n");
+    record(warc, "request", "http://a/1", "application/http; msgtype=request",
+        "GET /1 HTTP/1.1\r\n\r\n");
+    record(warc, "response", "http://a/1",
+        "application/http; msgtype=response",
+        "HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=UTF-8\r\n"
+            + "Content-Length: 8\r\n\r\n<p>1</p>trailing");
+    record(warc, "response", "http://a/2",
+        "application/http; msgtype=response",
+        "HTTP/1.1 404 Not Found\r\nContent-Type: text/html\r\n\r\nmissing");
+    record(warc, "response", "http://a/3.png",
+        "application/http; msgtype=response",
+        "HTTP/1.1 200 OK\r\nContent-Type: image/png\r\n\r\nPNG");
+    record(warc, "response", "<http://a/4>",
+        "application/http; msgtype=response",
+        "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\n"
+            + "Transfer-Encoding: chunked\r\n\r\n3\r\n<p>\r\n5\r\n4</p>\r\n"
+            + "0\r\n\r\n");
+    record(warc, "resource", "http://a/5", "text/html; charset=ISO-8859-1",
+        "<p>5</p>");
+
+    WarcPageSource source = new WarcPageSource(
+        new ByteArrayInputStream(warc.toByteArray()), 0);
+    try {
+      PageRecord page = source.next();
+      assertEquals("http://a/1", page.getUri());
+      // the body ends at its declared length
+      assertEquals("<p>1</p>", new String(page.getContent(), ISO_8859_1));
+      assertEquals(Charset.forName("UTF-8"), page.getCharset());
+
+      page = source.next();
+      assertEquals("http://a/4", page.getUri());
+      assertEquals("<p>4</p>", new String(page.getContent(), ISO_8859_1));
+      assertNull(page.getCharset());
+
+      page = source.next();
+      assertEquals("http://a/5", page.getUri());
+      assertEquals("<p>5</p>", new String(page.getContent(), ISO_8859_1));
+      assertEquals(ISO_8859_1, page.getCharset());
+
+      assertNull(source.next());
+    } finally {
+      source.close();
+    }
+  }
+
+  public void testNotWarc() throws IOException {
+    WarcPageSource source = new WarcPageSource(stream("<html>\r\n"), 0);
+    try {
+      source.next();
+      fail("Expected IOException");
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("<html>"));
+    } finally {
+      source.close();
+    }
+  }
+
+  private static String dechunk(String chunks) throws IOException {
+    return new String(IOUtils.toByteArray(
+        WarcPageSource.dechunk(stream(chunks))), ISO_8859_1);
+  }
+
+  private static InputStream stream(String data) {
+    return new ByteArrayInputStream(data.getBytes(ISO_8859_1));
+  }
+
+  private static void record(ByteArrayOutputStream warc, String type,
+      String uri, String contentType, String block) throws IOException {
+    byte[] bytes = block.getBytes(ISO_8859_1);
+    StringBuilder headers = new StringBuilder("WARC/1.0\r\n");
+    headers.append("WARC-Type: ").append(type).append("\r\n");
+    if (uri != null) {
+      headers.append("WARC-Target-URI: ").append(uri).append("\r\n");
+    }
+    headers.append("Content-Type: ").append(contentType).append("\r\n");
+    headers.append("Content-Length: ").append(bytes.length).append("\r\n");
+    headers.append("\r\n");
+    warc.write(headers.toString().getBytes(ISO_8859_1));
+    warc.write(bytes);
+    warc.write("\r\n\r\n".getBytes(ISO_8859_1));
+  }
+
+}